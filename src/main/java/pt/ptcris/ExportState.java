@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * <p>
+ * The state of the local activities of a user profile as last exported to
+ * ORCID, used by the delta export procedures (see
+ * {@link PTCRISync#exportWorksDelta(ORCIDClient, java.util.List, java.util.Collection, ExportState, pt.ptcris.handlers.ProgressHandler)}).
+ * Maps the local key of each exported activity to the put-code of the remote
+ * ORCID activity it is synchronized with and to the content fingerprint of
+ * the local activity when exported (see
+ * {@link pt.ptcris.utils.ORCIDHelper#fingerprintE(org.um.dsi.gavea.orcid.model.common.ElementSummary)}).
+ * </p>
+ *
+ * <p>
+ * The state is updated by the delta export procedures and is expected to be
+ * persisted by the CRIS between executions, for instance by iterating over
+ * its entries and restoring them with {@link #put(BigInteger, BigInteger, UUID)}.
+ * </p>
+ */
+public final class ExportState {
+
+	/**
+	 * The exported state of a local activity.
+	 */
+	public static final class Entry {
+
+		/** The put-code of the remote ORCID activity. */
+		public final BigInteger putcode;
+		/** The content fingerprint of the local activity when exported. */
+		public final UUID fingerprint;
+
+		private Entry(BigInteger putcode, UUID fingerprint) {
+			this.putcode = putcode;
+			this.fingerprint = fingerprint;
+		}
+	}
+
+	private final Map<BigInteger, Entry> entries = new LinkedHashMap<BigInteger, Entry>();
+
+	/**
+	 * Retrieves the exported state of a local activity.
+	 *
+	 * @param key
+	 *            the local key of the activity
+	 * @return the exported state, null if not exported
+	 */
+	public synchronized Entry get(BigInteger key) {
+		return entries.get(key);
+	}
+
+	/**
+	 * Records the exported state of a local activity.
+	 *
+	 * @param key
+	 *            the local key of the activity
+	 * @param putcode
+	 *            the put-code of the remote ORCID activity
+	 * @param fingerprint
+	 *            the content fingerprint of the local activity
+	 * @throws IllegalArgumentException
+	 *             if null arguments
+	 */
+	public synchronized void put(BigInteger key, BigInteger putcode, UUID fingerprint) {
+		if (key == null || putcode == null || fingerprint == null)
+			throw new IllegalArgumentException("Null arguments.");
+		entries.put(key, new Entry(putcode, fingerprint));
+	}
+
+	/**
+	 * Forgets the exported state of a local activity.
+	 *
+	 * @param key
+	 *            the local key of the activity
+	 */
+	public synchronized void remove(BigInteger key) {
+		entries.remove(key);
+	}
+
+	/**
+	 * The local keys of the exported activities.
+	 *
+	 * @return an unmodifiable copy of the local keys
+	 */
+	public synchronized Set<BigInteger> keys() {
+		return Collections.unmodifiableSet(new LinkedHashSet<BigInteger>(entries.keySet()));
+	}
+
+	/**
+	 * The number of exported activities.
+	 *
+	 * @return the number of exported activities
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+}
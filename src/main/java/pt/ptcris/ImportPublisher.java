@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris;
+
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.um.dsi.gavea.orcid.model.common.ElementSummary;
+
+import pt.ptcris.handlers.ProgressHandler;
+import pt.ptcris.utils.ORCIDHelper;
+
+/**
+ * A publisher of the new valid activities found in an ORCID profile, as
+ * retrieved by the import procedure (see
+ * {@link PTCRISync#importWorksPublisher(ORCIDClient, List, ProgressHandler)}).
+ * The procedure is run in a background thread when the single supported
+ * subscriber subscribes. Retrieved activities are handed to the subscriber
+ * without being collected: the workers that retrieve them feed a bounded
+ * queue, which is drained by a publishing thread, so the retrieval blocks
+ * while the subscriber has no outstanding demand. The subscription completes
+ * only once every worker has terminated. Cancelling the subscription stops
+ * the import procedure.
+ *
+ * @param <E>
+ *            The class of ORCID activities being imported
+ * @param <S>
+ *            The class of ORCID activity summaries
+ * @param <G>
+ *            The class of ORCID activity groups
+ * @param <T>
+ *            The class of ORCID activity types
+ */
+final class ImportPublisher<E extends ElementSummary, S extends ElementSummary, G, T extends Enum<T>>
+		implements Flow.Publisher<E> {
+
+	/** Marks the end of the retrieved activities in the queue. */
+	private static final Object END = new Object();
+
+	private final ORCIDHelper<E, S, G, T> helper;
+	private final List<E> locals;
+	private final Collection<T> types;
+	private final ProgressHandler handler;
+	private final AtomicBoolean subscribed = new AtomicBoolean(false);
+
+	ImportPublisher(ORCIDHelper<E, S, G, T> helper, List<E> locals, Collection<T> types, ProgressHandler handler) {
+		assert helper != null && locals != null && handler != null;
+		this.helper = helper;
+		this.locals = locals;
+		this.types = types;
+		this.handler = handler;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void subscribe(Flow.Subscriber<? super E> subscriber) {
+		if (subscriber == null)
+			throw new NullPointerException("Null subscriber.");
+
+		final SubmissionPublisher<E> publisher = new SubmissionPublisher<E>();
+		if (!subscribed.compareAndSet(false, true)) {
+			publisher.closeExceptionally(new IllegalStateException("Import already subscribed."));
+			publisher.subscribe(subscriber);
+			return;
+		}
+		new Run(publisher).start(subscriber);
+	}
+
+	/**
+	 * A run of the import procedure for the subscriber.
+	 */
+	private final class Run {
+		private final SubmissionPublisher<E> publisher;
+		private final BlockingQueue<Object> queue;
+		private final ORCIDHelper<E, S, G, T>.FullsPipeline fulls;
+		private final AtomicBoolean cancelled = new AtomicBoolean(false);
+		private final Thread importer;
+		private volatile Exception failure;
+
+		private Run(SubmissionPublisher<E> publisher) {
+			this.publisher = publisher;
+			this.queue = new ArrayBlockingQueue<Object>(publisher.getMaxBufferCapacity());
+			@SuppressWarnings("serial")
+			final Map<BigInteger, PTCRISyncResult<E>> cb = new HashMap<BigInteger, PTCRISyncResult<E>>() {
+				@Override
+				public PTCRISyncResult<E> put(BigInteger key, PTCRISyncResult<E> value) {
+					if (value != null && value.act != null && !cancelled.get())
+						try {
+							queue.put(value.act);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					return null;
+				}
+
+				@Override
+				public void putAll(Map<? extends BigInteger, ? extends PTCRISyncResult<E>> m) {
+					for (Map.Entry<? extends BigInteger, ? extends PTCRISyncResult<E>> e : m.entrySet())
+						put(e.getKey(), e.getValue());
+				}
+			};
+			this.fulls = helper.pipelineFulls(cb);
+			this.importer = new Thread(this::importAll, "ptcrisync-import");
+			this.importer.setDaemon(true);
+		}
+
+		/**
+		 * Starts the importing thread, subscribes the subscriber intercepting
+		 * the cancellation of its subscription, and starts the publishing
+		 * thread. The importer is started first, so that it can always be
+		 * interrupted.
+		 */
+		private void start(Flow.Subscriber<? super E> subscriber) {
+			importer.start();
+			publisher.subscribe(new Flow.Subscriber<E>() {
+				@Override
+				public void onSubscribe(Flow.Subscription subscription) {
+					subscriber.onSubscribe(new Flow.Subscription() {
+						@Override
+						public void request(long n) {
+							subscription.request(n);
+						}
+
+						@Override
+						public void cancel() {
+							subscription.cancel();
+							Run.this.cancel();
+						}
+					});
+				}
+
+				@Override
+				public void onNext(E item) {
+					subscriber.onNext(item);
+				}
+
+				@Override
+				public void onError(Throwable throwable) {
+					if (!cancelled.get())
+						subscriber.onError(throwable);
+				}
+
+				@Override
+				public void onComplete() {
+					if (!cancelled.get())
+						subscriber.onComplete();
+				}
+			});
+
+			final Thread thread = new Thread(this::publish, "ptcrisync-import-publisher");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		/**
+		 * Runs the import procedure, queuing each retrieved activity. Failed
+		 * retrievals of individual activities are ignored, as in the
+		 * collecting import procedure. The end of the activities is queued
+		 * only once every worker of the procedure has terminated.
+		 */
+		private void importAll() {
+			try {
+				PTCRISync.importFulls(helper, locals, types, handler, fulls);
+				if (!cancelled.get())
+					handler.done();
+			} catch (Exception e) {
+				failure = e;
+				fulls.cancel();
+			}
+			fulls.awaitTermination();
+			boolean queued = false;
+			while (!queued)
+				try {
+					queue.put(END);
+					queued = true;
+				} catch (InterruptedException e) {
+					// the end must be queued regardless of cancellation
+				}
+		}
+
+		/**
+		 * Submits the queued activities to the subscriber, blocking while it
+		 * has no outstanding demand, until the end of the activities. Once
+		 * cancelled, the activities are discarded so that the workers do not
+		 * block.
+		 */
+		@SuppressWarnings("unchecked")
+		private void publish() {
+			Object item = null;
+			while (item != END) {
+				try {
+					item = queue.take();
+				} catch (InterruptedException e) {
+					cancel();
+					continue;
+				}
+				if (item != END && !cancelled.get()) {
+					if (publisher.hasSubscribers())
+						publisher.submit((E) item);
+					else
+						cancel();
+				}
+			}
+			if (failure != null && !cancelled.get())
+				publisher.closeExceptionally(failure);
+			else
+				publisher.close();
+		}
+
+		/**
+		 * Stops the import procedure, skipping the pending retrievals and
+		 * discarding the activities retrieved meanwhile.
+		 */
+		private void cancel() {
+			if (cancelled.compareAndSet(false, true)) {
+				fulls.cancel();
+				importer.interrupt();
+			}
+		}
+	}
+
+}
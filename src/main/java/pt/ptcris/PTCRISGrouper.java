@@ -11,10 +11,18 @@ package pt.ptcris;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.um.dsi.gavea.orcid.model.funding.Funding;
+import org.um.dsi.gavea.orcid.model.work.Work;
 
 import pt.ptcris.grouper.ActivityComparator;
 import pt.ptcris.grouper.ActivityGroup;
 import pt.ptcris.grouper.GroupGenerator;
+import pt.ptcris.grouper.IdentifierComparator;
+import pt.ptcris.grouper.IdentifierGroupGenerator;
+import pt.ptcris.grouper.ParallelGroupGenerator;
+import pt.ptcris.utils.ORCIDHelper;
 
 /**
  * <p>
@@ -58,4 +66,61 @@ public class PTCRISGrouper {
 		return gen.getGroups();
 	}
 
+	/**
+	 * Groups a list of local activities into groups of matching activities,
+	 * according to the provided comparator, comparing them in parallel in a
+	 * fork/join pool. The groups are the same as those of
+	 * {@link #group(Collection, ActivityComparator)}, ordered by their
+	 * earliest activity independently of the scheduling of the threads. The
+	 * comparator must be thread-safe.
+	 * 
+	 * @param <E> the type of entries being grouped
+	 * @param locals
+	 *            the local activities to be grouped
+	 * @param comparator
+	 *            the provided activity comparator
+	 * @param pool
+	 *            the fork/join pool where activities are compared
+	 * @return the local activities, grouped
+	 */
+	public static <E> List<ActivityGroup<E>> group(Collection<E> locals, ActivityComparator<E> comparator,
+			ForkJoinPool pool) {
+		ParallelGroupGenerator<E> gen = new ParallelGroupGenerator<E>(comparator, pool);
+		return gen.group(locals);
+	}
+
+	/**
+	 * Groups a list of local works as ORCID would, i.e., works that share
+	 * self external identifiers (under their normalized keys) are grouped
+	 * together. The grouping is performed in linear time (see
+	 * {@link IdentifierGroupGenerator}), so that it can be used to predict
+	 * collisions before an export.
+	 * 
+	 * @param locals
+	 *            the local works to be grouped
+	 * @return the local works, grouped
+	 */
+	public static List<ActivityGroup<Work>> groupWorksByIdentifiers(Collection<Work> locals) {
+		IdentifierGroupGenerator<Work> gen = new IdentifierGroupGenerator<Work>(
+				new IdentifierComparator<Work>(ORCIDHelper.factoryStaticWorks()));
+		return gen.group(locals);
+	}
+
+	/**
+	 * Groups a list of local fundings as ORCID would, i.e., fundings that
+	 * share self external identifiers (under their normalized keys) are
+	 * grouped together. The grouping is performed in linear time (see
+	 * {@link IdentifierGroupGenerator}), so that it can be used to predict
+	 * collisions before an export.
+	 * 
+	 * @param locals
+	 *            the local fundings to be grouped
+	 * @return the local fundings, grouped
+	 */
+	public static List<ActivityGroup<Funding>> groupFundingsByIdentifiers(Collection<Funding> locals) {
+		IdentifierGroupGenerator<Funding> gen = new IdentifierGroupGenerator<Funding>(
+				new IdentifierComparator<Funding>(ORCIDHelper.factoryStaticFundings()));
+		return gen.group(locals);
+	}
+
 }
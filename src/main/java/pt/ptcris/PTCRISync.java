@@ -13,12 +13,16 @@ import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Flow;
 
 import org.um.dsi.gavea.orcid.client.exception.OrcidClientException;
 import org.um.dsi.gavea.orcid.model.activities.FundingGroup;
@@ -35,7 +39,9 @@ import org.um.dsi.gavea.orcid.model.work.Work;
 import org.um.dsi.gavea.orcid.model.work.WorkSummary;
 
 import pt.ptcris.exceptions.InvalidActivityException;
+import pt.ptcris.handlers.ExportListener;
 import pt.ptcris.handlers.ProgressHandler;
+import pt.ptcris.utils.ExportJournal;
 import pt.ptcris.utils.ExternalIdsDiff;
 import pt.ptcris.utils.ORCIDFundingHelper;
 import pt.ptcris.utils.ORCIDHelper;
@@ -165,14 +171,56 @@ public final class PTCRISync {
 	 */
 	public static Map<BigInteger, PTCRISyncResult<Work>> exportWorks(ORCIDClient client, List<Work> locals, ProgressHandler handler)
 			throws OrcidClientException, IllegalArgumentException {
-		return exportBase(new ORCIDWorkHelper(client), locals, Arrays.asList(WorkType.values()), false, handler);
+		return exportBase(new ORCIDWorkHelper(client), locals, Arrays.asList(WorkType.values()), false, handler, null);
 	}
 	
 	public static Map<BigInteger, PTCRISyncResult<Work>> exportWorks(ORCIDHelper<Work, WorkSummary, WorkGroup, WorkType> helper, List<Work> locals, ProgressHandler handler)
 			throws OrcidClientException, IllegalArgumentException {
-		return exportBase(helper, locals, Arrays.asList(WorkType.values()), false, handler);
+		return exportBase(helper, locals, Arrays.asList(WorkType.values()), false, handler, null);
 	}	
 
+	/**
+	 * Exports a list of local CRIS productions to an ORCID profile and keeps
+	 * them up-to-date, following
+	 * {@link #exportWorks(ORCIDClient, List, ProgressHandler)}, additionally
+	 * reporting the final outcome of each local work to a listener as soon as
+	 * it is known, so that it can be persisted before the whole procedure
+	 * finishes.
+	 *
+	 * @param client
+	 *            the ORCID client defining the CRIS Member API and user the
+	 *            profile to be managed
+	 * @param locals
+	 *            the list of local productions to be exported that should be
+	 *            kept synchronized in the ORCID user profile
+	 * @param handler
+	 *            the progress handler responsible for receiving progress
+	 *            updates
+	 * @param listener
+	 *            the listener responsible for receiving the outcome of each
+	 *            local work
+	 * @return the result of the synchronization of each of the provided local
+	 *          work
+	 * @throws OrcidClientException
+	 *             if the communication with ORCID fails when getting the
+	 *             activities summary
+	 * @throws IllegalArgumentException
+	 *             if null arguments
+	 */
+	public static Map<BigInteger, PTCRISyncResult<Work>> exportWorks(ORCIDClient client, List<Work> locals, ProgressHandler handler, ExportListener<Work> listener)
+			throws OrcidClientException, IllegalArgumentException {
+		if (listener == null)
+			throw new IllegalArgumentException("Null arguments.");
+		return exportBase(new ORCIDWorkHelper(client), locals, Arrays.asList(WorkType.values()), false, handler, listener);
+	}
+
+	public static Map<BigInteger, PTCRISyncResult<Work>> exportWorks(ORCIDHelper<Work, WorkSummary, WorkGroup, WorkType> helper, List<Work> locals, ProgressHandler handler, ExportListener<Work> listener)
+			throws OrcidClientException, IllegalArgumentException {
+		if (listener == null)
+			throw new IllegalArgumentException("Null arguments.");
+		return exportBase(helper, locals, Arrays.asList(WorkType.values()), false, handler, listener);
+	}
+
 	/**
 	 * @deprecated Replaced by {@link #exportWorks(ORCIDClient, List, ProgressHandler)}
 	 * 
@@ -271,7 +319,7 @@ public final class PTCRISync {
 	 */
 	public static Map<BigInteger, PTCRISyncResult<Work>> exportWorksForced(ORCIDClient client, List<Work> locals, ProgressHandler handler)
 			throws OrcidClientException, IllegalArgumentException {
-		return exportBase(new ORCIDWorkHelper(client), locals, Arrays.asList(WorkType.values()), true, handler);
+		return exportBase(new ORCIDWorkHelper(client), locals, Arrays.asList(WorkType.values()), true, handler, null);
 	}
 	
 	/**
@@ -384,12 +432,255 @@ public final class PTCRISync {
 	 */
 	public static Map<BigInteger, PTCRISyncResult<Funding>> exportFundings(ORCIDClient client, List<Funding> locals, Collection<FundingType> types, ProgressHandler handler)
 			throws OrcidClientException, IllegalArgumentException {
-		return exportBase(new ORCIDFundingHelper(client), locals, types, false, handler);
+		return exportBase(new ORCIDFundingHelper(client), locals, types, false, handler, null);
 	}
 	
 	public static Map<BigInteger, PTCRISyncResult<Funding>> exportFundings(ORCIDHelper<Funding, FundingSummary, FundingGroup, FundingType> helper, List<Funding> locals, Collection<FundingType> types, ProgressHandler handler)
 			throws OrcidClientException, IllegalArgumentException {
-		return exportBase(helper, locals, types, false, handler);
+		return exportBase(helper, locals, types, false, handler, null);
+	}
+
+	/**
+	 * Exports a list of local CRIS funding entries to an ORCID profile and
+	 * keeps them up-to-date, following
+	 * {@link #exportFundings(ORCIDClient, List, Collection, ProgressHandler)},
+	 * additionally reporting the final outcome of each local funding entry to
+	 * a listener as soon as it is known, so that it can be persisted before
+	 * the whole procedure finishes.
+	 *
+	 * @param client
+	 *            the ORCID client defining the CRIS Member API and user the
+	 *            profile to be managed
+	 * @param locals
+	 *            the list of local productions to be exported that should be
+	 *            kept synchronized in the ORCID user profile
+	 * @param types
+	 *            the types of ORCID funding entries that should be considered
+	 *            (others are simply ignored).
+	 * @param handler
+	 *            the progress handler responsible for receiving progress
+	 *            updates
+	 * @param listener
+	 *            the listener responsible for receiving the outcome of each
+	 *            local funding entry
+	 * @return the result of the synchronization of each of the provided local
+	 *         funding entry
+	 * @throws OrcidClientException
+	 *             if the communication with ORCID fails when getting the
+	 *             activities summary
+	 * @throws IllegalArgumentException
+	 *             if null arguments
+	 */
+	public static Map<BigInteger, PTCRISyncResult<Funding>> exportFundings(ORCIDClient client, List<Funding> locals, Collection<FundingType> types, ProgressHandler handler, ExportListener<Funding> listener)
+			throws OrcidClientException, IllegalArgumentException {
+		if (listener == null)
+			throw new IllegalArgumentException("Null arguments.");
+		return exportBase(new ORCIDFundingHelper(client), locals, types, false, handler, listener);
+	}
+
+	public static Map<BigInteger, PTCRISyncResult<Funding>> exportFundings(ORCIDHelper<Funding, FundingSummary, FundingGroup, FundingType> helper, List<Funding> locals, Collection<FundingType> types, ProgressHandler handler, ExportListener<Funding> listener)
+			throws OrcidClientException, IllegalArgumentException {
+		if (listener == null)
+			throw new IllegalArgumentException("Null arguments.");
+		return exportBase(helper, locals, types, false, handler, listener);
+	}
+
+	/**
+	 * Computes the operations that
+	 * {@link #exportWorks(ORCIDClient, List, ProgressHandler)} would perform
+	 * on an ORCID profile, without performing any mutation. Only the GET call
+	 * to obtain the summaries is performed. The resulting plan can be
+	 * inspected, for instance to estimate the number of API calls or to skip
+	 * profiles without changes, and later executed with
+	 * {@link #exportPlan(ORCIDHelper, SyncPlan, ProgressHandler, ExportListener)}.
+	 * Neither the input list nor the local works are modified.
+	 *
+	 * @param client
+	 *            the ORCID client defining the CRIS Member API and user the
+	 *            profile to be managed
+	 * @param locals
+	 *            the list of local productions to be exported that should be
+	 *            kept synchronized in the ORCID user profile
+	 * @param handler
+	 *            the progress handler responsible for receiving progress
+	 *            updates
+	 * @return the planned operations
+	 * @throws OrcidClientException
+	 *             if the communication with ORCID fails when getting the
+	 *             activities summary
+	 * @throws IllegalArgumentException
+	 *             if null arguments
+	 */
+	public static SyncPlan<Work, WorkSummary> planExportWorks(ORCIDClient client, List<Work> locals, ProgressHandler handler)
+			throws OrcidClientException, IllegalArgumentException {
+		return planExportWorks(new ORCIDWorkHelper(client), locals, handler);
+	}
+
+	public static SyncPlan<Work, WorkSummary> planExportWorks(ORCIDHelper<Work, WorkSummary, WorkGroup, WorkType> helper, List<Work> locals, ProgressHandler handler)
+			throws OrcidClientException, IllegalArgumentException {
+		if (helper == null || locals == null || handler == null)
+			throw new IllegalArgumentException("Null arguments.");
+		// an interrupted export will be recovered, so the cached summaries cannot be trusted
+		helper.checkJournal();
+		return planBase(helper, locals, Arrays.asList(WorkType.values()), false, true, handler);
+	}
+
+	/**
+	 * Computes the operations that
+	 * {@link #exportFundings(ORCIDClient, List, Collection, ProgressHandler)}
+	 * would perform on an ORCID profile, without performing any mutation,
+	 * following {@link #planExportWorks(ORCIDClient, List, ProgressHandler)}.
+	 *
+	 * @param client
+	 *            the ORCID client defining the CRIS Member API and user the
+	 *            profile to be managed
+	 * @param locals
+	 *            the list of local productions to be exported that should be
+	 *            kept synchronized in the ORCID user profile
+	 * @param types
+	 *            the types of ORCID funding entries that should be considered
+	 *            (others are simply ignored).
+	 * @param handler
+	 *            the progress handler responsible for receiving progress
+	 *            updates
+	 * @return the planned operations
+	 * @throws OrcidClientException
+	 *             if the communication with ORCID fails when getting the
+	 *             activities summary
+	 * @throws IllegalArgumentException
+	 *             if null arguments
+	 */
+	public static SyncPlan<Funding, FundingSummary> planExportFundings(ORCIDClient client, List<Funding> locals, Collection<FundingType> types, ProgressHandler handler)
+			throws OrcidClientException, IllegalArgumentException {
+		return planExportFundings(new ORCIDFundingHelper(client), locals, types, handler);
+	}
+
+	public static SyncPlan<Funding, FundingSummary> planExportFundings(ORCIDHelper<Funding, FundingSummary, FundingGroup, FundingType> helper, List<Funding> locals, Collection<FundingType> types, ProgressHandler handler)
+			throws OrcidClientException, IllegalArgumentException {
+		if (helper == null || locals == null || handler == null)
+			throw new IllegalArgumentException("Null arguments.");
+		// an interrupted export will be recovered, so the cached summaries cannot be trusted
+		helper.checkJournal();
+		return planBase(helper, locals, types, false, true, handler);
+	}
+
+	/**
+	 * Executes the operations of a previously computed export plan (see
+	 * {@link #planExportWorks(ORCIDClient, List, ProgressHandler)}), producing
+	 * the same result as the export procedure would have. The plan reflects
+	 * the state of the ORCID profile when it was computed, so it should be
+	 * executed shortly after. The plan holds copies of the local activities
+	 * being updated, which are left unmodified.
+	 *
+	 * @param helper
+	 *            helper that encapsulates the ORCID client defining the CRIS
+	 *            Member API and user the profile to be managed, the same that
+	 *            computed the plan
+	 * @param plan
+	 *            the planned operations
+	 * @param handler
+	 *            the progress handler responsible for receiving progress
+	 *            updates
+	 * @param listener
+	 *            the listener responsible for receiving the outcome of each
+	 *            local activity (may be null)
+	 * @return the result of the synchronization of each of the planned local
+	 *         activity
+	 * @throws IllegalArgumentException
+	 *             if null arguments, or null local keys if an export journal is set
+	 */
+	public static <E extends ElementSummary, S extends ElementSummary, G, T extends Enum<T>> Map<BigInteger, PTCRISyncResult<E>> exportPlan(
+			ORCIDHelper<E, S, G, T> helper, SyncPlan<E, S> plan, ProgressHandler handler, ExportListener<E> listener)
+			throws IllegalArgumentException {
+		if (helper == null || plan == null || handler == null)
+			throw new IllegalArgumentException("Null arguments.");
+		return executeBase(helper, plan, handler, listener);
+	}
+
+	/**
+	 * Exports the changes to a set of local CRIS productions since the last
+	 * export to an ORCID profile, given the state of the previous export.
+	 * Unlike {@link #exportWorks(ORCIDClient, List, ProgressHandler)}, only
+	 * the changed local works are provided, and only the ORCID works
+	 * associated to them are affected. Still, every CRIS sourced summary is
+	 * retrieved if there are changed works whose content changed since
+	 * previously exported, or that were not previously exported. The local
+	 * works must have local keys, under which the state is maintained. See
+	 * {@link #exportDeltaBase(ORCIDHelper, List, Collection, Collection, ExportState, ProgressHandler)}.
+	 *
+	 * @param client
+	 *            the ORCID client defining the CRIS Member API and user the
+	 *            profile to be managed
+	 * @param changed
+	 *            the local productions inserted or modified since the last
+	 *            export
+	 * @param removed
+	 *            the local keys of the productions removed since the last
+	 *            export
+	 * @param state
+	 *            the state of the last export, updated by the procedure and
+	 *            to be persisted by the CRIS
+	 * @param handler
+	 *            the progress handler responsible for receiving progress
+	 *            updates
+	 * @return the result of the synchronization of each of the changed and
+	 *         removed local works
+	 * @throws OrcidClientException
+	 *             if the communication with ORCID fails when getting the
+	 *             activities summary
+	 * @throws IllegalArgumentException
+	 *             if null arguments or local keys
+	 */
+	public static Map<BigInteger, PTCRISyncResult<Work>> exportWorksDelta(ORCIDClient client, List<Work> changed, Collection<BigInteger> removed, ExportState state, ProgressHandler handler)
+			throws OrcidClientException, IllegalArgumentException {
+		return exportDeltaBase(new ORCIDWorkHelper(client), changed, removed, Arrays.asList(WorkType.values()), state, handler);
+	}
+
+	public static Map<BigInteger, PTCRISyncResult<Work>> exportWorksDelta(ORCIDHelper<Work, WorkSummary, WorkGroup, WorkType> helper, List<Work> changed, Collection<BigInteger> removed, ExportState state, ProgressHandler handler)
+			throws OrcidClientException, IllegalArgumentException {
+		return exportDeltaBase(helper, changed, removed, Arrays.asList(WorkType.values()), state, handler);
+	}
+
+	/**
+	 * Exports the changes to a set of local CRIS funding entries since the
+	 * last export to an ORCID profile, given the state of the previous export,
+	 * following
+	 * {@link #exportWorksDelta(ORCIDClient, List, Collection, ExportState, ProgressHandler)}.
+	 *
+	 * @param client
+	 *            the ORCID client defining the CRIS Member API and user the
+	 *            profile to be managed
+	 * @param changed
+	 *            the local funding entries inserted or modified since the last
+	 *            export
+	 * @param removed
+	 *            the local keys of the funding entries removed since the last
+	 *            export
+	 * @param types
+	 *            the types of ORCID funding entries that should be considered
+	 *            (others are simply ignored).
+	 * @param state
+	 *            the state of the last export, updated by the procedure and
+	 *            to be persisted by the CRIS
+	 * @param handler
+	 *            the progress handler responsible for receiving progress
+	 *            updates
+	 * @return the result of the synchronization of each of the changed and
+	 *         removed local funding entries
+	 * @throws OrcidClientException
+	 *             if the communication with ORCID fails when getting the
+	 *             activities summary
+	 * @throws IllegalArgumentException
+	 *             if null arguments or local keys
+	 */
+	public static Map<BigInteger, PTCRISyncResult<Funding>> exportFundingsDelta(ORCIDClient client, List<Funding> changed, Collection<BigInteger> removed, Collection<FundingType> types, ExportState state, ProgressHandler handler)
+			throws OrcidClientException, IllegalArgumentException {
+		return exportDeltaBase(new ORCIDFundingHelper(client), changed, removed, types, state, handler);
+	}
+
+	public static Map<BigInteger, PTCRISyncResult<Funding>> exportFundingsDelta(ORCIDHelper<Funding, FundingSummary, FundingGroup, FundingType> helper, List<Funding> changed, Collection<BigInteger> removed, Collection<FundingType> types, ExportState state, ProgressHandler handler)
+			throws OrcidClientException, IllegalArgumentException {
+		return exportDeltaBase(helper, changed, removed, types, state, handler);
 	}
 
 	/**
@@ -454,7 +745,9 @@ public final class PTCRISync {
 	 * The update stage must be two-phased in order to avoid potential
 	 * conflicts: the first phase removes external identifiers that are obsolete
 	 * from the CRIS sourced activities, so that there are no conflicts with the
-	 * new ones inserted in the second phase.
+	 * new ones inserted in the second phase. Activities whose obsolete
+	 * identifiers are not inserted anywhere by the procedure are updated in a
+	 * single request in the second phase.
 	 * </p>
 	 *
 	 * <p>
@@ -481,30 +774,382 @@ public final class PTCRISync {
 	 * @param handler
 	 *            the progress handler responsible for receiving progress
 	 *            updates
+	 * @param listener
+	 *            receives the final outcome of each local activity as soon as
+	 *            it is known (may be null)
 	 * @return the result of the synchronization of each of the provided local
 	 *         activity
 	 * @throws OrcidClientException
 	 *             if the communication with ORCID fails when getting the
 	 *             activities summary
 	 * @throws IllegalArgumentException
-	 *             if null arguments
+	 *             if null arguments, or null local keys if an export journal is set
 	 */
 	private static <E extends ElementSummary, S extends ElementSummary, G, T extends Enum<T>> Map<BigInteger, PTCRISyncResult<E>> exportBase(
 			ORCIDHelper<E, S, G, T> helper, List<E> locals,
-			Collection<T> types, boolean forced, ProgressHandler handler)
+			Collection<T> types, boolean forced, ProgressHandler handler,
+			ExportListener<E> listener)
 			throws OrcidClientException, IllegalArgumentException {
 		
 		if (helper == null || locals == null || handler == null)
 			throw new IllegalArgumentException("Null arguments.");
 		
+		// an interrupted export must be recovered before the summaries are retrieved
+		helper.beginJournal(locals);
+		try {
+			SyncPlan<E, S> plan = planBase(helper, locals, types, forced, true, handler);
+
+			// the input list retains the local works that had no match
+			locals.clear();
+			locals.addAll(plan.adds);
+
+			return executeBase(helper, plan, handler, listener);
+		} finally {
+			helper.releaseJournal();
+		}
+	}
+
+	/**
+	 * <p>
+	 * Exports the changes to a set of local CRIS activities since the last
+	 * export to an ORCID profile, given the state of the previous export.
+	 * Only the ORCID activities associated to the changed local activities
+	 * are affected, and the remainder are neither retrieved nor deleted.
+	 * </p>
+	 *
+	 * <p>
+	 * The ORCID activities of removed local activities are deleted. Changed
+	 * local activities previously exported are considered up-to-date if their
+	 * content fingerprint did not change, and are otherwise updated directly
+	 * by put-code. The remaining changed local activities, i.e., those not
+	 * previously exported or whose direct update failed, are exported as in
+	 * {@link #exportBase(ORCIDHelper, List, Collection, boolean, ProgressHandler, ExportListener)},
+	 * except that unmatched CRIS sourced activities are not deleted and
+	 * those exported from other local activities are not matched. The
+	 * summaries are retrieved once, if some activity is updated or exported,
+	 * and the changed local activities must not overlap the remote activities
+	 * of the unchanged ones. Changed local activities that become invalid,
+	 * including those that overlap other changed local activities, have their
+	 * ORCID activity deleted, as in the full export procedure. The state is
+	 * updated with the outcome of each activity.
+	 * </p>
+	 *
+	 * <p>
+	 * Only the ORCID activities of the changed local activities are affected,
+	 * but a single modified or novel local activity still requires retrieving
+	 * every CRIS sourced summary of the profile (see
+	 * {@link ORCIDHelper#getSourcedSummaries()}) in order to test for overlaps
+	 * and to match novel activities. The retrieval is only skipped if every
+	 * changed local activity is removed, invalid or has an unchanged
+	 * fingerprint.
+	 * </p>
+	 *
+	 * <p>
+	 * Local keys are required, since they identify the local activities in
+	 * the export state.
+	 * </p>
+	 * 
+	 * @param helper
+	 *            helper that encapsulates the ORCID client defining the CRIS
+	 *            Member API and user the profile to be managed
+	 * @param changed
+	 *            the local activities inserted or modified since the last
+	 *            export
+	 * @param removed
+	 *            the local keys of the activities removed since the last
+	 *            export
+	 * @param types
+	 *            the types of ORCID activities that should be considered
+	 *            (others are simply ignored).
+	 * @param state
+	 *            the state of the last export, updated by the procedure
+	 * @param handler
+	 *            the progress handler responsible for receiving progress
+	 *            updates
+	 * @return the result of the synchronization of each of the changed and
+	 *         removed local activities
+	 * @throws OrcidClientException
+	 *             if the communication with ORCID fails when getting the
+	 *             activities summary
+	 * @throws IllegalArgumentException
+	 *             if null arguments or local keys
+	 */
+	private static <E extends ElementSummary, S extends ElementSummary, G, T extends Enum<T>> Map<BigInteger, PTCRISyncResult<E>> exportDeltaBase(
+			ORCIDHelper<E, S, G, T> helper, List<E> changed, Collection<BigInteger> removed,
+			Collection<T> types, ExportState state, ProgressHandler handler)
+			throws OrcidClientException, IllegalArgumentException {
+		if (helper == null || changed == null || removed == null || state == null || handler == null)
+			throw new IllegalArgumentException("Null arguments.");
+		for (E local : changed)
+			if (local.getPutCode() == null)
+				throw new IllegalArgumentException("Null local key.");
+
 		if (types == null)
 			types = new HashSet<T>();
-		
+
+		Map<BigInteger, PTCRISyncResult<E>> result = new HashMap<BigInteger, PTCRISyncResult<E>>();
+		ExportJournal.Recovery recovery = helper.beginJournal(changed);
+		try {
+			handler.setCurrentStatus("ORCID_SYNC_EXPORT_DELTA", removed.size() + changed.size());
+
+			// delete the remote activities of removed local activities
+			for (BigInteger key : removed) {
+				ExportState.Entry entry = state.get(key);
+				if (entry != null)
+					result.put(key, deleteDelta(helper, state, key, entry));
+				handler.step();
+			}
+
+			Set<BigInteger> keys = new HashSet<BigInteger>();
+			for (E local : changed)
+				keys.add(local.getPutCode());
+
+			// the CRIS sourced remote activities and the local keys they were exported from,
+			// retrieved only when some remote activity must be matched or checked for overlaps
+			List<S> orcids = null;
+			Map<BigInteger, BigInteger> owners = null;
+			List<S> unchanged = null;
+
+			// filter the changed local activities that do not pass the quality criteria,
+			// including those overlapping each other, as in the full export procedure
+			Map<BigInteger, InvalidActivityException> invalids = new HashMap<BigInteger, InvalidActivityException>();
+			for (E local : changed)
+				if (types.contains(helper.getTypeE(local)))
+					try {
+						helper.tryMinimalQualityE(local, changed);
+					} catch (InvalidActivityException invalid) {
+						invalids.put(local.getPutCode(), invalid);
+					}
+
+			// previously exported local activities are updated directly, the remainder fully exported
+			List<E> unknowns = new ArrayList<E>();
+			for (E local : changed) {
+				BigInteger key = local.getPutCode();
+				ExportState.Entry entry = state.get(key);
+				if (invalids.containsKey(key)) {
+					if (entry != null)
+						deleteDelta(helper, state, key, entry);
+					result.put(key, PTCRISyncResult.<E>invalid(invalids.get(key)));
+				}
+				else if (entry == null)
+					unknowns.add(local);
+				else if (!types.contains(helper.getTypeE(local)))
+					result.put(key, deleteDelta(helper, state, key, entry));
+				else {
+					try {
+						UUID fingerprint = helper.fingerprintE(local);
+						if (fingerprint.equals(entry.fingerprint))
+							result.put(key, PTCRISyncResult.<E>uptodate());
+						else {
+							// the unchanged exported activities must not overlap the updated one
+							if (unchanged == null) {
+								orcids = helper.getSourcedSummaries();
+								owners = owners(state);
+								unchanged = new ArrayList<S>();
+								for (S orcid : orcids) {
+									BigInteger owner = owners.get(orcid.getPutCode());
+									if (owner != null && !keys.contains(owner))
+										unchanged.add(orcid);
+								}
+							}
+							tryNotOverlapping(helper, local, unchanged);
+							PTCRISyncResult<E> res = helper.update(entry.putcode, local);
+							if (res.code == PTCRISyncResult.UPDATEOK) {
+								state.put(key, entry.putcode, fingerprint);
+								result.put(key, res);
+							} else
+								unknowns.add(local);
+						}
+					} catch (InvalidActivityException invalid) {
+						deleteDelta(helper, state, key, entry);
+						result.put(key, PTCRISyncResult.<E>invalid(invalid));
+					}
+				}
+				handler.step();
+			}
+
+			if (!unknowns.isEmpty()) {
+				Map<BigInteger, UUID> fingerprints = new HashMap<BigInteger, UUID>();
+				for (E local : unknowns)
+					fingerprints.put(local.getPutCode(), helper.fingerprintE(local));
+
+				if (orcids == null) {
+					orcids = helper.getSourcedSummaries();
+					owners = owners(state);
+				}
+				// remote activities of other exported local activities are not matched, but
+				// must not overlap, and those deleted since retrieved are disregarded
+				Set<BigInteger> unknownKeys = new HashSet<BigInteger>();
+				for (E local : unknowns)
+					unknownKeys.add(local.getPutCode());
+				List<S> free = new ArrayList<S>(), owned = new ArrayList<S>();
+				for (S orcid : orcids) {
+					BigInteger owner = owners.get(orcid.getPutCode());
+					if (owner == null || unknownKeys.contains(owner))
+						free.add(orcid);
+					else if (state.get(owner) != null)
+						owned.add(orcid);
+				}
+
+				SyncPlan<E, S> plan = planSummaries(helper, free, owned, unknowns, fingerprints, types, false, false, handler);
+				Map<BigInteger, PTCRISyncResult<E>> exported = new HashMap<BigInteger, PTCRISyncResult<E>>();
+				executeOperations(helper, plan, handler, null, recovery, exported);
+				for (Map.Entry<BigInteger, PTCRISyncResult<E>> res : exported.entrySet()) {
+					BigInteger key = res.getKey();
+					if (res.getValue().code == PTCRISyncResult.ADDOK)
+						state.put(key, res.getValue().putcode, fingerprints.get(key));
+					else if (plan.putcodes.containsKey(key) && (res.getValue().code == PTCRISyncResult.UPTODATE
+							|| res.getValue().code == PTCRISyncResult.UPDATEOK))
+						state.put(key, plan.putcodes.get(key), fingerprints.get(key));
+				}
+				result.putAll(exported);
+			}
+
+			helper.storeClassification(result);
+			helper.endJournal();
+		} finally {
+			helper.releaseJournal();
+		}
+
+		handler.done();
+		return result;
+	}
+
+	/**
+	 * Deletes the remote activity of a previously exported local activity,
+	 * forgetting its export state unless the deletion failed for reasons
+	 * other than the activity no longer existing.
+	 */
+	private static <E extends ElementSummary, S extends ElementSummary, G, T extends Enum<T>> PTCRISyncResult<E> deleteDelta(
+			ORCIDHelper<E, S, G, T> helper, ExportState state, BigInteger key, ExportState.Entry entry) {
+		PTCRISyncResult<E> res = helper.delete(entry.putcode);
+		if (res.code == PTCRISyncResult.DELETEOK
+				|| (res.exception instanceof OrcidClientException
+						&& ((OrcidClientException) res.exception).getResponseCode() == 404))
+			state.remove(key);
+		return res;
+	}
+
+	/**
+	 * Maps the put-code of each remote activity in the export state to the
+	 * local key of the activity it was exported from.
+	 */
+	private static Map<BigInteger, BigInteger> owners(ExportState state) {
+		Map<BigInteger, BigInteger> owners = new HashMap<BigInteger, BigInteger>();
+		for (BigInteger key : state.keys()) {
+			ExportState.Entry entry = state.get(key);
+			if (entry != null)
+				owners.put(entry.putcode, key);
+		}
+		return owners;
+	}
+
+	/**
+	 * Tests whether a local activity shares self external identifiers with
+	 * remote activities that belong to other local activities, which are not
+	 * part of the export.
+	 */
+	private static <E extends ElementSummary, S extends ElementSummary, G, T extends Enum<T>> void tryNotOverlapping(
+			ORCIDHelper<E, S, G, T> helper, E local, Collection<S> owned) throws InvalidActivityException {
+		for (S orcid : owned)
+			if (!helper.getSelfExternalIdsDiffS(orcid, Collections.singletonList(local)).isEmpty())
+				throw new InvalidActivityException(Collections.singleton(ORCIDHelper.OVERLAPPING_EIDs));
+	}
+
+	/**
+	 * Computes the operations that an export procedure would perform on an
+	 * ORCID profile, following
+	 * {@link #exportBase(ORCIDHelper, List, Collection, boolean, ProgressHandler, ExportListener)},
+	 * but without performing any mutation. Neither the input list nor the
+	 * local activities are modified. Retrieves the CRIS sourced summaries and
+	 * plans over them (see
+	 * {@link #planSummaries(ORCIDHelper, List, List, List, Map, Collection, boolean, boolean, ProgressHandler)}).
+	 * 
+	 * @param helper
+	 *            helper that encapsulates the ORCID client defining the CRIS
+	 *            Member API and user the profile to be managed
+	 * @param locals
+	 *            the list of local activities to be exported that should be
+	 *            kept synchronized in the ORCID user profile
+	 * @param types
+	 *            the types of ORCID activities that should be considered
+	 *            (others are simply ignored).
+	 * @param forced
+	 *            whether the update of ORCID activities should be forced,
+	 *            without testing if up-to-date
+	 * @param prune
+	 *            whether CRIS sourced ORCID activities without matching local
+	 *            activities should be deleted
+	 * @param handler
+	 *            the progress handler responsible for receiving progress
+	 *            updates
+	 * @return the planned operations
+	 * @throws OrcidClientException
+	 *             if the communication with ORCID fails when getting the
+	 *             activities summary
+	 */
+	private static <E extends ElementSummary, S extends ElementSummary, G, T extends Enum<T>> SyncPlan<E, S> planBase(
+			ORCIDHelper<E, S, G, T> helper, List<E> locals,
+			Collection<T> types, boolean forced, boolean prune, ProgressHandler handler)
+			throws OrcidClientException {
+		assert helper != null && locals != null && handler != null;
+
 		handler.setCurrentStatus("ORCID_SYNC_EXPORT_STARTED");
 
 		List<S> orcids = helper.getSourcedSummaries();
 
-		Map<BigInteger, PTCRISyncResult<E>> result = new HashMap<BigInteger, PTCRISyncResult<E>>();
+		return planSummaries(helper, orcids, new ArrayList<S>(), locals, new HashMap<BigInteger, UUID>(), types, forced, prune, handler);
+	}
+
+	/**
+	 * Computes the operations that an export procedure would perform on an
+	 * ORCID profile given its CRIS sourced summaries, following
+	 * {@link #planBase(ORCIDHelper, List, Collection, boolean, boolean, ProgressHandler)}.
+	 * Summaries that belong to local activities not being exported are not
+	 * matched, but the local activities must not overlap them.
+	 * 
+	 * @param helper
+	 *            helper that encapsulates the ORCID client defining the CRIS
+	 *            Member API and user the profile to be managed
+	 * @param orcids
+	 *            the CRIS sourced summaries to be matched
+	 * @param owned
+	 *            the CRIS sourced summaries of local activities not being
+	 *            exported
+	 * @param locals
+	 *            the list of local activities to be exported that should be
+	 *            kept synchronized in the ORCID user profile
+	 * @param fingerprints
+	 *            the known content fingerprints of the local activities, by
+	 *            local key, used to settle up-to-date remote activities (see
+	 *            {@link ORCIDHelper#isUpToDateS(ElementSummary, UUID, ElementSummary)})
+	 * @param types
+	 *            the types of ORCID activities that should be considered
+	 *            (others are simply ignored).
+	 * @param forced
+	 *            whether the update of ORCID activities should be forced,
+	 *            without testing if up-to-date
+	 * @param prune
+	 *            whether CRIS sourced ORCID activities without matching local
+	 *            activities should be deleted
+	 * @param handler
+	 *            the progress handler responsible for receiving progress
+	 *            updates
+	 * @return the planned operations
+	 */
+	private static <E extends ElementSummary, S extends ElementSummary, G, T extends Enum<T>> SyncPlan<E, S> planSummaries(
+			ORCIDHelper<E, S, G, T> helper, List<S> orcids, List<S> owned, List<E> locals,
+			Map<BigInteger, UUID> fingerprints, Collection<T> types, boolean forced, boolean prune, ProgressHandler handler) {
+		assert helper != null && orcids != null && owned != null && locals != null && fingerprints != null && handler != null;
+
+		if (types == null)
+			types = new HashSet<T>();
+
+		locals = new ArrayList<E>(locals);
+		Map<BigInteger, InvalidActivityException> invalidResults = new LinkedHashMap<BigInteger, InvalidActivityException>();
+		List<BigInteger> upToDate = new ArrayList<BigInteger>();
+		List<S> deletes = new ArrayList<S>();
+		Map<BigInteger, BigInteger> putcodes = new HashMap<BigInteger, BigInteger>();
 
 		// start by filtering local works that do not pass the quality criteria
 		handler.setCurrentStatus("ORCID_SYNC_EXPORT_QUALITY",locals.size());
@@ -517,11 +1162,11 @@ public final class PTCRISync {
 			} else {
 				try {
 					helper.tryMinimalQualityE(local, locals);
+					tryNotOverlapping(helper, local, owned);
 				} catch (InvalidActivityException invalid) {
 					invalids.add(local);
-					result.put(ORCIDHelper.getActivityLocalKey(local,
-							BigInteger.valueOf(c)), PTCRISyncResult
-							.<E>invalid(invalid));
+					invalidResults.put(ORCIDHelper.getActivityLocalKey(local,
+							BigInteger.valueOf(c)), invalid);
 				}
 			}
 			handler.step();
@@ -538,21 +1183,21 @@ public final class PTCRISync {
 			Map<E, ExternalIdsDiff> worksDiffs = helper.getSelfExternalIdsDiffS(orcid, locals);
 			// there is no local work matching a CRIS sourced remote work
 			if (worksDiffs.isEmpty()) {
-				// TODO: the delete may fail (the result is returned); how to communicate this to the caller?
-				helper.delete(orcid.getPutCode());
+				if (prune)
+					deletes.add(orcid);
 			}
 			// there is at least one local work matching a CRIS sourced remote work
 			else {
 				boolean isIncluded = false;
 				E local = worksDiffs.keySet().iterator().next();
 				// if the remote work is not up-to-date or forced updates
-				if (forced || !helper.isUpToDateS(local, orcid)) {
+				if (forced || !helper.isUpToDateS(local, fingerprints.get(local.getPutCode()), orcid)) {
 					toUpdate.add(new UpdateRecord<E,S>(local, orcid, worksDiffs.get(local)));
 					isIncluded = true;
 				}
 				else
-					result.put(ORCIDHelper.getActivityLocalKey(local, BigInteger.valueOf(c)),
-							PTCRISyncResult.<E>uptodate());
+					upToDate.add(ORCIDHelper.getActivityLocalKey(local, BigInteger.valueOf(c)));
+				putcodes.put(ORCIDHelper.getActivityLocalKey(local, BigInteger.valueOf(c)), orcid.getPutCode());
 				locals.remove(local);
 				
 				// if the remote work isn't update in what concerns of FundedBy identifiers
@@ -565,112 +1210,228 @@ public final class PTCRISync {
 			handler.step();
 		}
 
-		// first update phase, remove spurious identifiers
-		handler.setCurrentStatus("ORCID_SYNC_EXPORT_UPDATING_PHASE_1",toUpdate.size());
-		for (int c = 0; c != toUpdate.size(); c++) {
+		// the identifiers inserted by the export, with which spurious identifiers may collide
+		Set<String> inserted = new HashSet<String>();
+		for (UpdateRecord<E,S> update : toUpdate)
+			for (ExternalId eid : update.eidsDiff.less)
+				inserted.add(ORCIDHelper.getKey(eid));
+		for (UpdateRecord<E,S> update : toUpdateFundedBy)
+			for (ExternalId eid : update.eidsDiff.less)
+				inserted.add(ORCIDHelper.getKey(eid));
+		for (E local : locals)
+			for (ExternalId eid : helper.getSelfExternalIdsE(local).getExternalId())
+				inserted.add(ORCIDHelper.getKey(eid));
 
+		List<SyncPlan.Update<E,S>> updates = new ArrayList<SyncPlan.Update<E,S>>();
+		for (int c = 0; c != toUpdate.size(); c++) {
 			UpdateRecord<E,S> update = toUpdate.get(c);
-			// the remote work has spurious external identifiers
-			if (!update.eidsDiff.more.isEmpty()) {
-				E local = update.preElement;
-				ExternalIds weids = new ExternalIds();
-				List<ExternalId> ids = new ArrayList<ExternalId>(update.eidsDiff.same);
-				ids.addAll(helper.getPartOfExternalIdsE(local).getExternalId());
-				ids.addAll(helper.getFundedByExternalIdsE(local).getExternalId());
-				weids.setExternalId(ids);
-				helper.setExternalIdsE(local,weids);
-
-				PTCRISyncResult<E> res = helper.update(update.posElement.getPutCode(), local);
-				result.put(ORCIDHelper.getActivityLocalKey(local, BigInteger.valueOf(c)),res);
+			E local = update.preElement;
+			List<ExternalId> phase1 = null, phase2 = null;
+			// the remote work has spurious external identifiers, removed in the first phase
+			// unless they cannot collide, in which case they are replaced in the second
+			if (!update.eidsDiff.more.isEmpty() && (update.eidsDiff.less.isEmpty() || isInserted(update.eidsDiff.more, inserted))) {
+				phase1 = new ArrayList<ExternalId>(update.eidsDiff.same);
+				phase1.addAll(helper.getPartOfExternalIdsE(local).getExternalId());
+				phase1.addAll(helper.getFundedByExternalIdsE(local).getExternalId());
 			}
+			// the remote work is missing external identifiers or not updated in the 1st phase
+			if (!update.eidsDiff.less.isEmpty() || update.eidsDiff.more.isEmpty()) {
+				phase2 = new ArrayList<ExternalId>(update.eidsDiff.same);
+				phase2.addAll(update.eidsDiff.less);
+				phase2.addAll(helper.getPartOfExternalIdsE(local).getExternalId());
+				phase2.addAll(helper.getFundedByExternalIdsE(local).getExternalId());
+			}
+			updates.add(new SyncPlan.Update<E,S>(ORCIDHelper.getActivityLocalKey(local, BigInteger.valueOf(c)),
+					new UpdateRecord<E,S>(helper.cloneE(local), update.posElement, update.eidsDiff), phase1, phase2));
+		}
+
+		// outputs with changes only on "Funded by" identifiers
+		List<SyncPlan.Update<E,S>> fundedByUpdates = new ArrayList<SyncPlan.Update<E,S>>();
+		for (int c = 0; c != toUpdateFundedBy.size(); c++) {
+			UpdateRecord<E,S> update = toUpdateFundedBy.get(c);
+			E local = update.preElement;
+			List<ExternalId> phase1 = null, phase2 = null;
+			if (!update.eidsDiff.more.isEmpty() && (update.eidsDiff.less.isEmpty() || isInserted(update.eidsDiff.more, inserted))) {
+				phase1 = new ArrayList<ExternalId>(update.eidsDiff.same);
+				phase1.addAll(helper.getPartOfExternalIdsE(local).getExternalId());
+			}
+			if (!update.eidsDiff.less.isEmpty() || update.eidsDiff.more.isEmpty()) {
+				phase2 = new ArrayList<ExternalId>(update.eidsDiff.same);
+				phase2.addAll(update.eidsDiff.less);
+				phase2.addAll(helper.getPartOfExternalIdsE(local).getExternalId());
+			}
+			fundedByUpdates.add(new SyncPlan.Update<E,S>(ORCIDHelper.getActivityLocalKey(local, BigInteger.valueOf(c)),
+					new UpdateRecord<E,S>(helper.cloneE(local), update.posElement, update.eidsDiff), phase1, phase2));
+		}
+
+		List<E> adds = new ArrayList<E>(locals.size());
+		for (E local : locals)
+			adds.add(helper.cloneE(local));
+
+		return new SyncPlan<E,S>(invalidResults, upToDate, deletes, updates, fundedByUpdates,
+				adds, helper.countAddRequests(adds.size()), putcodes);
+	}
+
+	/**
+	 * Tests whether any of the external identifiers is inserted by an export
+	 * procedure, in which case it must be removed in a first update phase.
+	 */
+	private static boolean isInserted(Set<ExternalId> eids, Set<String> inserted) {
+		for (ExternalId eid : eids)
+			if (inserted.contains(ORCIDHelper.getKey(eid)))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Executes the operations planned for an export procedure (see
+	 * {@link #planBase(ORCIDHelper, List, Collection, boolean, boolean, ProgressHandler)}).
+	 * Each update phase sends a copy of the local activity with the external
+	 * identifiers of the phase. If the number of threads is
+	 * higher than 1, the operations are run concurrently as allowed by their
+	 * dependencies (see {@link PlanExecutor}), with the same result.
+	 * 
+	 * @param helper
+	 *            helper that encapsulates the ORCID client defining the CRIS
+	 *            Member API and user the profile to be managed
+	 * @param plan
+	 *            the planned operations
+	 * @param handler
+	 *            the progress handler responsible for receiving progress
+	 *            updates
+	 * @param listener
+	 *            receives the final outcome of each local activity as soon as
+	 *            it is known (may be null)
+	 * @return the result of the synchronization of each of the planned local
+	 *         activity
+	 */
+	private static <E extends ElementSummary, S extends ElementSummary, G, T extends Enum<T>> Map<BigInteger, PTCRISyncResult<E>> executeBase(
+			ORCIDHelper<E, S, G, T> helper, SyncPlan<E, S> plan, ProgressHandler handler,
+			ExportListener<E> listener) {
+		assert helper != null && plan != null && handler != null;
+
+		ExportJournal.Recovery recovery = helper.beginJournal(plan.adds);
+		Map<BigInteger, PTCRISyncResult<E>> result = new HashMap<BigInteger, PTCRISyncResult<E>>();
+		try {
+			executeOperations(helper, plan, handler, listener, recovery, result);
+
+			helper.storeClassification(result);
+			helper.endJournal();
+		} finally {
+			helper.releaseJournal();
+		}
+
+		handler.done();
+		return result;
+	}
+
+	/**
+	 * Executes the operations planned for an export procedure, following
+	 * {@link #executeBase(ORCIDHelper, SyncPlan, ProgressHandler, ExportListener)},
+	 * registering the outcomes in an existing result, without finishing the
+	 * procedure. Up-to-date local activities that had been added by an
+	 * interrupted export are reported as added, with the put-code then
+	 * assigned, since the CRIS never received it.
+	 */
+	private static <E extends ElementSummary, S extends ElementSummary, G, T extends Enum<T>> void executeOperations(
+			ORCIDHelper<E, S, G, T> helper, SyncPlan<E, S> plan, ProgressHandler handler,
+			ExportListener<E> listener, ExportJournal.Recovery recovery, Map<BigInteger, PTCRISyncResult<E>> result) {
+		for (Map.Entry<BigInteger, InvalidActivityException> invalid : plan.invalids.entrySet())
+			report(result, listener, invalid.getKey(), PTCRISyncResult.<E>invalid(invalid.getValue()));
+		for (BigInteger key : plan.upToDate) {
+			BigInteger added = recovery == null ? null : recovery.adds.get(key);
+			if (added != null && added.equals(plan.putcodes.get(key)))
+				report(result, listener, key, PTCRISyncResult.<E>ok_add(added));
+			else
+				report(result, listener, key, PTCRISyncResult.<E>uptodate());
+		}
+
+		// independent operations are run concurrently if multi-threading is enabled
+		if (helper.client.threads() > 1) {
+			new PlanExecutor<E,S,G,T>(helper, plan, handler, listener, helper.client.threads()).execute(result);
+			return;
+		}
+
+		// TODO: the delete may fail (the result is returned); how to communicate this to the caller?
+		for (S delete : plan.deletes)
+			helper.delete(delete.getPutCode());
+
+		// first update phase, remove spurious identifiers
+		handler.setCurrentStatus("ORCID_SYNC_EXPORT_UPDATING_PHASE_1",plan.updates.size());
+		for (SyncPlan.Update<E,S> update : plan.updates) {
+			if (update.phase1 != null)
+				phase(result, listener, update, updatePhase(helper, update, update.phase1), update.phase2 == null);
 			handler.step();
 		}
 		
-		// Outputs with changes only on "Funded by" identifiers. first update phase, remove spurious identifiers.
-		treatOuputWithChangesOnlyOnFundedBy_1Phase(helper, handler, result, toUpdateFundedBy);
+		// outputs with changes only on "Funded by" identifiers. first update phase, remove spurious identifiers.
+		for (SyncPlan.Update<E,S> update : plan.fundedByUpdates) {
+			if (update.phase1 != null)
+				phase(result, listener, update, updatePhase(helper, update, update.phase1), update.phase2 == null);
+			handler.step();
+		}
 
 		// second update phase, add missing identifiers
-		handler.setCurrentStatus("ORCID_SYNC_EXPORT_UPDATING_PHASE_2",toUpdate.size());
-		for (int c = 0; c != toUpdate.size(); c++) {
-
-			// the remote work is missing external identifiers or not updated in the 1st phase
-			UpdateRecord<E,S> update = toUpdate.get(c);
-			if (!update.eidsDiff.less.isEmpty() || update.eidsDiff.more.isEmpty()) {
-				E local = update.preElement;
-				ExternalIds weids = new ExternalIds();
-				List<ExternalId> ids = new ArrayList<ExternalId>(update.eidsDiff.same);
-				ids.addAll(update.eidsDiff.less);
-				ids.addAll(helper.getPartOfExternalIdsE(local).getExternalId());
-				ids.addAll(helper.getFundedByExternalIdsE(local).getExternalId());
-				weids.setExternalId(ids);
-				helper.setExternalIdsE(local,weids);
-
-				PTCRISyncResult<E> res = helper.update(update.posElement.getPutCode(), local);
-				result.put(ORCIDHelper.getActivityLocalKey(local, BigInteger.valueOf(c)),res);
-			}
+		handler.setCurrentStatus("ORCID_SYNC_EXPORT_UPDATING_PHASE_2",plan.updates.size());
+		for (SyncPlan.Update<E,S> update : plan.updates) {
+			if (update.phase2 != null)
+				phase(result, listener, update, updatePhase(helper, update, update.phase2), true);
 			handler.step();
 		}
 		
-		// Outputs with changes only on "Funded by" identifiers. second update phase, add missing identifiers
-		treatOuputWithChangesOnlyOnFundedBy_2Phase(helper, handler, result, toUpdateFundedBy);
+		// outputs with changes only on "Funded by" identifiers. second update phase, add missing identifiers
+		for (SyncPlan.Update<E,S> update : plan.fundedByUpdates) {
+			if (update.phase2 != null)
+				phase(result, listener, update, updatePhase(helper, update, update.phase2), true);
+			handler.step();
+		}
 		
 		// add the local works that had no match
 		// the progress handler must be moved to the helper due to bulk additions
+		List<E> locals = plan.adds;
 		handler.setCurrentStatus("ORCID_SYNC_EXPORT_ADDING",locals.size());
-		List<PTCRISyncResult<E>> res = helper.add(locals,handler);
-
-		int pad = result.size();
-		for (int i = 0; i < res.size(); i++)
-			result.put(ORCIDHelper.getActivityLocalKey(locals.get(i), BigInteger.valueOf(pad+i)),res.get(i));
-		
-		handler.done();
-		return result;
+		final int pad = result.size();
+		helper.add(locals, handler, (res, i) ->
+			report(result, listener, ORCIDHelper.getActivityLocalKey(locals.get(i), BigInteger.valueOf(pad+i)), res));
 	}
 
-	private static <E extends ElementSummary, S extends ElementSummary, G, T extends Enum<T>> void treatOuputWithChangesOnlyOnFundedBy_2Phase(
-			ORCIDHelper<E, S, G, T> helper, ProgressHandler handler, Map<BigInteger, PTCRISyncResult<E>> result,
-			List<UpdateRecord<E, S>> toUpdateFundedBy) {
-		for (int c = 0; c != toUpdateFundedBy.size(); c++) {
+	/**
+	 * Performs one phase of a planned update, sending a copy of the local
+	 * activity with the external identifiers of the phase, so that neither the
+	 * plan nor the local activity are modified.
+	 */
+	static <E extends ElementSummary, S extends ElementSummary, G, T extends Enum<T>> PTCRISyncResult<E> updatePhase(
+			ORCIDHelper<E, S, G, T> helper, SyncPlan.Update<E,S> update, List<ExternalId> ids) {
+		E local = helper.cloneE(update.record.preElement);
+		ExternalIds weids = new ExternalIds();
+		weids.setExternalId(new ArrayList<ExternalId>(ids));
+		helper.setExternalIdsE(local,weids);
 
-			// the remote work is missing external identifiers or not updated in the 1st phase
-			UpdateRecord<E,S> update = toUpdateFundedBy.get(c);
-			if (!update.eidsDiff.less.isEmpty() || update.eidsDiff.more.isEmpty()) {
-				E local = update.preElement;
-				ExternalIds weids = new ExternalIds();
-				List<ExternalId> ids = new ArrayList<ExternalId>(update.eidsDiff.same);
-				ids.addAll(update.eidsDiff.less);
-				ids.addAll(helper.getPartOfExternalIdsE(local).getExternalId());
-				weids.setExternalId(ids);
-				helper.setExternalIdsE(local,weids);
-
-				PTCRISyncResult<E> res = helper.update(update.posElement.getPutCode(), local);
-				result.put(ORCIDHelper.getActivityLocalKey(local, BigInteger.valueOf(c)),res);
-			}
-			handler.step();
-		}
+		return helper.update(update.record.posElement.getPutCode(), local);
 	}
 
-	private static <E extends ElementSummary, S extends ElementSummary, G, T extends Enum<T>> void treatOuputWithChangesOnlyOnFundedBy_1Phase(
-			ORCIDHelper<E, S, G, T> helper, ProgressHandler handler, Map<BigInteger, PTCRISyncResult<E>> result,
-			List<UpdateRecord<E, S>> toUpdateFundedBy) {
-		for (int c = 0; c != toUpdateFundedBy.size(); c++) {
+	/**
+	 * Registers the outcome of a phase of a planned update in the result of an
+	 * export procedure, reporting it to the listener only if final.
+	 */
+	private static <E extends ElementSummary, S extends ElementSummary> void phase(Map<BigInteger, PTCRISyncResult<E>> result,
+			ExportListener<E> listener, SyncPlan.Update<E,S> update, PTCRISyncResult<E> res, boolean last) {
+		// only final if not to be updated again in the second phase
+		if (last)
+			report(result, listener, update.key, res);
+		else
+			result.put(update.key, res);
+	}
 
-			UpdateRecord<E,S> update = toUpdateFundedBy.get(c);
-			// the remote work has spurious external identifiers
-			if (!update.eidsDiff.more.isEmpty()) {
-				E local = update.preElement;
-				ExternalIds weids = new ExternalIds();
-				List<ExternalId> ids = new ArrayList<ExternalId>(update.eidsDiff.same);
-				ids.addAll(helper.getPartOfExternalIdsE(local).getExternalId());
-				weids.setExternalId(ids);
-				helper.setExternalIdsE(local,weids);
-
-				PTCRISyncResult<E> res = helper.update(update.posElement.getPutCode(), local);
-				result.put(ORCIDHelper.getActivityLocalKey(local, BigInteger.valueOf(c)),res);
-			}
-			handler.step();
-			
-		}
+	/**
+	 * Registers the final outcome of a local activity in the result of an
+	 * export procedure and reports it to the listener, if any.
+	 */
+	private static <E extends ElementSummary> void report(Map<BigInteger, PTCRISyncResult<E>> result,
+			ExportListener<E> listener, BigInteger key, PTCRISyncResult<E> res) {
+		result.put(key, res);
+		if (listener != null)
+			listener.result(key, res);
 	}
 
 	/**
@@ -742,6 +1503,39 @@ public final class PTCRISync {
 		return importBase(helper, locals, Arrays.asList(WorkType.values()), handler);
 	}
 
+	/**
+	 * Discovers new valid works in an ORCID profile given a set of known local
+	 * CRIS productions, following
+	 * {@link #importWorks(ORCIDClient, List, ProgressHandler)}, but publishes
+	 * each work as soon as it is retrieved rather than returning them all at
+	 * the end. The procedure runs in a background thread once subscribed, and
+	 * pauses the retrieval while the subscriber has no outstanding demand.
+	 * Only a single subscriber is supported. If the communication with ORCID
+	 * fails when getting the activities summary, the subscription completes
+	 * with that error.
+	 *
+	 * @param client
+	 *            the ORCID client defining the CRIS Member API and user the
+	 *            profile to be managed
+	 * @param locals
+	 *            the full list of local productions
+	 * @param handler
+	 *            the progress handler responsible for receiving progress
+	 *            updates
+	 * @return a publisher of the new valid works found in the ORCID profile
+	 * @throws IllegalArgumentException
+	 *             if null arguments
+	 */
+	public static Flow.Publisher<Work> importWorksPublisher(ORCIDClient client, List<Work> locals, ProgressHandler handler)
+			throws IllegalArgumentException {
+		return importPublisher(new ORCIDWorkHelper(client), locals, Arrays.asList(WorkType.values()), handler);
+	}
+
+	public static Flow.Publisher<Work> importWorksPublisher(ORCIDHelper<Work, WorkSummary, WorkGroup, WorkType> helper, List<Work> locals, ProgressHandler handler)
+			throws IllegalArgumentException {
+		return importPublisher(helper, locals, Arrays.asList(WorkType.values()), handler);
+	}
+
 	/**
 	 * <p>
 	 * Discovers new valid funding activities in an ORCID profile given a set of
@@ -822,6 +1616,52 @@ public final class PTCRISync {
 			throws OrcidClientException, InterruptedException, IllegalArgumentException {
 		return importBase(fundingHelper, locals, types, handler);
 	}
+
+	/**
+	 * Discovers new valid funding activities in an ORCID profile given a set of
+	 * known local CRIS funding entries, following
+	 * {@link #importFundings(ORCIDClient, List, Collection, ProgressHandler)},
+	 * but publishes each funding entry as soon as it is retrieved rather than
+	 * returning them all at the end. The procedure runs in a background thread
+	 * once subscribed, and pauses the retrieval while the subscriber has no
+	 * outstanding demand. Only a single subscriber is supported. If the
+	 * communication with ORCID fails when getting the activities summary, the
+	 * subscription completes with that error.
+	 *
+	 * @param client
+	 *            the ORCID client defining the CRIS Member API and user the
+	 *            profile to be managed
+	 * @param locals
+	 *            the full list of local funding entries
+	 * @param types
+	 *            the types of ORCID funding entries that should be considered
+	 *            (others are simply ignored)
+	 * @param handler
+	 *            the progress handler responsible for receiving progress
+	 *            updates
+	 * @return a publisher of the new valid funding entries found in the ORCID
+	 *         profile
+	 * @throws IllegalArgumentException
+	 *             if null arguments
+	 */
+	public static Flow.Publisher<Funding> importFundingsPublisher(ORCIDClient client, List<Funding> locals, Collection<FundingType> types, ProgressHandler handler)
+			throws IllegalArgumentException {
+		return importPublisher(new ORCIDFundingHelper(client), locals, types, handler);
+	}
+
+	public static Flow.Publisher<Funding> importFundingsPublisher(ORCIDHelper<Funding, FundingSummary, FundingGroup, FundingType> fundingHelper, List<Funding> locals, Collection<FundingType> types, ProgressHandler handler)
+			throws IllegalArgumentException {
+		return importPublisher(fundingHelper, locals, types, handler);
+	}
+
+	private static <E extends ElementSummary, S extends ElementSummary, G, T extends Enum<T>> Flow.Publisher<E> importPublisher(
+			ORCIDHelper<E, S, G, T> helper, List<E> locals,
+			Collection<T> types, ProgressHandler handler)
+			throws IllegalArgumentException {
+		if (helper == null || locals == null || handler == null)
+			throw new IllegalArgumentException("Null arguments.");
+		return new ImportPublisher<E, S, G, T>(helper, locals, types, handler);
+	}
 	
 	/**
 	 * <p>
@@ -905,29 +1745,9 @@ public final class PTCRISync {
 		if (helper == null || locals == null || handler == null)
 			throw new IllegalArgumentException("Null arguments.");
 		
-		if (types == null)
-			types = new HashSet<T>();
-		
-		handler.setCurrentStatus("ORCID_SYNC_IMPORT_STARTED");
-
-		List<S> orcids = helper.getAllTypedSummaries(types);
-
 		Map<BigInteger, PTCRISyncResult<E>> toImport = new HashMap<BigInteger, PTCRISyncResult<E>>();
 
-		// filter novel works only
-		List<S> temp = new ArrayList<S>();
-		handler.setCurrentStatus("ORCID_SYNC_IMPORT_ITERATION",orcids.size());
-		for (int c = 0; c != orcids.size(); c++) {
-			S mergedOrcidWork = orcids.get(c);
-			Map<E, ExternalIdsDiff> matchingWorks = helper.getSelfExternalIdsDiffS(mergedOrcidWork, locals);
-			if (matchingWorks.isEmpty() && helper.testMinimalQuality(mergedOrcidWork).isEmpty()) {
-				temp.add(mergedOrcidWork);
-			}
-			handler.step();
-		}
-
-		handler.setCurrentStatus("ORCID_SYNC_IMPORT_GETTING",temp.size());
-		helper.getFulls(temp, toImport, handler);
+		importFulls(helper, locals, types, handler, helper.pipelineFulls(toImport));
 
 		List<E> results = new ArrayList<E>();
 		for (PTCRISyncResult<E> r : toImport.values())
@@ -942,6 +1762,62 @@ public final class PTCRISync {
 		return new LinkedList<E>(results);
 	}
 
+	/**
+	 * Retrieves the new valid activities in an ORCID profile through a
+	 * pipeline of full activity reads, following the criteria of
+	 * {@link #importBase(ORCIDHelper, List, Collection, ProgressHandler)}.
+	 * Each activity is added to the callback map of the pipeline as soon as it
+	 * is retrieved, possibly from the worker threads. The procedure stops if
+	 * the thread is interrupted while selecting the activities.
+	 * 
+	 * @param helper
+	 *            helper that encapsulates the ORCID client defining the CRIS
+	 *            Member API and user the profile to be managed
+	 * @param locals
+	 *            the full list of local activities
+	 * @param types
+	 *            the types of ORCID activities that should be considered
+	 *            (others are simply ignored)
+	 * @param handler
+	 *            the progress handler responsible for receiving progress
+	 *            updates
+	 * @param fulls
+	 *            the pipeline that reads the full activities
+	 * @throws OrcidClientException
+	 *             if the communication with ORCID fails when getting the
+	 *             activities summary
+	 * @throws InterruptedException
+	 *             if the process is interrupted
+	 */
+	static <E extends ElementSummary, S extends ElementSummary, G, T extends Enum<T>> void importFulls(
+			ORCIDHelper<E, S, G, T> helper, List<E> locals, Collection<T> types,
+			ProgressHandler handler, ORCIDHelper<E, S, G, T>.FullsPipeline fulls)
+			throws OrcidClientException, InterruptedException {
+		assert helper != null && locals != null && handler != null && fulls != null;
+
+		if (types == null)
+			types = new HashSet<T>();
+		
+		handler.setCurrentStatus("ORCID_SYNC_IMPORT_STARTED");
+
+		Collection<S> orcids = helper.getLazyTypedSummaries(types);
+
+		// filter novel works only, retrieving them while iterating
+		handler.setCurrentStatus("ORCID_SYNC_IMPORT_ITERATION",orcids.size());
+		for (S mergedOrcidWork : orcids) {
+			if (Thread.interrupted())
+				throw new InterruptedException();
+			Map<E, ExternalIdsDiff> matchingWorks = helper.getSelfExternalIdsDiffS(mergedOrcidWork, locals);
+			if (matchingWorks.isEmpty() && helper.testMinimalQuality(mergedOrcidWork).isEmpty()) {
+				fulls.offer(mergedOrcidWork);
+			}
+			handler.step();
+		}
+
+		handler.setCurrentStatus("ORCID_SYNC_IMPORT_GETTING",fulls.size());
+		fulls.finish(handler);
+	}
+
 	/**
 	 * <p>
 	 * Counts new valid works in an ORCID profile given a set of
@@ -1084,14 +1960,13 @@ public final class PTCRISync {
 		
 		handler.setCurrentStatus("ORCID_SYNC_IMPORT_COUNTER_STARTED");
 
-		List<S> orcids = helper.getAllTypedSummaries(types);
+		Collection<S> orcids = helper.getLazyTypedSummaries(types);
 
 		int counter = 0;
 
 		// filter novel works only
 		handler.setCurrentStatus("ORCID_SYNC_IMPORT_COUNTER_ITERATION",orcids.size());
-		for (int c = 0; c != orcids.size(); c++) {
-			S mergedOrcidWork = orcids.get(c);
+		for (S mergedOrcidWork : orcids) {
 			Map<E, ExternalIdsDiff> matchingWorks = helper.getSelfExternalIdsDiffS(mergedOrcidWork, locals);
 			if (matchingWorks.isEmpty() && helper.testMinimalQuality(mergedOrcidWork).isEmpty()) {
 				counter++;
@@ -1286,27 +2161,26 @@ public final class PTCRISync {
 		
 		handler.setCurrentStatus("ORCID_SYNC_IMPORT_INVALID_STARTED");
 	
-		List<S> orcids = helper.getAllTypedSummaries(types);
+		Collection<S> orcids = helper.getLazyTypedSummaries(types);
 	
 		Map<BigInteger, Set<String>> invalidsToImport = new HashMap<BigInteger, Set<String>>();
 		Map<BigInteger, PTCRISyncResult<E>> toImport = new HashMap<BigInteger, PTCRISyncResult<E>>();
 	
-		// filter invalid works only
-		List<S> temp = new ArrayList<S>();
+		// filter invalid works only, retrieving them while iterating
+		ORCIDHelper<E, S, G, T>.FullsPipeline temp = helper.pipelineFulls(toImport);
 		handler.setCurrentStatus("ORCID_SYNC_IMPORT_INVALID_ITERATION",orcids.size());
-		for (int c = 0; c != orcids.size(); c++) {
-			S mergedOrcidWork = orcids.get(c);
+		for (S mergedOrcidWork : orcids) {
 			Map<E, ExternalIdsDiff> matchingWorks = helper.getSelfExternalIdsDiffS(mergedOrcidWork, locals);
 			Set<String> invalids = helper.testMinimalQuality(mergedOrcidWork);
 			invalidsToImport.put(mergedOrcidWork.getPutCode(), invalids);
 			if (matchingWorks.isEmpty() && !invalids.isEmpty()) {
-				temp.add(mergedOrcidWork);
+				temp.offer(mergedOrcidWork);
 			}
 			handler.step();
 		}
 	
 		handler.setCurrentStatus("ORCID_SYNC_IMPORT_INVALID_GETTING",temp.size());
-		helper.getFulls(temp, toImport, handler);
+		temp.finish(handler);
 	
 		Map<E, Set<String>> results = new HashMap<E, Set<String>>();
 		for (BigInteger i : toImport.keySet())
@@ -1564,15 +2438,13 @@ public final class PTCRISync {
 		
 		handler.setCurrentStatus("ORCID_SYNC_IMPORT_UPDATES_STARTED");
 
-		List<S> orcids = helper.getAllTypedSummaries(types);
+		Collection<S> orcids = helper.getLazyTypedSummaries(types);
 
 		List<E> toUpdate = new LinkedList<E>();
 
 		// filter already known works only
 		handler.setCurrentStatus("ORCID_SYNC_IMPORT_UPDATES_ITERATION",orcids.size());
-		for (int c = 0; c != orcids.size(); c++) {
-
-			S orcid = orcids.get(c);
+		for (S orcid : orcids) {
 			Map<E, ExternalIdsDiff> matchingLocals = helper.getSelfExternalIdsDiffS(orcid, locals);
 			if (!matchingLocals.isEmpty()) {
 				for (E mathingLocal : matchingLocals.keySet()) {
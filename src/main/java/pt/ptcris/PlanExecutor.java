@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.um.dsi.gavea.orcid.model.common.ElementSummary;
+import org.um.dsi.gavea.orcid.model.common.ExternalId;
+
+import pt.ptcris.handlers.ExportListener;
+import pt.ptcris.handlers.ProgressHandler;
+import pt.ptcris.utils.ORCIDHelper;
+
+/**
+ * <p>
+ * Executes the mutations of an export plan (see {@link SyncPlan}) concurrently
+ * in a bounded pool of worker threads, rather than in strict stages. Only the
+ * orderings that avoid conflicts in ORCID are enforced, as a dependency
+ * graph: the first phase of an update precedes its second phase, and an
+ * operation that inserts a self external identifier (the second phase of an
+ * update or an addition) waits for every operation that removes it from
+ * another activity (the first phase of an update or a deletion).
+ * </p>
+ *
+ * <p>
+ * The result is assembled once every operation has finished, in the order
+ * of the staged execution, so that it is identical to the one that would
+ * have been produced by it. The listener and the progress handler are
+ * notified as operations complete, from the worker threads, but never
+ * concurrently.
+ * </p>
+ *
+ * @param <E>
+ *            The class of ORCID activities being synchronized
+ * @param <S>
+ *            The class of ORCID activity summaries
+ * @param <G>
+ *            The class of ORCID activity groups
+ * @param <T>
+ *            The class of ORCID activity types
+ */
+final class PlanExecutor<E extends ElementSummary, S extends ElementSummary, G, T extends Enum<T>> {
+
+	/**
+	 * An operation of the plan, along with the operations that depend on it.
+	 */
+	private final class Op {
+		private final Runnable action;
+		private final List<Op> successors = new ArrayList<Op>();
+		private int pending;
+
+		private Op(Runnable action) {
+			this.action = action;
+		}
+
+		private void before(Op successor) {
+			if (successor != this && !successors.contains(successor)) {
+				successors.add(successor);
+				successor.pending++;
+			}
+		}
+	}
+
+	private final ORCIDHelper<E, S, G, T> helper;
+	private final SyncPlan<E, S> plan;
+	private final ProgressHandler handler;
+	private final ExportListener<E> listener;
+	private final int threads;
+
+	private final List<Op> ops = new ArrayList<Op>();
+	private final Map<String, List<Op>> removers = new HashMap<String, List<Op>>();
+	private final Map<String, List<Op>> inserters = new HashMap<String, List<Op>>();
+
+	private final List<PTCRISyncResult<E>> phase1;
+	private final List<PTCRISyncResult<E>> fundedByPhase1;
+	private final List<PTCRISyncResult<E>> phase2;
+	private final List<PTCRISyncResult<E>> fundedByPhase2;
+	private final List<PTCRISyncResult<E>> adds;
+
+	private ExecutorService executor;
+	private CountDownLatch latch;
+	private Throwable failure;
+
+	PlanExecutor(ORCIDHelper<E, S, G, T> helper, SyncPlan<E, S> plan, ProgressHandler handler,
+			ExportListener<E> listener, int threads) {
+		assert helper != null && plan != null && handler != null && threads > 1;
+
+		this.helper = helper;
+		this.plan = plan;
+		this.handler = handler;
+		this.listener = listener;
+		this.threads = threads;
+		this.phase1 = slots(plan.updates.size());
+		this.fundedByPhase1 = slots(plan.fundedByUpdates.size());
+		this.phase2 = slots(plan.updates.size());
+		this.fundedByPhase2 = slots(plan.fundedByUpdates.size());
+		this.adds = slots(plan.adds.size());
+	}
+
+	/**
+	 * Executes the plan, waiting for every operation to finish, and assembles
+	 * the result. The invalid and up-to-date local activities are expected to
+	 * have already been reported.
+	 *
+	 * @param result
+	 *            the result of the synchronization, to which the outcome of
+	 *            the updates and additions is added
+	 */
+	void execute(Map<BigInteger, PTCRISyncResult<E>> result) {
+		assert result != null;
+
+		handler.setCurrentStatus("ORCID_SYNC_EXPORT_EXECUTING",
+				2 * (plan.updates.size() + plan.fundedByUpdates.size()) + plan.adds.size());
+
+		// the keys of the additions follow those of every other reported activity
+		final Set<BigInteger> keys = new HashSet<BigInteger>(result.keySet());
+		for (SyncPlan.Update<E, S> update : plan.updates)
+			keys.add(update.key);
+		for (SyncPlan.Update<E, S> update : plan.fundedByUpdates)
+			keys.add(update.key);
+		final int pad = keys.size();
+
+		for (S summary : plan.deletes) {
+			final BigInteger putcode = summary.getPutCode();
+			final Op op = op(() -> helper.delete(putcode));
+			for (ExternalId eid : helper.getSelfExternalIdsS(summary).getExternalId())
+				register(removers, ORCIDHelper.getKey(eid), op);
+		}
+		updates(plan.updates, phase1, phase2);
+		updates(plan.fundedByUpdates, fundedByPhase1, fundedByPhase2);
+		// additions are split as the bulk requests would have been
+		final int requests = Math.max(helper.countAddRequests(plan.adds.size()), 1);
+		final int size = (plan.adds.size() + requests - 1) / requests;
+		for (int c = 0; c < plan.adds.size(); c += size) {
+			final int from = c, to = Math.min(c + size, plan.adds.size());
+			final Op op = op(() -> {
+				final List<PTCRISyncResult<E>> res = helper.add(plan.adds.subList(from, to), null);
+				for (int i = 0; i < res.size(); i++) {
+					adds.set(from + i, res.get(i));
+					notify(ORCIDHelper.getActivityLocalKey(plan.adds.get(from + i), BigInteger.valueOf(pad + from + i)), res.get(i));
+				}
+				step(to - from);
+			});
+			for (E local : plan.adds.subList(from, to))
+				for (ExternalId eid : helper.getSelfExternalIdsE(local).getExternalId())
+					register(inserters, ORCIDHelper.getKey(eid), op);
+		}
+
+		for (Map.Entry<String, List<Op>> inserted : inserters.entrySet())
+			for (Op remover : removers.getOrDefault(inserted.getKey(), new ArrayList<Op>()))
+				for (Op inserter : inserted.getValue())
+					remover.before(inserter);
+
+		run();
+
+		// assembled as in the staged execution, so that colliding keys resolve alike
+		for (int c = 0; c < plan.updates.size(); c++)
+			put(result, plan.updates.get(c).key, phase1.get(c));
+		for (int c = 0; c < plan.fundedByUpdates.size(); c++)
+			put(result, plan.fundedByUpdates.get(c).key, fundedByPhase1.get(c));
+		for (int c = 0; c < plan.updates.size(); c++)
+			put(result, plan.updates.get(c).key, phase2.get(c));
+		for (int c = 0; c < plan.fundedByUpdates.size(); c++)
+			put(result, plan.fundedByUpdates.get(c).key, fundedByPhase2.get(c));
+		assert pad == result.size();
+		for (int c = 0; c < plan.adds.size(); c++)
+			result.put(ORCIDHelper.getActivityLocalKey(plan.adds.get(c), BigInteger.valueOf(pad + c)), adds.get(c));
+	}
+
+	/**
+	 * Creates the operations of a list of planned updates, registering the
+	 * identifiers removed by their first phase and inserted by their second.
+	 */
+	private void updates(List<SyncPlan.Update<E, S>> updates, List<PTCRISyncResult<E>> first,
+			List<PTCRISyncResult<E>> second) {
+		for (int c = 0; c < updates.size(); c++) {
+			final int i = c;
+			final SyncPlan.Update<E, S> update = updates.get(c);
+			Op op1 = null, op2 = null;
+			if (update.phase1 != null) {
+				op1 = op(() -> {
+					first.set(i, PTCRISync.updatePhase(helper, update, update.phase1));
+					if (update.phase2 == null)
+						notify(update.key, first.get(i));
+					step(1);
+				});
+				for (ExternalId eid : update.record.eidsDiff.more)
+					register(removers, ORCIDHelper.getKey(eid), op1);
+			} else
+				step(1);
+			if (update.phase2 != null) {
+				op2 = op(() -> {
+					second.set(i, PTCRISync.updatePhase(helper, update, update.phase2));
+					notify(update.key, second.get(i));
+					step(1);
+				});
+				for (ExternalId eid : update.record.eidsDiff.less)
+					register(inserters, ORCIDHelper.getKey(eid), op2);
+			} else
+				step(1);
+			if (op1 != null && op2 != null)
+				op1.before(op2);
+		}
+	}
+
+	/**
+	 * Runs every operation in the worker pool, each as soon as the operations
+	 * it depends on have finished, and waits for all to finish.
+	 */
+	private void run() {
+		if (ops.isEmpty())
+			return;
+
+		executor = Executors.newFixedThreadPool(threads);
+		latch = new CountDownLatch(ops.size());
+		try {
+			for (Op op : ops)
+				if (op.pending == 0)
+					executor.execute(() -> run(op));
+			boolean interrupted = false;
+			while (latch.getCount() > 0) {
+				try {
+					latch.await();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		} finally {
+			executor.shutdown();
+		}
+
+		if (failure instanceof RuntimeException)
+			throw (RuntimeException) failure;
+		if (failure instanceof Error)
+			throw (Error) failure;
+	}
+
+	/**
+	 * Runs an operation and dispatches the dependent operations that became
+	 * ready. Dependent operations are run even if this one fails unexpectedly,
+	 * so that the execution terminates.
+	 */
+	private void run(Op op) {
+		try {
+			op.action.run();
+		} catch (Throwable e) {
+			synchronized (this) {
+				if (failure == null)
+					failure = e;
+			}
+		}
+		final List<Op> ready = new ArrayList<Op>();
+		synchronized (this) {
+			for (Op successor : op.successors)
+				if (--successor.pending == 0)
+					ready.add(successor);
+		}
+		for (Op successor : ready)
+			executor.execute(() -> run(successor));
+		latch.countDown();
+	}
+
+	private Op op(Runnable action) {
+		final Op op = new Op(action);
+		ops.add(op);
+		return op;
+	}
+
+	private void register(Map<String, List<Op>> index, String key, Op op) {
+		List<Op> l = index.get(key);
+		if (l == null) {
+			l = new ArrayList<Op>();
+			index.put(key, l);
+		}
+		l.add(op);
+	}
+
+	private synchronized void notify(BigInteger key, PTCRISyncResult<E> res) {
+		if (listener != null)
+			listener.result(key, res);
+	}
+
+	private synchronized void step(int steps) {
+		handler.step(steps);
+	}
+
+	private static <E extends ElementSummary> void put(Map<BigInteger, PTCRISyncResult<E>> result, BigInteger key,
+			PTCRISyncResult<E> res) {
+		if (res != null)
+			result.put(key, res);
+	}
+
+	private static <E extends ElementSummary> List<PTCRISyncResult<E>> slots(int size) {
+		final List<PTCRISyncResult<E>> res = new ArrayList<PTCRISyncResult<E>>(size);
+		for (int c = 0; c < size; c++)
+			res.add(null);
+		return res;
+	}
+
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.um.dsi.gavea.orcid.model.common.ElementSummary;
+import org.um.dsi.gavea.orcid.model.common.ExternalId;
+
+import pt.ptcris.exceptions.InvalidActivityException;
+import pt.ptcris.utils.UpdateRecord;
+
+/**
+ * <p>
+ * The operations that an export procedure will perform on an ORCID profile,
+ * as computed by a dry-run of the procedure that performs no mutations (see
+ * {@link PTCRISync#planExportWorks(ORCIDClient, java.util.List, pt.ptcris.handlers.ProgressHandler)}).
+ * Each local activity is either invalid, up-to-date, updated or added, and
+ * remote CRIS sourced activities without a matching local activity are
+ * deleted.
+ * </p>
+ *
+ * <p>
+ * Updates are two-phased to avoid conflicts in ORCID: the first phase
+ * removes obsolete external identifiers and the second inserts the missing
+ * ones. The first phase is skipped when the obsolete identifiers are not
+ * inserted by any other planned operation, as they cannot collide. Each
+ * update record holds the external identifiers to be set in each of its
+ * phases, null if the phase is not needed. Updates that only concern
+ * funded-by identifiers are kept separately, as they are performed after the
+ * respective phase of the remaining updates.
+ * </p>
+ *
+ * <p>
+ * The plan reflects the state of the ORCID profile when it was computed, and
+ * should be executed shortly after, if at all. It holds copies of the local
+ * activities to be updated or added, so that it is not affected by later
+ * changes to the local activities, nor are these modified by its execution.
+ * </p>
+ *
+ * @param <E>
+ *            The class of ORCID activities being synchronized
+ * @param <S>
+ *            The class of ORCID activity summaries
+ */
+public final class SyncPlan<E extends ElementSummary, S extends ElementSummary> {
+
+	/**
+	 * A planned update of a remote ORCID activity with the meta-data of a
+	 * local activity.
+	 *
+	 * @param <E>
+	 *            The class of ORCID activities being synchronized
+	 * @param <S>
+	 *            The class of ORCID activity summaries
+	 */
+	public static final class Update<E extends ElementSummary, S extends ElementSummary> {
+
+		/** The local key under which the outcome is reported. */
+		public final BigInteger key;
+		/** The local (copy) and remote activities and their identifier differences. */
+		public final UpdateRecord<E, S> record;
+		/** The external identifiers of the first phase, null if not needed. */
+		public final List<ExternalId> phase1;
+		/** The external identifiers of the second phase, null if not needed. */
+		public final List<ExternalId> phase2;
+
+		Update(BigInteger key, UpdateRecord<E, S> record, List<ExternalId> phase1, List<ExternalId> phase2) {
+			assert key != null && record != null;
+			this.key = key;
+			this.record = record;
+			this.phase1 = phase1 == null ? null : Collections.unmodifiableList(phase1);
+			this.phase2 = phase2 == null ? null : Collections.unmodifiableList(phase2);
+		}
+
+		/**
+		 * The number of PUT requests required by the update.
+		 *
+		 * @return the number of requests
+		 */
+		public int requests() {
+			return (phase1 == null ? 0 : 1) + (phase2 == null ? 0 : 1);
+		}
+	}
+
+	/** The invalid local activities, by local key, with the failed criteria. */
+	public final Map<BigInteger, InvalidActivityException> invalids;
+	/** The local keys of the local activities already up-to-date. */
+	public final List<BigInteger> upToDate;
+	/** The CRIS sourced remote activities to be deleted. */
+	public final List<S> deletes;
+	/** The updates of remote activities. */
+	public final List<Update<E, S>> updates;
+	/** The updates of remote activities only on funded-by identifiers. */
+	public final List<Update<E, S>> fundedByUpdates;
+	/** The local activities to be added (copies). */
+	public final List<E> adds;
+
+	/** The put-codes of the remote activities matched by each local key, up-to-date or updated. */
+	public final Map<BigInteger, BigInteger> putcodes;
+
+	private final int addRequests;
+
+	SyncPlan(Map<BigInteger, InvalidActivityException> invalids, List<BigInteger> upToDate,
+			List<S> deletes, List<Update<E, S>> updates, List<Update<E, S>> fundedByUpdates,
+			List<E> adds, int addRequests, Map<BigInteger, BigInteger> putcodes) {
+		this.invalids = Collections.unmodifiableMap(new LinkedHashMap<BigInteger, InvalidActivityException>(invalids));
+		this.upToDate = Collections.unmodifiableList(new ArrayList<BigInteger>(upToDate));
+		this.deletes = Collections.unmodifiableList(new ArrayList<S>(deletes));
+		this.updates = Collections.unmodifiableList(new ArrayList<Update<E, S>>(updates));
+		this.fundedByUpdates = Collections.unmodifiableList(new ArrayList<Update<E, S>>(fundedByUpdates));
+		this.adds = Collections.unmodifiableList(new ArrayList<E>(adds));
+		this.addRequests = addRequests;
+		this.putcodes = Collections.unmodifiableMap(new HashMap<BigInteger, BigInteger>(putcodes));
+	}
+
+	/**
+	 * Whether executing the plan would not change the ORCID profile.
+	 *
+	 * @return whether no mutations are planned
+	 */
+	public boolean isEmpty() {
+		return deletes.isEmpty() && updates.isEmpty() && fundedByUpdates.isEmpty() && adds.isEmpty();
+	}
+
+	/**
+	 * The number of PUT requests required by the planned updates, including
+	 * those only on funded-by identifiers.
+	 *
+	 * @return the number of update requests
+	 */
+	public int updateRequests() {
+		int res = 0;
+		for (Update<E, S> u : updates)
+			res += u.requests();
+		for (Update<E, S> u : fundedByUpdates)
+			res += u.requests();
+		return res;
+	}
+
+	/**
+	 * The number of POST requests required by the planned additions, taking
+	 * into consideration bulk requests.
+	 *
+	 * @return the number of add requests
+	 */
+	public int addRequests() {
+		return addRequests;
+	}
+
+	/**
+	 * The estimated number of ORCID API calls performed by executing the plan,
+	 * i.e., the mutations, not counting the GET call that was performed to
+	 * compute it.
+	 *
+	 * @return the estimated number of API calls
+	 */
+	public int apiCalls() {
+		return deletes.size() + updateRequests() + addRequests;
+	}
+
+}
@@ -9,11 +9,17 @@
  */
 package pt.ptcris.grouper;
 
+import java.util.Collection;
+
 /**
  * An activity comparator used by the grouper to creates groups of matching
  * activities. Concrete implementations should be provided by the users through
  * a {@link #compare(Object, Object)} that calculates a similarity
- * metric between to activities, and a {@link #threshold()}.
+ * metric between to activities, and a {@link #threshold()}. Implementations
+ * may additionally provide {@link #blockingKeys(Object) blocking keys}, so that
+ * only activities sharing a key are compared. Comparators that derive
+ * features from the activities (e.g., normalized titles) should rather extend
+ * {@link FeatureComparator}, so that they are derived once per activity.
  *
  * @param <A>
  *            the type of activities being compared
@@ -40,35 +46,76 @@ public abstract class ActivityComparator<A> {
 	abstract public float compare(A act1, A act2);
 
 	/**
-	 * Tests whether two activities match, given the
-	 * {@link #compare(Object, Object)} method and the
-	 * {@link #threshold()}.
+	 * Calculates the blocking keys of an activity, e.g., normalized
+	 * identifiers, or the year followed by a prefix of the title. The grouper
+	 * only compares activities that share at least one blocking key, so every
+	 * pair of matching activities must share one, otherwise the groups will
+	 * differ from those of comparing every pair. An activity without blocking
+	 * keys is compared with every other. By default, no blocking keys are
+	 * provided.
 	 * 
-	 * @param act1
-	 *            one activity
-	 * @param act2
-	 *            other activity
-	 * @return whether the activities match
+	 * @param act
+	 *            the activity
+	 * @return the blocking keys of the activity, null if none
+	 */
+	public Collection<String> blockingKeys(A act) {
+		return null;
+	}
+
+	/**
+	 * The features of an activity on which the comparison is performed, that
+	 * the generators calculate once per activity. By default, the activity
+	 * itself.
+	 * 
+	 * @param act
+	 *            the activity
+	 * @return the features of the activity
 	 */
-	private final boolean matches(A act1, A act2) {
-		return compare(act1, act2) >= threshold();
+	Object features(A act) {
+		return act;
 	}
 
 	/**
-	 * Tests whether an activity belongs to a group, according to the
-	 * {@link #compare(Object, Object)} criterion.
+	 * Calculates the blocking keys of an activity given its
+	 * {@link #features(Object) features}.
 	 * 
 	 * @param act
-	 *            the activity to be tested for membership
-	 * @param group
-	 *            the activity group
-	 * @return whether the activity belongs to the group
+	 *            the activity
+	 * @param features
+	 *            the features of the activity
+	 * @return the blocking keys of the activity, null if none
+	 */
+	Collection<String> blockingKeys(A act, Object features) {
+		return blockingKeys(act);
+	}
+
+	/**
+	 * Calculates a similarity metric between two activities given their
+	 * {@link #features(Object) features}.
+	 * 
+	 * @param features1
+	 *            the features of one activity
+	 * @param features2
+	 *            the features of other activity
+	 * @return the similarity metric between the activities
+	 */
+	@SuppressWarnings("unchecked")
+	float score(Object features1, Object features2) {
+		return compare((A) features1, (A) features2);
+	}
+
+	/**
+	 * Tests whether two activities match given their
+	 * {@link #features(Object) features}.
+	 * 
+	 * @param features1
+	 *            the features of one activity
+	 * @param features2
+	 *            the features of other activity
+	 * @return whether the activities match
 	 */
-	final boolean belongs(A act, ActivityGroup<A> group) {
-		for (A act1 : group.getActivities())
-			if (matches(act1, act))
-				return true;
-		return false;
+	final boolean matchesFeatures(Object features1, Object features2) {
+		return score(features1, features2) >= threshold();
 	}
 
 }
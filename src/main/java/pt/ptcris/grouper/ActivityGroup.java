@@ -54,6 +54,16 @@ public class ActivityGroup<A> {
 		activities.add(activity);
 	}
 
+	/**
+	 * Removes an activity from the group.
+	 * 
+	 * @param activity
+	 *            the activity to be removed
+	 */
+	void remove(A activity) {
+		activities.remove(activity);
+	}
+
 	/**
 	 * Merges the current group with another. Duplicates are ignored.
 	 * 
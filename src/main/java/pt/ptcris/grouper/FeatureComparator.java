@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.grouper;
+
+import java.util.Collection;
+
+/**
+ * An activity comparator that compares activities on features derived from
+ * them, e.g., normalized titles, identifier sets or years. Concrete
+ * implementations should be provided by the users through a
+ * {@link #prepare(Object)} that derives the features of an activity, a
+ * {@link #compareFeatures(Object, Object)} that calculates a similarity metric
+ * between the features of two activities, and a {@link #threshold()}. The
+ * generators prepare the features once per activity, rather than at each
+ * comparison.
+ *
+ * @param <A>
+ *            the type of activities being compared
+ * @param <F>
+ *            the type of the features of the activities
+ */
+public abstract class FeatureComparator<A, F> extends ActivityComparator<A> {
+
+	/**
+	 * Derives the features of an activity on which it is compared.
+	 * 
+	 * @param act
+	 *            the activity
+	 * @return the features of the activity
+	 */
+	abstract public F prepare(A act);
+
+	/**
+	 * Calculates a similarity metric between two activities given their
+	 * features.
+	 * 
+	 * @param features1
+	 *            the features of one activity
+	 * @param features2
+	 *            the features of other activity
+	 * @return the similarity metric between the activities
+	 */
+	abstract public float compareFeatures(F features1, F features2);
+
+	/**
+	 * Calculates the blocking keys of an activity given its features (see
+	 * {@link #blockingKeys(Object)}). By default, no blocking keys are
+	 * provided.
+	 * 
+	 * @param features
+	 *            the features of the activity
+	 * @return the blocking keys of the activity, null if none
+	 */
+	public Collection<String> blockingKeysFeatures(F features) {
+		return null;
+	}
+
+	/**
+	 * {@inheritDoc} Prepares the features of both activities, which should be
+	 * avoided in loops.
+	 */
+	@Override
+	public final float compare(A act1, A act2) {
+		return compareFeatures(prepare(act1), prepare(act2));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public final Collection<String> blockingKeys(A act) {
+		return blockingKeysFeatures(prepare(act));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	final Object features(A act) {
+		return prepare(act);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	@SuppressWarnings("unchecked")
+	final Collection<String> blockingKeys(A act, Object features) {
+		return blockingKeysFeatures((F) features);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	@SuppressWarnings("unchecked")
+	final float score(Object features1, Object features2) {
+		return compareFeatures((F) features1, (F) features2);
+	}
+
+}
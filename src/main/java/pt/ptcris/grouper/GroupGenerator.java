@@ -10,19 +10,47 @@
 package pt.ptcris.grouper;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * A generator that, provided the concrete {@link ActivityComparator activity
  * comparator} iteratively groups works that are below the threshold as
  * {@link ActivityGroup activity groups}.
  * 
+ * <p>
+ * The groups are the connected components of the matching relation, and are
+ * maintained as a disjoint-set forest over the activities (with path
+ * compression and union by rank), so that merging groups has near-constant
+ * cost. The members of each group are chained circularly, so that a new
+ * activity is compared with each group only until a member matches. If the
+ * comparator provides {@link ActivityComparator#blockingKeys(Object) blocking
+ * keys}, a new activity is only compared with those sharing a key and with
+ * those without keys. The {@link FeatureComparator features} of each activity
+ * are prepared once, when it is added. The {@link ActivityGroup activity
+ * groups} are only materialized when retrieved.
+ * </p>
+ * 
  * @param <E>
  *            the type of activities being grouped
  */
 public class GroupGenerator<E> {
 
-	private final List<ActivityGroup<E>> groups = new ArrayList<ActivityGroup<E>>();
+	private final List<E> activities = new ArrayList<E>();
+	private final List<Object> features = new ArrayList<Object>();
+	private int[] parent = new int[16];
+	private int[] rank = new int[16];
+	private int[] next = new int[16];
+	private final Set<Integer> roots = new LinkedHashSet<Integer>();
+	private final Map<String, List<Integer>> blocks = new HashMap<String, List<Integer>>();
+	private final List<Integer> unblocked = new ArrayList<Integer>();
+
+	private List<ActivityGroup<E>> groups;
 
 	private final ActivityComparator<E> comparator;
 
@@ -45,38 +73,110 @@ public class GroupGenerator<E> {
 	 * @param act the activity to be added to the groups
 	 */
 	public void group(E act) {
-		List<ActivityGroup<E>> belongsTo = new ArrayList<ActivityGroup<E>>();
-
-		// determine to which existing groups the activity belongs to
-		for (ActivityGroup<E> g : groups) {
-			if (comparator.belongs(act, g))
-				belongsTo.add(g);
+		final int id = activities.size();
+		if (id == parent.length) {
+			parent = Arrays.copyOf(parent, 2 * id);
+			rank = Arrays.copyOf(rank, 2 * id);
+			next = Arrays.copyOf(next, 2 * id);
 		}
+		parent[id] = id;
+		rank[id] = 0;
+		next[id] = id;
+		final Object fs = comparator.features(act);
+		activities.add(act);
+		features.add(fs);
 
-		// if it doesn't belong to any, create a new group
-		if (belongsTo.isEmpty()) {
-			ActivityGroup<E> newGroup = new ActivityGroup<E>(act);
-			groups.add(newGroup);
-		// otherwise merge all those groups
+		final Collection<String> keys = comparator.blockingKeys(act, fs);
+		// determine to which existing groups the activity belongs to, merging them
+		if (keys == null) {
+			for (Integer root : new ArrayList<Integer>(roots)) {
+				int i = root;
+				do {
+					if (comparator.matchesFeatures(features.get(i), fs)) {
+						union(root, id);
+						break;
+					}
+					i = next[i];
+				} while (i != root);
+			}
+			unblocked.add(id);
 		} else {
-			ActivityGroup<E> base = belongsTo.get(0);
-			base.add(act);
-
-			if (belongsTo.size() > 1) {
-				for (int i = 1; i < belongsTo.size(); i++) {
-					base.merge(belongsTo.get(i));
-					groups.remove(belongsTo.get(i));
-				}
+			final Set<Integer> candidates = new LinkedHashSet<Integer>(unblocked);
+			for (String key : keys) {
+				List<Integer> block = blocks.get(key);
+				if (block == null) {
+					block = new ArrayList<Integer>();
+					blocks.put(key, block);
+				} else
+					candidates.addAll(block);
+				block.add(id);
 			}
+			for (Integer i : candidates)
+				if (find(i) != find(id) && comparator.matchesFeatures(features.get(i), fs))
+					union(i, id);
 		}
+		roots.add(find(id));
+		groups = null;
 	}
 
 	/**
-	 * The activity groups generated so far. The order is currently meaningless.
+	 * The activity groups generated so far, ordered by their earliest added
+	 * activity.
 	 * 
 	 * @return the groups
 	 */
 	public List<ActivityGroup<E>> getGroups() {
+		if (groups == null) {
+			groups = new ArrayList<ActivityGroup<E>>();
+			final int[] index = new int[activities.size()];
+			Arrays.fill(index, -1);
+			for (int i = 0; i < activities.size(); i++) {
+				final int root = find(i);
+				if (index[root] < 0) {
+					index[root] = groups.size();
+					groups.add(new ActivityGroup<E>(activities.get(i)));
+				} else
+					groups.get(index[root]).add(activities.get(i));
+			}
+		}
 		return groups;
 	}
+
+	/**
+	 * Finds the representative of the group of an activity, compressing the
+	 * path to it.
+	 */
+	private int find(int i) {
+		int root = i;
+		while (parent[root] != root)
+			root = parent[root];
+		while (parent[i] != root) {
+			final int next = parent[i];
+			parent[i] = root;
+			i = next;
+		}
+		return root;
+	}
+
+	/**
+	 * Merges the groups of two activities, by rank, splicing their chains of
+	 * members.
+	 */
+	private void union(int i, int j) {
+		int ri = find(i), rj = find(j);
+		if (ri == rj)
+			return;
+		if (rank[ri] < rank[rj]) {
+			final int t = ri;
+			ri = rj;
+			rj = t;
+		} else if (rank[ri] == rank[rj])
+			rank[ri]++;
+		parent[rj] = ri;
+		roots.remove(rj);
+
+		final int t = next[ri];
+		next[ri] = next[rj];
+		next[rj] = t;
+	}
 }
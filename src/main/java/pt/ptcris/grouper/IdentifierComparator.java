@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.grouper;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.um.dsi.gavea.orcid.model.common.ElementSummary;
+import org.um.dsi.gavea.orcid.model.common.ExternalId;
+
+import pt.ptcris.utils.ORCIDHelper;
+
+/**
+ * An activity comparator that mirrors the grouping of activities by ORCID:
+ * activities match if they share a self external identifier, identifiers
+ * being compared under their normalized keys (see
+ * {@link ORCIDHelper#getKey(ExternalId)}). The similarity metric is the number
+ * of shared identifiers, and the identifiers are also the blocking keys, so
+ * only activities sharing one are compared. See
+ * {@link IdentifierGroupGenerator} for a linear-time generator for this
+ * comparator.
+ *
+ * @param <E>
+ *            the type of activities being compared
+ */
+public class IdentifierComparator<E extends ElementSummary> extends FeatureComparator<E, Set<String>> {
+
+	private final ORCIDHelper<E, ?, ?, ?> helper;
+
+	/**
+	 * Creates an identifier comparator, provided the helper that manages the
+	 * type of activities (e.g., {@link ORCIDHelper#factoryStaticWorks()}).
+	 *
+	 * @param helper
+	 *            the ORCID helper
+	 * @throws IllegalArgumentException
+	 *             if null arguments
+	 */
+	public IdentifierComparator(ORCIDHelper<E, ?, ?, ?> helper) {
+		if (helper == null)
+			throw new IllegalArgumentException("Null arguments.");
+		this.helper = helper;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int threshold() {
+		return 1;
+	}
+
+	/**
+	 * {@inheritDoc} The features are the normalized keys of the self external
+	 * identifiers.
+	 */
+	@Override
+	public Set<String> prepare(E act) {
+		final Set<String> res = new HashSet<String>();
+		for (ExternalId eid : helper.getSelfExternalIdsE(act).getExternalId())
+			res.add(ORCIDHelper.getKey(eid));
+		return res;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public float compareFeatures(Set<String> features1, Set<String> features2) {
+		int res = 0;
+		for (String key : features1)
+			if (features2.contains(key))
+				res++;
+		return res;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Collection<String> blockingKeysFeatures(Set<String> features) {
+		return features;
+	}
+
+}
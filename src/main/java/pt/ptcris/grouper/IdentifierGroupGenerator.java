@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.grouper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.um.dsi.gavea.orcid.model.common.ElementSummary;
+
+/**
+ * <p>
+ * A generator that groups activities that share self external identifiers,
+ * as ORCID does, in time linear on the number of identifiers. Rather than
+ * comparing activities, the normalized identifiers prepared by an
+ * {@link IdentifierComparator} are joined by hashing: each activity is merged
+ * with the first activity found with each of its identifiers, in a
+ * disjoint-set forest.
+ * </p>
+ *
+ * <p>
+ * The groups are the same as those generated by the {@link GroupGenerator
+ * sequential generator} with the same comparator, ordered by their earliest
+ * activity. Activities without self external identifiers form singleton
+ * groups.
+ * </p>
+ *
+ * @param <E>
+ *            the type of activities being grouped
+ */
+public class IdentifierGroupGenerator<E extends ElementSummary> {
+
+	private final IdentifierComparator<E> comparator;
+
+	/**
+	 * Creates a new identifier group generator.
+	 *
+	 * @param comparator
+	 *            the comparator that prepares the identifiers
+	 * @throws IllegalArgumentException
+	 *             if null arguments
+	 */
+	public IdentifierGroupGenerator(IdentifierComparator<E> comparator) {
+		if (comparator == null)
+			throw new IllegalArgumentException("Null arguments.");
+		this.comparator = comparator;
+	}
+
+	/**
+	 * Groups a collection of activities.
+	 *
+	 * @param activities
+	 *            the activities to be grouped
+	 * @return the activity groups, ordered by their earliest activity
+	 */
+	public List<ActivityGroup<E>> group(Collection<E> activities) {
+		final List<E> acts = new ArrayList<E>(activities);
+		final int[] parent = new int[acts.size()];
+		final Map<String, Integer> first = new HashMap<String, Integer>();
+		for (int i = 0; i < acts.size(); i++) {
+			parent[i] = i;
+			for (String key : comparator.prepare(acts.get(i))) {
+				final Integer j = first.putIfAbsent(key, i);
+				if (j != null)
+					union(parent, j, i);
+			}
+		}
+
+		final List<ActivityGroup<E>> groups = new ArrayList<ActivityGroup<E>>();
+		final int[] index = new int[acts.size()];
+		Arrays.fill(index, -1);
+		for (int i = 0; i < acts.size(); i++) {
+			final int root = find(parent, i);
+			if (index[root] < 0) {
+				index[root] = groups.size();
+				groups.add(new ActivityGroup<E>(acts.get(i)));
+			} else
+				groups.get(index[root]).add(acts.get(i));
+		}
+		return groups;
+	}
+
+	/**
+	 * Finds the representative of the group of an activity, the least
+	 * activity of the group, compressing the path to it.
+	 */
+	private static int find(int[] parent, int i) {
+		int root = i;
+		while (parent[root] != root)
+			root = parent[root];
+		while (parent[i] != root) {
+			final int next = parent[i];
+			parent[i] = root;
+			i = next;
+		}
+		return root;
+	}
+
+	/**
+	 * Merges the groups of two activities, linking the greater representative
+	 * to the lesser.
+	 */
+	private static void union(int[] parent, int i, int j) {
+		final int ri = find(parent, i), rj = find(parent, j);
+		if (ri != rj)
+			parent[Math.max(ri, rj)] = Math.min(ri, rj);
+	}
+
+}
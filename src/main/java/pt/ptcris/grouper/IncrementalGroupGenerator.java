@@ -0,0 +1,441 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.grouper;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * <p>
+ * A generator that maintains activity groups under the addition and removal
+ * of activities, reporting the groups affected by each operation, so that
+ * the groups need not be regenerated when the activities change. The groups
+ * are the same as those generated by the {@link GroupGenerator sequential
+ * generator} for the current activities.
+ * </p>
+ *
+ * <p>
+ * The matches between activities are kept as an index, so that when an
+ * activity is removed only the remaining activities of its group are
+ * traversed to determine whether the group was split, and no further
+ * comparisons are performed. In exchange, an added activity is compared
+ * with every candidate activity (see
+ * {@link ActivityComparator#blockingKeys(Object)}), even those of groups it
+ * already joined.
+ * </p>
+ *
+ * <p>
+ * Activities are identified by equality, as in {@link ActivityGroup}, and
+ * each may be added only once. Groups are updated in place when activities
+ * join or leave them, and the largest group is preserved when groups are
+ * merged or split.
+ * </p>
+ *
+ * <p>
+ * The identifiers of removed activities are reused by later additions, so
+ * that the generator only grows with the current activities. Optionally, the
+ * scores of the compared pairs of activities are kept in a
+ * {@link PairScoreCache}, under separate identifiers that are never reused
+ * for different activities. Once these are exhausted, the current activities
+ * are renumbered and the cache is cleared.
+ * </p>
+ *
+ * <p>
+ * If activities are also given keys that identify their content, such as
+ * local keys when activities are not modified while grouped, an activity
+ * that is removed and later added again under the same key recovers its
+ * cache identifier, so that the comparator is not called again for the same
+ * pairs. Only the keys of at most as many removed activities as the capacity
+ * of the cache are retained, the oldest being forgotten, and their scores
+ * are eventually evicted.
+ * </p>
+ *
+ * @param <E>
+ *            the type of activities being grouped
+ */
+public class IncrementalGroupGenerator<E> {
+
+	/**
+	 * The groups affected by the addition or removal of an activity.
+	 *
+	 * @param <E>
+	 *            the type of activities being grouped
+	 */
+	public static final class Change<E> {
+
+		/**
+		 * The kinds of changes to the groups.
+		 */
+		public enum Kind {
+			/** The activity was added as a new singleton group. */
+			CREATED,
+			/** The activity was added to an existing group. */
+			JOINED,
+			/** The activity was added and merged several groups into one. */
+			MERGED,
+			/** The activity was removed along with its singleton group. */
+			DELETED,
+			/** The activity was removed from its group, that remains connected. */
+			LEFT,
+			/** The activity was removed and its group split into several. */
+			SPLIT
+		}
+
+		/** The kind of change. */
+		public final Kind kind;
+		/** The groups that did not exist before the change. */
+		public final List<ActivityGroup<E>> created;
+		/** The groups whose activities changed in place. */
+		public final List<ActivityGroup<E>> modified;
+		/** The groups that no longer exist after the change. */
+		public final List<ActivityGroup<E>> deleted;
+
+		private Change(Kind kind, List<ActivityGroup<E>> created, List<ActivityGroup<E>> modified,
+				List<ActivityGroup<E>> deleted) {
+			this.kind = kind;
+			this.created = Collections.unmodifiableList(created);
+			this.modified = Collections.unmodifiableList(modified);
+			this.deleted = Collections.unmodifiableList(deleted);
+		}
+	}
+
+	private final ActivityComparator<E> comparator;
+	private final PairScoreCache cache;
+	private final Function<? super E, ?> key;
+
+	private final Map<Object, Integer> retired = new LinkedHashMap<Object, Integer>();
+	private final List<Integer> cacheIds = new ArrayList<Integer>();
+	private int nextCacheId;
+
+	private final Map<E, Integer> ids = new HashMap<E, Integer>();
+	private final Deque<Integer> free = new ArrayDeque<Integer>();
+	private final List<E> activities = new ArrayList<E>();
+	private final List<Object> features = new ArrayList<Object>();
+	private final List<Collection<String>> keys = new ArrayList<Collection<String>>();
+	private final List<Set<Integer>> matches = new ArrayList<Set<Integer>>();
+	private final List<ActivityGroup<E>> groupOf = new ArrayList<ActivityGroup<E>>();
+
+	private final Map<String, Set<Integer>> blocks = new HashMap<String, Set<Integer>>();
+	private final Set<Integer> unblocked = new LinkedHashSet<Integer>();
+
+	private final Set<ActivityGroup<E>> groups = new LinkedHashSet<ActivityGroup<E>>();
+
+	/**
+	 * Creates a new incremental activity group generator, provided a
+	 * comparator that will determine whether activities match.
+	 *
+	 * @param comparator
+	 *            the activity comparator
+	 * @throws IllegalArgumentException
+	 *             if null arguments
+	 */
+	public IncrementalGroupGenerator(ActivityComparator<E> comparator) {
+		this(comparator, null);
+	}
+
+	/**
+	 * Creates a new incremental activity group generator, provided a
+	 * comparator that will determine whether activities match and a cache
+	 * for the scores of the compared pairs.
+	 *
+	 * @param comparator
+	 *            the activity comparator
+	 * @param cache
+	 *            the pair score cache, null if none
+	 * @throws IllegalArgumentException
+	 *             if the comparator is null
+	 */
+	public IncrementalGroupGenerator(ActivityComparator<E> comparator, PairScoreCache cache) {
+		this(comparator, cache, null);
+	}
+
+	/**
+	 * Creates a new incremental activity group generator, provided a
+	 * comparator that will determine whether activities match, a cache for
+	 * the scores of the compared pairs and the keys identifying the content
+	 * of the activities, under which the cache identifiers of removed
+	 * activities are retained.
+	 *
+	 * @param comparator
+	 *            the activity comparator
+	 * @param cache
+	 *            the pair score cache, null if none
+	 * @param key
+	 *            the key of each activity, null if none
+	 * @throws IllegalArgumentException
+	 *             if the comparator is null
+	 */
+	public IncrementalGroupGenerator(ActivityComparator<E> comparator, PairScoreCache cache,
+			Function<? super E, ?> key) {
+		if (comparator == null)
+			throw new IllegalArgumentException("Null arguments.");
+		this.comparator = comparator;
+		this.cache = cache;
+		this.key = key;
+	}
+
+	/**
+	 * Adds an activity to the groups. If the activity matches more than one
+	 * group, then those groups are merged. If it matches none, a new group is
+	 * created.
+	 *
+	 * @param act
+	 *            the activity to be added
+	 * @return the groups affected by the addition
+	 * @throws IllegalArgumentException
+	 *             if the activity is null or was already added
+	 */
+	public Change<E> add(E act) {
+		if (act == null || ids.containsKey(act))
+			throw new IllegalArgumentException("Invalid arguments.");
+
+		final int id = free.isEmpty() ? activities.size() : free.pop();
+		if (cache != null) {
+			final Integer previous = key == null ? null : retired.remove(key.apply(act));
+			set(cacheIds, id, previous == null ? nextCacheId() : previous);
+		}
+		final Object fs = comparator.features(act);
+		final Collection<String> ks = comparator.blockingKeys(act, fs);
+		set(activities, id, act);
+		set(features, id, fs);
+		set(keys, id, ks);
+		ids.put(act, id);
+
+		// compare with every candidate, so that the matches are complete
+		final Set<Integer> candidates;
+		if (ks == null) {
+			candidates = new LinkedHashSet<Integer>(ids.values());
+			unblocked.add(id);
+		} else {
+			candidates = new LinkedHashSet<Integer>(unblocked);
+			for (String k : ks) {
+				Set<Integer> block = blocks.get(k);
+				if (block == null) {
+					block = new LinkedHashSet<Integer>();
+					blocks.put(k, block);
+				}
+				candidates.addAll(block);
+				block.add(id);
+			}
+		}
+		final Set<Integer> matched = new LinkedHashSet<Integer>();
+		final Set<ActivityGroup<E>> belongsTo = new LinkedHashSet<ActivityGroup<E>>();
+		for (Integer i : candidates)
+			if (i != id && matches(i, id, fs)) {
+				matched.add(i);
+				matches.get(i).add(id);
+				belongsTo.add(groupOf.get(i));
+			}
+		set(matches, id, matched);
+
+		final List<ActivityGroup<E>> created = new ArrayList<ActivityGroup<E>>();
+		final List<ActivityGroup<E>> modified = new ArrayList<ActivityGroup<E>>();
+		final List<ActivityGroup<E>> deleted = new ArrayList<ActivityGroup<E>>();
+
+		// if it doesn't belong to any, create a new group
+		if (belongsTo.isEmpty()) {
+			final ActivityGroup<E> group = new ActivityGroup<E>(act);
+			set(groupOf, id, group);
+			groups.add(group);
+			created.add(group);
+			return new Change<E>(Change.Kind.CREATED, created, modified, deleted);
+		}
+
+		// otherwise merge all those groups into the largest
+		ActivityGroup<E> base = null;
+		for (ActivityGroup<E> g : belongsTo)
+			if (base == null || g.getActivities().size() > base.getActivities().size())
+				base = g;
+		base.add(act);
+		set(groupOf, id, base);
+		modified.add(base);
+		for (ActivityGroup<E> g : belongsTo)
+			if (g != base) {
+				base.merge(g);
+				for (E e : g.getActivities())
+					groupOf.set(ids.get(e), base);
+				groups.remove(g);
+				deleted.add(g);
+			}
+		return new Change<E>(deleted.isEmpty() ? Change.Kind.JOINED : Change.Kind.MERGED, created, modified,
+				deleted);
+	}
+
+	/**
+	 * Removes an activity from the groups. If its group is no longer
+	 * connected without it, the group is split.
+	 *
+	 * @param act
+	 *            the activity to be removed
+	 * @return the groups affected by the removal, null if the activity had
+	 *         not been added
+	 */
+	public Change<E> remove(E act) {
+		final Integer id = act == null ? null : ids.remove(act);
+		if (id == null)
+			return null;
+
+		final ActivityGroup<E> group = groupOf.get(id);
+		final Collection<String> ks = keys.get(id);
+		if (ks == null)
+			unblocked.remove(id);
+		else
+			for (String k : ks) {
+				final Set<Integer> block = blocks.get(k);
+				block.remove(id);
+				if (block.isEmpty())
+					blocks.remove(k);
+			}
+		for (Integer i : matches.get(id))
+			matches.get(i).remove(id);
+		activities.set(id, null);
+		features.set(id, null);
+		keys.set(id, null);
+		matches.set(id, null);
+		groupOf.set(id, null);
+		group.remove(act);
+		free.push(id);
+		if (cache != null && key != null) {
+			retired.put(key.apply(act), cacheIds.get(id));
+			if (retired.size() > cache.capacity()) {
+				final Iterator<Object> oldest = retired.keySet().iterator();
+				oldest.next();
+				oldest.remove();
+			}
+		}
+
+		final List<ActivityGroup<E>> created = new ArrayList<ActivityGroup<E>>();
+		final List<ActivityGroup<E>> modified = new ArrayList<ActivityGroup<E>>();
+		final List<ActivityGroup<E>> deleted = new ArrayList<ActivityGroup<E>>();
+
+		if (group.getActivities().isEmpty()) {
+			groups.remove(group);
+			deleted.add(group);
+			return new Change<E>(Change.Kind.DELETED, created, modified, deleted);
+		}
+
+		// determine the connected components of the remaining activities
+		final List<Set<Integer>> components = new ArrayList<Set<Integer>>();
+		final Set<Integer> visited = new HashSet<Integer>();
+		for (E e : group.getActivities()) {
+			final Integer start = ids.get(e);
+			if (!visited.add(start))
+				continue;
+			final Set<Integer> component = new HashSet<Integer>();
+			final Deque<Integer> queue = new ArrayDeque<Integer>();
+			queue.add(start);
+			component.add(start);
+			while (!queue.isEmpty())
+				for (Integer i : matches.get(queue.poll()))
+					if (visited.add(i)) {
+						component.add(i);
+						queue.add(i);
+					}
+			components.add(component);
+		}
+
+		modified.add(group);
+		if (components.size() == 1)
+			return new Change<E>(Change.Kind.LEFT, created, modified, deleted);
+
+		// the largest component remains in the group, the others are split
+		Set<Integer> largest = components.get(0);
+		for (Set<Integer> c : components)
+			if (c.size() > largest.size())
+				largest = c;
+		for (Set<Integer> c : components)
+			if (c != largest) {
+				ActivityGroup<E> split = null;
+				for (Integer i : c) {
+					final E e = activities.get(i);
+					group.remove(e);
+					if (split == null)
+						split = new ActivityGroup<E>(e);
+					else
+						split.add(e);
+					groupOf.set(i, split);
+				}
+				groups.add(split);
+				created.add(split);
+			}
+		return new Change<E>(Change.Kind.SPLIT, created, modified, deleted);
+	}
+
+	/**
+	 * The cache of the scores of the compared pairs, along with its
+	 * statistics.
+	 *
+	 * @return the pair score cache, null if none
+	 */
+	public PairScoreCache getScoreCache() {
+		return cache;
+	}
+
+	/**
+	 * Tests whether an activity matches a newly added one, resorting to the
+	 * cache of scores if any.
+	 */
+	private boolean matches(int i, int id, Object fs) {
+		if (cache == null)
+			return comparator.matchesFeatures(features.get(i), fs);
+		final int ci = cacheIds.get(i), cid = cacheIds.get(id);
+		float score = cache.get(ci, cid);
+		if (Float.isNaN(score)) {
+			score = comparator.score(features.get(i), fs);
+			cache.put(ci, cid, score);
+		}
+		return score >= comparator.threshold();
+	}
+
+	/**
+	 * Assigns a cache identifier never assigned before. Once the identifiers
+	 * are exhausted, those of the current activities are renumbered and the
+	 * cache is cleared, since its scores would otherwise be confused.
+	 */
+	private int nextCacheId() {
+		if (nextCacheId == Integer.MAX_VALUE) {
+			cache.clear();
+			retired.clear();
+			nextCacheId = 0;
+			for (Integer i : ids.values())
+				cacheIds.set(i, nextCacheId++);
+		}
+		return nextCacheId++;
+	}
+
+	private static <T> void set(List<T> list, int index, T value) {
+		if (index == list.size())
+			list.add(value);
+		else
+			list.set(index, value);
+	}
+
+	/**
+	 * The current activity groups. The order is currently meaningless.
+	 *
+	 * @return an unmodifiable copy of the groups
+	 */
+	public List<ActivityGroup<E>> getGroups() {
+		return Collections.unmodifiableList(new ArrayList<ActivityGroup<E>>(groups));
+	}
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.grouper;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * A bounded cache of the similarity scores of unordered pairs of activities,
+ * identified by non-negative integer identifiers, so that expensive
+ * comparators are not called repeatedly for the same pair. The comparator is
+ * thus assumed to be symmetric.
+ * </p>
+ *
+ * <p>
+ * The scores are kept in primitive arrays, as an open-addressing hash table
+ * with a fixed capacity and short probe sequences: once full, a new score
+ * evicts one of the scores in its probe sequence. The number of hits, misses
+ * and evictions is recorded.
+ * </p>
+ */
+public final class PairScoreCache {
+
+	private static final long EMPTY = -1L;
+	private static final int PROBES = 8;
+
+	private final long[] keys;
+	private final float[] scores;
+	private final int mask;
+
+	private int size;
+	private long hits, misses, evictions;
+
+	/**
+	 * Creates a new pair score cache.
+	 *
+	 * @param capacity
+	 *            the maximum number of scores kept, rounded up to a power of
+	 *            two
+	 * @throws IllegalArgumentException
+	 *             if the capacity is not positive
+	 */
+	public PairScoreCache(int capacity) {
+		if (capacity < 1 || capacity > 1 << 30)
+			throw new IllegalArgumentException("Invalid arguments.");
+		final int length = Math.max(Integer.highestOneBit(capacity - 1) << 1, PROBES);
+		this.keys = new long[length];
+		this.scores = new float[length];
+		this.mask = length - 1;
+		Arrays.fill(keys, EMPTY);
+	}
+
+	/**
+	 * Retrieves the score of a pair of activities.
+	 *
+	 * @param i
+	 *            the identifier of one activity
+	 * @param j
+	 *            the identifier of the other activity
+	 * @return the score, {@link Float#NaN} if not cached
+	 */
+	public synchronized float get(int i, int j) {
+		final long key = key(i, j);
+		for (int p = 0, s = slot(key); p < PROBES; p++, s = (s + 1) & mask) {
+			if (keys[s] == key) {
+				hits++;
+				return scores[s];
+			}
+			if (keys[s] == EMPTY)
+				break;
+		}
+		misses++;
+		return Float.NaN;
+	}
+
+	/**
+	 * Caches the score of a pair of activities, evicting another if the
+	 * probe sequence is full.
+	 *
+	 * @param i
+	 *            the identifier of one activity
+	 * @param j
+	 *            the identifier of the other activity
+	 * @param score
+	 *            the score of the pair
+	 */
+	public synchronized void put(int i, int j, float score) {
+		final long key = key(i, j);
+		final int first = slot(key);
+		for (int p = 0, s = first; p < PROBES; p++, s = (s + 1) & mask) {
+			if (keys[s] == key || keys[s] == EMPTY) {
+				if (keys[s] == EMPTY)
+					size++;
+				keys[s] = key;
+				scores[s] = score;
+				return;
+			}
+		}
+		// evict a score of the probe sequence, chosen by the key
+		final int s = (first + ((int) (key >>> 7) & (PROBES - 1))) & mask;
+		keys[s] = key;
+		scores[s] = score;
+		evictions++;
+	}
+
+	/**
+	 * Discards every cached score. The statistics are kept.
+	 */
+	public synchronized void clear() {
+		Arrays.fill(keys, EMPTY);
+		size = 0;
+	}
+
+	/**
+	 * The maximum number of cached scores.
+	 *
+	 * @return the capacity of the cache
+	 */
+	public int capacity() {
+		return keys.length;
+	}
+
+	/**
+	 * The number of cached scores.
+	 *
+	 * @return the number of scores
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * The number of retrievals that found a cached score.
+	 *
+	 * @return the number of hits
+	 */
+	public synchronized long hits() {
+		return hits;
+	}
+
+	/**
+	 * The number of retrievals that found no cached score.
+	 *
+	 * @return the number of misses
+	 */
+	public synchronized long misses() {
+		return misses;
+	}
+
+	/**
+	 * The number of scores evicted to cache others.
+	 *
+	 * @return the number of evictions
+	 */
+	public synchronized long evictions() {
+		return evictions;
+	}
+
+	private static long key(int i, int j) {
+		assert i >= 0 && j >= 0;
+		return i < j ? ((long) i << 32) | j : ((long) j << 32) | i;
+	}
+
+	private int slot(long key) {
+		long h = key * 0x9e3779b97f4a7c15L;
+		return (int) (h >>> 32) & mask;
+	}
+
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.grouper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * <p>
+ * A generator that groups a collection of activities in parallel, scoring
+ * the candidate pairs of activities in a fork/join pool and merging the
+ * matching ones in a concurrent disjoint-set forest. The candidate pairs are
+ * those that would be compared by the {@link GroupGenerator sequential
+ * generator}, i.e., every pair unless the comparator provides
+ * {@link ActivityComparator#blockingKeys(Object) blocking keys}, and the
+ * generated groups are the same.
+ * </p>
+ *
+ * <p>
+ * The groups are ordered by their earliest activity, so the result does not
+ * depend on the scheduling of the threads. The {@link FeatureComparator
+ * features} of the activities are also prepared in parallel. The comparator
+ * is called concurrently and must be thread-safe.
+ * </p>
+ *
+ * @param <E>
+ *            the type of activities being grouped
+ */
+public class ParallelGroupGenerator<E> {
+
+	/**
+	 * The number of activities whose candidate pairs are scored sequentially
+	 * by a task.
+	 */
+	private static final int GRAIN = 32;
+
+	private final ActivityComparator<E> comparator;
+	private final ForkJoinPool pool;
+
+	/**
+	 * Creates a new parallel activity group generator, provided a comparator
+	 * that will determine whether activities match and the pool where they
+	 * are compared.
+	 *
+	 * @param comparator
+	 *            the activity comparator
+	 * @param pool
+	 *            the fork/join pool
+	 * @throws IllegalArgumentException
+	 *             if null arguments
+	 */
+	public ParallelGroupGenerator(ActivityComparator<E> comparator, ForkJoinPool pool) {
+		if (comparator == null || pool == null)
+			throw new IllegalArgumentException("Null arguments.");
+		this.comparator = comparator;
+		this.pool = pool;
+	}
+
+	/**
+	 * Groups a collection of activities.
+	 *
+	 * @param activities
+	 *            the activities to be grouped
+	 * @return the activity groups, ordered by their earliest activity
+	 */
+	public List<ActivityGroup<E>> group(Collection<E> activities) {
+		final Run run = new Run(new ArrayList<E>(activities));
+		pool.invoke(run.new Prepare(0, run.activities.size()));
+		run.index();
+		pool.invoke(run.new Score(0, run.activities.size()));
+
+		final List<ActivityGroup<E>> groups = new ArrayList<ActivityGroup<E>>();
+		final int[] index = new int[run.activities.size()];
+		Arrays.fill(index, -1);
+		for (int i = 0; i < run.activities.size(); i++) {
+			final int root = run.find(i);
+			if (index[root] < 0) {
+				index[root] = groups.size();
+				groups.add(new ActivityGroup<E>(run.activities.get(i)));
+			} else
+				groups.get(index[root]).add(run.activities.get(i));
+		}
+		return groups;
+	}
+
+	/**
+	 * The state of the grouping of a collection of activities.
+	 */
+	private final class Run {
+		private final List<E> activities;
+		private final AtomicIntegerArray parent;
+		private final Object[] features;
+		private final List<Collection<String>> keys;
+		private final Map<String, List<Integer>> blocks = new HashMap<String, List<Integer>>();
+		private final List<Integer> unblocked = new ArrayList<Integer>();
+
+		private Run(List<E> activities) {
+			this.activities = activities;
+			this.parent = new AtomicIntegerArray(activities.size());
+			this.features = new Object[activities.size()];
+			this.keys = new ArrayList<Collection<String>>(Collections.nCopies(activities.size(),
+					(Collection<String>) null));
+			for (int i = 0; i < activities.size(); i++)
+				parent.set(i, i);
+		}
+
+		/**
+		 * Prepares the features and blocking keys of an activity.
+		 */
+		private void prepare(int i) {
+			features[i] = comparator.features(activities.get(i));
+			keys.set(i, comparator.blockingKeys(activities.get(i), features[i]));
+		}
+
+		/**
+		 * Indexes the activities by their blocking keys, once prepared.
+		 */
+		private void index() {
+			for (int i = 0; i < activities.size(); i++) {
+				final Collection<String> ks = keys.get(i);
+				if (ks == null)
+					unblocked.add(i);
+				else
+					for (String k : ks) {
+						List<Integer> block = blocks.get(k);
+						if (block == null) {
+							block = new ArrayList<Integer>();
+							blocks.put(k, block);
+						}
+						if (block.isEmpty() || block.get(block.size() - 1) != i)
+							block.add(i);
+					}
+			}
+		}
+
+		/**
+		 * Scores the candidate pairs of an activity with the preceding ones,
+		 * merging the groups of those that match.
+		 */
+		private void score(int i) {
+			if (keys.get(i) == null) {
+				for (int j = 0; j < i; j++)
+					score(j, i);
+				return;
+			}
+			final List<Integer> candidates = new ArrayList<Integer>();
+			for (Integer j : unblocked) {
+				if (j >= i)
+					break;
+				candidates.add(j);
+			}
+			for (String k : keys.get(i))
+				for (Integer j : blocks.get(k)) {
+					if (j >= i)
+						break;
+					candidates.add(j);
+				}
+			candidates.sort(null);
+			for (int c = 0; c < candidates.size(); c++)
+				if (c == 0 || !candidates.get(c).equals(candidates.get(c - 1)))
+					score(candidates.get(c), i);
+		}
+
+		private void score(int j, int i) {
+			if (find(j) != find(i) && comparator.matchesFeatures(features[j], features[i]))
+				union(j, i);
+		}
+
+		/**
+		 * Finds the representative of the group of an activity, halving the
+		 * path to it. Representatives are the least activity of each group.
+		 */
+		private int find(int i) {
+			int p = parent.get(i);
+			while (p != i) {
+				final int g = parent.get(p);
+				parent.compareAndSet(i, p, g);
+				i = p;
+				p = g;
+			}
+			return i;
+		}
+
+		/**
+		 * Merges the groups of two activities, linking the greater
+		 * representative to the lesser, retrying if another thread changed
+		 * any of them meanwhile.
+		 */
+		private void union(int i, int j) {
+			while (true) {
+				final int ri = find(i), rj = find(j);
+				if (ri == rj)
+					return;
+				final int min = Math.min(ri, rj), max = Math.max(ri, rj);
+				if (parent.compareAndSet(max, max, min))
+					return;
+			}
+		}
+
+		/**
+		 * Prepares a range of activities, splitting it between tasks.
+		 */
+		@SuppressWarnings("serial")
+		private final class Prepare extends RecursiveAction {
+			private final int from, to;
+
+			private Prepare(int from, int to) {
+				this.from = from;
+				this.to = to;
+			}
+
+			/** {@inheritDoc} */
+			@Override
+			protected void compute() {
+				if (to - from <= GRAIN) {
+					for (int i = from; i < to; i++)
+						prepare(i);
+				} else {
+					final int mid = (from + to) >>> 1;
+					invokeAll(new Prepare(from, mid), new Prepare(mid, to));
+				}
+			}
+		}
+
+		/**
+		 * Scores the candidate pairs of a range of activities, splitting it
+		 * between tasks.
+		 */
+		@SuppressWarnings("serial")
+		private final class Score extends RecursiveAction {
+			private final int from, to;
+
+			private Score(int from, int to) {
+				this.from = from;
+				this.to = to;
+			}
+
+			/** {@inheritDoc} */
+			@Override
+			protected void compute() {
+				if (to - from <= GRAIN) {
+					for (int i = from; i < to; i++)
+						score(i);
+				} else {
+					final int mid = (from + to) >>> 1;
+					invokeAll(new Score(from, mid), new Score(mid, to));
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.grouper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamConstants;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * <p>
+ * A generator that groups collections of activities too large to be kept in
+ * memory. The activities are consumed from an iterator and spilled to a store
+ * in a local directory, while their
+ * {@link ActivityComparator#blockingKeys(Object) blocking keys} are spilled
+ * to partitions (by the hash of the key). Each partition is then grouped
+ * independently, loading only the activities that share its keys, and the
+ * matches are merged in a disjoint-set forest over the activity identifiers.
+ * Finally, the groups are streamed back to the caller, reading their
+ * activities from the store.
+ * </p>
+ *
+ * <p>
+ * The generated groups are the same as those of the {@link GroupGenerator
+ * sequential generator}, ordered by their earliest activity. The memory
+ * required does not depend on the size of the activities, but still grows
+ * linearly with their number: a few integers per activity (the offsets in the
+ * store and the disjoint-set forest, and the chaining of the groups while
+ * streaming), besides the blocks, features and compared pairs of a single
+ * partition at a time, and the activities of the group being streamed.
+ * Pairs that share several keys of a partition are compared only once, but
+ * may be compared again in other partitions. Every activity must have
+ * blocking keys, since
+ * comparing an activity with every other is unfeasible out of memory.
+ * Activities are spilled through a single Java serialization stream, reset
+ * after each activity so that each can be read on its own. The store and the
+ * partitions are temporary files in the directory, so several generators may
+ * share it, and are deleted if the grouping fails.
+ * </p>
+ *
+ * @param <E>
+ *            the type of activities being grouped
+ */
+public class StreamingGroupGenerator<E extends Serializable> implements Closeable {
+
+	private final ActivityComparator<E> comparator;
+	private final Path dir;
+	private final int partitions;
+
+	private Path path;
+	private FileChannel store;
+	private long[] offsets = new long[1024];
+	private int[] parent = new int[1024];
+	private int size;
+
+	/**
+	 * Creates a new streaming activity group generator, provided a comparator
+	 * that will determine whether activities match.
+	 *
+	 * @param comparator
+	 *            the activity comparator, that must provide blocking keys
+	 * @param dir
+	 *            the directory where activities and keys are spilled
+	 * @param partitions
+	 *            the number of partitions of the blocking keys, that should
+	 *            be large enough for each to fit in memory
+	 * @throws IllegalArgumentException
+	 *             if null arguments or non-positive number of partitions
+	 */
+	public StreamingGroupGenerator(ActivityComparator<E> comparator, Path dir, int partitions) {
+		if (comparator == null || dir == null || partitions < 1)
+			throw new IllegalArgumentException("Invalid arguments.");
+		this.comparator = comparator;
+		this.dir = dir;
+		this.partitions = partitions;
+	}
+
+	/**
+	 * Groups a stream of activities. The activities are all consumed before
+	 * the first group is returned, and the groups are read from the store as
+	 * they are iterated, which fails with an {@link UncheckedIOException} if
+	 * the store cannot be read. A generator groups a single stream.
+	 *
+	 * @param activities
+	 *            the activities to be grouped
+	 * @return the activity groups, ordered by their earliest activity
+	 * @throws IOException
+	 *             if the activities cannot be spilled or read
+	 * @throws IllegalArgumentException
+	 *             if some activity has no blocking keys
+	 * @throws IllegalStateException
+	 *             if the generator was already used
+	 */
+	public Iterator<ActivityGroup<E>> group(Iterator<E> activities) throws IOException {
+		if (path != null)
+			throw new IllegalStateException("Generator already used.");
+		Files.createDirectories(dir);
+		path = Files.createTempFile(dir, "activities", ".spill");
+
+		final Path[] keys = new Path[partitions];
+		boolean grouped = false;
+		try {
+			for (int p = 0; p < partitions; p++)
+				keys[p] = Files.createTempFile(dir, "keys", ".spill");
+			spill(activities, keys);
+			store = FileChannel.open(path, StandardOpenOption.READ);
+			for (int p = 0; p < partitions; p++)
+				group(keys[p]);
+			grouped = true;
+		} finally {
+			for (Path key : keys)
+				if (key != null)
+					Files.deleteIfExists(key);
+			if (!grouped)
+				close();
+		}
+
+		// chain the members of each group, by their representative
+		final int[] head = new int[size], next = new int[size];
+		Arrays.fill(head, -1);
+		for (int i = size - 1; i >= 0; i--) {
+			final int root = find(i);
+			next[i] = head[root];
+			head[root] = i;
+		}
+		return new Iterator<ActivityGroup<E>>() {
+			private int root = advance(0);
+
+			private int advance(int from) {
+				while (from < size && head[from] < 0)
+					from++;
+				return from;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return root < size;
+			}
+
+			@Override
+			public ActivityGroup<E> next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				try {
+					ActivityGroup<E> group = null;
+					for (int i = head[root]; i >= 0; i = next[i]) {
+						if (group == null)
+							group = new ActivityGroup<E>(read(i));
+						else
+							group.add(read(i));
+					}
+					root = advance(root + 1);
+					return group;
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Discards the spilled activities.
+	 *
+	 * @throws IOException
+	 *             if the store cannot be discarded
+	 */
+	@Override
+	public void close() throws IOException {
+		if (store != null)
+			store.close();
+		if (path != null)
+			Files.deleteIfExists(path);
+	}
+
+	/**
+	 * Spills the activities to the store and their blocking keys to the
+	 * partitions.
+	 */
+	private void spill(Iterator<E> activities, Path[] keys) throws IOException {
+		final List<DataOutputStream> outs = new ArrayList<DataOutputStream>(partitions);
+		final CountingOutputStream counter = new CountingOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(path)));
+		try (ObjectOutputStream out = new ObjectOutputStream(counter)) {
+			for (int p = 0; p < partitions; p++)
+				outs.add(new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(keys[p]))));
+			while (activities.hasNext()) {
+				final E act = activities.next();
+				final Collection<String> ks = comparator.blockingKeys(act, comparator.features(act));
+				if (ks == null)
+					throw new IllegalArgumentException("Activity without blocking keys.");
+
+				if (size + 1 == offsets.length) {
+					offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+					parent = Arrays.copyOf(parent, offsets.length);
+				}
+				parent[size] = size;
+				// each activity is written anew, so that it can be read from its offset
+				offsets[size] = counter.count;
+				out.writeObject(act);
+				out.reset();
+				out.flush();
+
+				for (String key : ks) {
+					final DataOutputStream pout = outs.get(Math.floorMod(key.hashCode(), partitions));
+					pout.writeUTF(key);
+					pout.writeInt(size);
+				}
+				size++;
+			}
+			offsets[size] = counter.count;
+		} finally {
+			for (DataOutputStream out : outs)
+				out.close();
+		}
+	}
+
+	/**
+	 * Groups the activities of a partition, merging the groups of those that
+	 * match, and discards the partition. The activities of each block are
+	 * ascending, so each pair is keyed by the lesser activity first.
+	 */
+	private void group(Path partition) throws IOException {
+		final Map<String, List<Integer>> blocks = new HashMap<String, List<Integer>>();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(partition)))) {
+			while (true) {
+				final String key;
+				try {
+					key = in.readUTF();
+				} catch (EOFException e) {
+					break;
+				}
+				final int id = in.readInt();
+				List<Integer> block = blocks.get(key);
+				if (block == null) {
+					block = new ArrayList<Integer>();
+					blocks.put(key, block);
+				}
+				if (block.isEmpty() || block.get(block.size() - 1) != id)
+					block.add(id);
+			}
+		}
+		Files.delete(partition);
+
+		final Map<Integer, Object> features = new HashMap<Integer, Object>();
+		final Set<Long> compared = new HashSet<Long>();
+		for (List<Integer> block : blocks.values()) {
+			for (int c = 1; c < block.size(); c++) {
+				final int i = block.get(c);
+				for (int d = 0; d < c; d++) {
+					final int j = block.get(d);
+					// pairs sharing several keys are compared once, unless already merged
+					if (find(j) != find(i) && compared.add((long) j << 32 | i)
+							&& comparator.matchesFeatures(features(features, j), features(features, i)))
+						union(j, i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Retrieves the features of an activity of the partition being grouped,
+	 * reading it from the store on first access.
+	 */
+	private Object features(Map<Integer, Object> features, int id) throws IOException {
+		Object f = features.get(id);
+		if (f == null) {
+			f = comparator.features(read(id));
+			features.put(id, f);
+		}
+		return f;
+	}
+
+	/**
+	 * Reads an activity from the store.
+	 */
+	@SuppressWarnings("unchecked")
+	private E read(int id) throws IOException {
+		// the activity is preceded by the header of the stream
+		final ByteBuffer record = ByteBuffer.allocate(4 + (int) (offsets[id + 1] - offsets[id]));
+		record.putShort(ObjectStreamConstants.STREAM_MAGIC);
+		record.putShort(ObjectStreamConstants.STREAM_VERSION);
+		while (record.hasRemaining())
+			if (store.read(record, offsets[id] + record.position() - 4) < 0)
+				throw new EOFException();
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(record.array()))) {
+			return (E) in.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * An output stream that counts the bytes written, to determine the
+	 * offsets of the activities in the store. Flushes are not propagated, so
+	 * that the serialization stream can be drained after each activity
+	 * without forcing the buffered store to disk.
+	 */
+	private static final class CountingOutputStream extends FilterOutputStream {
+		long count;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+
+		@Override
+		public void flush() {
+		}
+	}
+
+	/**
+	 * Finds the representative of the group of an activity, the least
+	 * activity of the group, compressing the path to it.
+	 */
+	private int find(int i) {
+		int root = i;
+		while (parent[root] != root)
+			root = parent[root];
+		while (parent[i] != root) {
+			final int next = parent[i];
+			parent[i] = root;
+			i = next;
+		}
+		return root;
+	}
+
+	/**
+	 * Merges the groups of two activities, linking the greater representative
+	 * to the lesser.
+	 */
+	private void union(int i, int j) {
+		final int ri = find(i), rj = find(j);
+		if (ri != rj)
+			parent[Math.max(ri, rj)] = Math.min(ri, rj);
+	}
+
+}
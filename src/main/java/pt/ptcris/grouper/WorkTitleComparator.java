@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.grouper;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import org.um.dsi.gavea.orcid.model.work.Work;
+
+/**
+ * <p>
+ * A work comparator that matches works with similar titles, for instance
+ * near-duplicate records of a publication collected from distinct sources.
+ * The similarity metric is the Jaccard similarity (as a percentage) between
+ * the sets of character shingles of the normalized titles, and works whose
+ * publication years are known and differ never match.
+ * </p>
+ *
+ * <p>
+ * To avoid comparing every pair of works, the
+ * {@link #blockingKeys(Work) blocking keys} are the bands of a MinHash
+ * signature of the shingles (locality-sensitive hashing): works whose
+ * similarity is above the threshold share a band with high probability, so
+ * only those are compared. This is an approximation, a matching pair may
+ * share no band with a small probability, that decreases with the number of
+ * bands and increases with the number of rows per band. The defaults (32
+ * bands of 4 rows) miss pairs with 80% similarity with probability below
+ * 10<sup>-7</sup>.
+ * </p>
+ *
+ * <p>
+ * The shingles and signatures are the {@link #prepare(Work) features} of the
+ * works, prepared once per work by the generators.
+ * </p>
+ */
+public class WorkTitleComparator extends FeatureComparator<Work, WorkTitleComparator.Features> {
+
+	private static final int SHINGLE = 3;
+
+	/**
+	 * The features of a work relevant to the comparison, namely the
+	 * publication year and the shingles and signature of the title.
+	 */
+	public static final class Features {
+		private final String year;
+		private final int[] shingles;
+		private final int[] signature;
+
+		private Features(String year, int[] shingles, int[] signature) {
+			this.year = year;
+			this.shingles = shingles;
+			this.signature = signature;
+		}
+	}
+
+	private final int threshold;
+	private final int bands;
+	private final int rows;
+	private final int[] seeds;
+
+	/**
+	 * Creates a title comparator with a threshold of 80% similarity and the
+	 * default number of bands and rows.
+	 */
+	public WorkTitleComparator() {
+		this(80, 32, 4);
+	}
+
+	/**
+	 * Creates a title comparator.
+	 *
+	 * @param threshold
+	 *            the similarity threshold, as a percentage
+	 * @param bands
+	 *            the number of bands of the signatures
+	 * @param rows
+	 *            the number of rows of each band
+	 * @throws IllegalArgumentException
+	 *             if the threshold is not between 1 and 100 or the bands or
+	 *             rows are not positive
+	 */
+	public WorkTitleComparator(int threshold, int bands, int rows) {
+		if (threshold < 1 || threshold > 100 || bands < 1 || rows < 1)
+			throw new IllegalArgumentException("Invalid arguments.");
+		this.threshold = threshold;
+		this.bands = bands;
+		this.rows = rows;
+		this.seeds = new int[bands * rows];
+		// fixed seeds, so that signatures are reproducible
+		final Random random = new Random(0x5eedL);
+		for (int i = 0; i < seeds.length; i++)
+			seeds[i] = random.nextInt();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int threshold() {
+		return threshold;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public float compareFeatures(Features f1, Features f2) {
+		if (f1.year != null && f2.year != null && !f1.year.equals(f2.year))
+			return 0;
+		if (f1.shingles.length == 0 || f2.shingles.length == 0)
+			return 0;
+
+		int same = 0;
+		for (int i = 0, j = 0; i < f1.shingles.length && j < f2.shingles.length;) {
+			if (f1.shingles[i] < f2.shingles[j])
+				i++;
+			else if (f1.shingles[i] > f2.shingles[j])
+				j++;
+			else {
+				same++;
+				i++;
+				j++;
+			}
+		}
+		return 100f * same / (f1.shingles.length + f2.shingles.length - same);
+	}
+
+	/**
+	 * {@inheritDoc} The keys are the bands of the MinHash signature of the
+	 * title. Works without title have no keys, and match no other work.
+	 */
+	@Override
+	public Collection<String> blockingKeysFeatures(Features f) {
+		final List<String> res = new ArrayList<String>(f.signature.length == 0 ? 0 : bands);
+		for (int b = 0; b < bands && f.signature.length > 0; b++) {
+			int h = b;
+			for (int r = 0; r < rows; r++)
+				h = 31 * h + f.signature[b * rows + r];
+			res.add(b + ":" + Integer.toHexString(h));
+		}
+		return res;
+	}
+
+	/**
+	 * {@inheritDoc} The features are the publication year and the shingles
+	 * of the normalized title along with their MinHash signature.
+	 */
+	@Override
+	public Features prepare(Work act) {
+		final int[] shingles = shingles(title(act));
+		final int[] signature = new int[shingles.length == 0 ? 0 : seeds.length];
+		for (int i = 0; i < signature.length; i++) {
+			int min = Integer.MAX_VALUE;
+			for (int s : shingles)
+				min = Math.min(min, mix(s ^ seeds[i]));
+			signature[i] = min;
+		}
+		return new Features(year(act), shingles, signature);
+	}
+
+	/**
+	 * The sorted hashes of the character shingles of a normalized title,
+	 * without duplicates.
+	 */
+	private static int[] shingles(String title) {
+		final String norm = Normalizer.normalize(title, Normalizer.Form.NFD).replaceAll("\\p{M}", "")
+				.toLowerCase().replaceAll("[^\\p{L}\\p{N}]+", " ").trim();
+		if (norm.isEmpty())
+			return new int[0];
+		final int n = Math.max(norm.length() - SHINGLE + 1, 1);
+		final int[] res = new int[n];
+		for (int i = 0; i < n; i++)
+			res[i] = norm.substring(i, Math.min(i + SHINGLE, norm.length())).hashCode();
+		Arrays.sort(res);
+		int k = 0;
+		for (int i = 0; i < n; i++)
+			if (i == 0 || res[i] != res[i - 1])
+				res[k++] = res[i];
+		return Arrays.copyOf(res, k);
+	}
+
+	/**
+	 * Mixes the bits of a hash (the finalizer of MurmurHash3).
+	 */
+	private static int mix(int h) {
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	private static String title(Work work) {
+		if (work.getTitle() == null || work.getTitle().getTitle() == null)
+			return "";
+		return work.getTitle().getTitle();
+	}
+
+	private static String year(Work work) {
+		if (work.getPublicationDate() == null || work.getPublicationDate().getYear() == null)
+			return null;
+		return String.valueOf(work.getPublicationDate().getYear().getValue());
+	}
+
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.handlers;
+
+import java.math.BigInteger;
+
+import org.um.dsi.gavea.orcid.model.common.ElementSummary;
+
+import pt.ptcris.PTCRISyncResult;
+
+/**
+ * Interface that receives the outcome of each local activity during an export
+ * procedure, as soon as it is known, rather than only when the whole
+ * procedure finishes. Allows the CRIS to persist the assigned put-codes
+ * incrementally.
+ *
+ * @param <E>
+ *            the type of the exported activities
+ */
+public interface ExportListener<E extends ElementSummary> {
+
+	/**
+	 * Receives the final outcome of a local activity. Called once for each
+	 * local key reported in the result of the export procedure, from the
+	 * thread running the procedure or, if multi-threaded, from the worker
+	 * threads, but never concurrently.
+	 *
+	 * @param key
+	 *            the local key of the activity
+	 * @param result
+	 *            the outcome of the synchronization of the activity
+	 */
+	public void result(BigInteger key, PTCRISyncResult<E> result);
+
+}
@@ -0,0 +1,416 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import pt.ptcris.PTCRISyncResult;
+
+/**
+ * <p>
+ * An append-only journal of the mutations performed on ORCID profiles by the
+ * export procedures, so that a procedure interrupted by a crash can be
+ * resumed. Each export of an ORCID profile is journaled in its own file,
+ * where the intent of each mutation is recorded before it is sent to ORCID
+ * and its outcome after, and that is discarded once the procedure finishes.
+ * </p>
+ *
+ * <p>
+ * A journal found when an export begins was left by an interrupted one, and
+ * is recovered (see {@link Recovery}): the state of the ORCID profile is
+ * uncertain, so cached summaries must not be trusted, and the put-codes
+ * assigned to activities added by the interrupted export, which the CRIS
+ * never received, are known.
+ * </p>
+ *
+ * <p>
+ * Records are forced to disk in batches. The start of an export is always
+ * forced, so that it is known to have been interrupted, but the outcome of
+ * the last mutations before a crash may be lost.
+ * </p>
+ */
+public final class ExportJournal implements Closeable {
+
+	private static final String SUFFIX = ".journal";
+
+	private static final byte BEGIN = 1;
+	private static final byte INTENT = 2;
+	private static final byte DONE = 3;
+
+	/** An addition, identified by the local key of the activity. */
+	public static final byte ADD = 1;
+	/** An update, identified by the put-code of the remote activity. */
+	public static final byte UPDATE = 2;
+	/** A deletion, identified by the put-code of the remote activity. */
+	public static final byte DELETE = 3;
+
+	/**
+	 * The header of a record: length, checksum, kind and timestamp.
+	 */
+	private static final int HEADER = 4 + 4 + 1 + 8;
+
+	/**
+	 * What is known about the mutations of interrupted exports of an ORCID
+	 * profile.
+	 */
+	public static final class Recovery {
+
+		/** The put-codes assigned to the added activities, by local key. */
+		public final Map<BigInteger, BigInteger> adds;
+		/** The number of mutations whose outcome is unknown. */
+		public final int pending;
+
+		private Recovery(Map<BigInteger, BigInteger> adds, int pending) {
+			this.adds = Collections.unmodifiableMap(adds);
+			this.pending = pending;
+		}
+	}
+
+	/**
+	 * The journal of an export in progress.
+	 */
+	private static final class Run {
+		final FileChannel channel;
+		long size;
+		int unforced;
+
+		Run(FileChannel channel, long size) {
+			this.channel = channel;
+			this.size = size;
+		}
+	}
+
+	private final Path dir;
+	private final int syncEvery;
+	private final Map<String, Run> runs = new HashMap<String, Run>();
+
+	/**
+	 * Opens (or creates) an export journal at the given directory.
+	 *
+	 * @param dir
+	 *            the directory where the journals are kept
+	 * @param syncEvery
+	 *            the number of records after which they are forced to disk
+	 * @throws IOException
+	 *             if the directory cannot be created
+	 */
+	public ExportJournal(Path dir, int syncEvery) throws IOException {
+		if (dir == null || syncEvery < 1)
+			throw new IllegalArgumentException("Invalid arguments.");
+		this.dir = dir;
+		this.syncEvery = syncEvery;
+		Files.createDirectories(dir);
+	}
+
+	/**
+	 * Begins journaling an export of an ORCID profile, recovering the journal
+	 * of any interrupted one. The records of interrupted exports are kept
+	 * until this one finishes, so that they survive repeated crashes.
+	 *
+	 * @param orcid
+	 *            the ORCID iD of the profile
+	 * @param name
+	 *            the name of the exported activities
+	 * @return what is known about interrupted exports, null if none
+	 * @throws IOException
+	 *             if the journal cannot be read or written
+	 */
+	public synchronized Recovery begin(String orcid, String name) throws IOException {
+		final String key = key(orcid, name);
+		final Run previous = runs.remove(key);
+		if (previous != null)
+			previous.channel.close();
+
+		final FileChannel channel = FileChannel.open(dir.resolve(key + SUFFIX), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		final Run run = new Run(channel, 0);
+		final Recovery recovery = recover(run);
+		runs.put(key, run);
+		append(run, BEGIN, new byte[0]);
+		force(run);
+		return recovery;
+	}
+
+	/**
+	 * Records the intent of performing a mutation.
+	 *
+	 * @param orcid
+	 *            the ORCID iD of the profile
+	 * @param name
+	 *            the name of the exported activities
+	 * @param op
+	 *            the kind of mutation
+	 * @param target
+	 *            the local key of an added activity, or the put-code of an
+	 *            updated or deleted one
+	 * @throws IOException
+	 *             if the journal cannot be written
+	 * @throws IllegalArgumentException
+	 *             if the target is null
+	 */
+	public synchronized void intent(String orcid, String name, byte op, BigInteger target) throws IOException {
+		if (target == null)
+			throw new IllegalArgumentException("Null target.");
+		final Run run = runs.get(key(orcid, name));
+		if (run == null)
+			return;
+		final ByteBuffer payload = ByteBuffer.allocate(1 + size(target));
+		payload.put(op);
+		putInteger(payload, target);
+		append(run, INTENT, payload.array());
+	}
+
+	/**
+	 * Records the outcome of a mutation.
+	 *
+	 * @param orcid
+	 *            the ORCID iD of the profile
+	 * @param name
+	 *            the name of the exported activities
+	 * @param op
+	 *            the kind of mutation
+	 * @param target
+	 *            the local key of an added activity, or the put-code of an
+	 *            updated or deleted one
+	 * @param code
+	 *            the outcome code of the mutation
+	 * @param putcode
+	 *            the put-code assigned to an added activity, null otherwise
+	 * @throws IOException
+	 *             if the journal cannot be written
+	 * @throws IllegalArgumentException
+	 *             if the target is null
+	 */
+	public synchronized void done(String orcid, String name, byte op, BigInteger target, int code,
+			BigInteger putcode) throws IOException {
+		if (target == null)
+			throw new IllegalArgumentException("Null target.");
+		final Run run = runs.get(key(orcid, name));
+		if (run == null)
+			return;
+		final ByteBuffer payload = ByteBuffer.allocate(1 + size(target) + 4 + size(putcode));
+		payload.put(op);
+		putInteger(payload, target);
+		payload.putInt(code);
+		putInteger(payload, putcode);
+		append(run, DONE, payload.array());
+	}
+
+	/**
+	 * Finishes journaling an export of an ORCID profile, discarding its
+	 * journal along with those of interrupted exports.
+	 *
+	 * @param orcid
+	 *            the ORCID iD of the profile
+	 * @param name
+	 *            the name of the exported activities
+	 * @throws IOException
+	 *             if the journal cannot be discarded
+	 */
+	public synchronized void end(String orcid, String name) throws IOException {
+		final String key = key(orcid, name);
+		final Run run = runs.remove(key);
+		if (run == null)
+			return;
+		run.channel.close();
+		Files.deleteIfExists(dir.resolve(key + SUFFIX));
+	}
+
+	/**
+	 * Stops journaling an export of an ORCID profile that did not finish,
+	 * forcing its pending records to disk and keeping its journal, which is
+	 * recovered when an export begins again.
+	 *
+	 * @param orcid
+	 *            the ORCID iD of the profile
+	 * @param name
+	 *            the name of the exported activities
+	 * @throws IOException
+	 *             if the journal cannot be closed
+	 */
+	public synchronized void release(String orcid, String name) throws IOException {
+		final Run run = runs.remove(key(orcid, name));
+		if (run == null)
+			return;
+		try {
+			force(run);
+		} finally {
+			run.channel.close();
+		}
+	}
+
+	/**
+	 * Tests whether an export of an ORCID profile was interrupted or is in
+	 * progress, i.e., whether its journal exists.
+	 *
+	 * @param orcid
+	 *            the ORCID iD of the profile
+	 * @param name
+	 *            the name of the exported activities
+	 * @return whether there is a journal for the profile
+	 * @throws IOException
+	 *             if the journal cannot be accessed
+	 */
+	public synchronized boolean interrupted(String orcid, String name) throws IOException {
+		final String key = key(orcid, name);
+		final Path path = dir.resolve(key + SUFFIX);
+		return runs.containsKey(key) || (Files.exists(path) && Files.size(path) > 0);
+	}
+
+	/**
+	 * Forces pending records to disk and closes the journals in progress,
+	 * which are recovered when their exports begin again.
+	 *
+	 * @throws IOException
+	 *             if the journals cannot be closed
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		for (Run run : runs.values()) {
+			force(run);
+			run.channel.close();
+		}
+		runs.clear();
+	}
+
+	/**
+	 * Reads an existing journal, truncating any incomplete or corrupted tail
+	 * left by a crash.
+	 */
+	private static Recovery recover(Run run) throws IOException {
+		final long length = run.channel.size();
+		final Map<BigInteger, BigInteger> adds = new LinkedHashMap<BigInteger, BigInteger>();
+		final Set<String> pending = new HashSet<String>();
+		final ByteBuffer header = ByteBuffer.allocate(8);
+		long pos = 0;
+		while (pos + HEADER <= length) {
+			header.clear();
+			run.channel.read(header, pos);
+			header.flip();
+			final int recordLength = header.getInt();
+			final int crc = header.getInt();
+			if (recordLength < HEADER || pos + recordLength > length)
+				break;
+			final ByteBuffer record = ByteBuffer.allocate(recordLength - 8);
+			run.channel.read(record, pos + 8);
+			record.flip();
+			final CRC32 check = new CRC32();
+			check.update(record.duplicate());
+			if ((int) check.getValue() != crc)
+				break;
+			try {
+				final byte kind = record.get();
+				record.getLong();
+				if (kind == INTENT || kind == DONE) {
+					final byte op = record.get();
+					final BigInteger target = getInteger(record);
+					if (kind == INTENT)
+						pending.add(op + ":" + target);
+					else {
+						pending.remove(op + ":" + target);
+						final int code = record.getInt();
+						final BigInteger putcode = getInteger(record);
+						if (op == ADD && code == PTCRISyncResult.ADDOK && putcode != null)
+							adds.put(target, putcode);
+					}
+				}
+			} catch (BufferUnderflowException e) {
+				break;
+			}
+			pos += recordLength;
+		}
+		if (pos < length)
+			run.channel.truncate(pos);
+		run.size = pos;
+		if (pos == 0)
+			return null;
+		return new Recovery(adds, pending.size());
+	}
+
+	/**
+	 * Appends a record to a journal, forcing the pending records to disk once
+	 * a batch is complete.
+	 */
+	private void append(Run run, byte kind, byte[] payload) throws IOException {
+		final int recordLength = HEADER + payload.length;
+		final ByteBuffer record = ByteBuffer.allocate(recordLength);
+		record.putInt(recordLength);
+		record.putInt(0);
+		record.put(kind);
+		record.putLong(System.currentTimeMillis());
+		record.put(payload);
+		final CRC32 check = new CRC32();
+		check.update(record.array(), 8, recordLength - 8);
+		record.putInt(4, (int) check.getValue());
+		record.flip();
+		long pos = run.size;
+		while (record.hasRemaining())
+			pos += run.channel.write(record, pos);
+		run.size = pos;
+		if (++run.unforced >= syncEvery)
+			force(run);
+	}
+
+	private static void force(Run run) throws IOException {
+		run.channel.force(false);
+		run.unforced = 0;
+	}
+
+	/**
+	 * The number of bytes of an encoded integer: its length followed by its
+	 * two's-complement representation.
+	 */
+	private static int size(BigInteger value) {
+		return 4 + (value == null ? 0 : value.bitLength() / 8 + 1);
+	}
+
+	private static void putInteger(ByteBuffer buffer, BigInteger value) {
+		if (value == null) {
+			buffer.putInt(0);
+			return;
+		}
+		final byte[] bytes = value.toByteArray();
+		buffer.putInt(bytes.length);
+		buffer.put(bytes);
+	}
+
+	private static BigInteger getInteger(ByteBuffer buffer) {
+		final int length = buffer.getInt();
+		if (length == 0)
+			return null;
+		if (length < 0 || length > buffer.remaining())
+			throw new BufferUnderflowException();
+		final byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new BigInteger(bytes);
+	}
+
+	private static String key(String orcid, String name) {
+		if (orcid == null || name == null)
+			throw new IllegalArgumentException("Null key.");
+		return orcid + "." + name;
+	}
+
+}
@@ -23,6 +23,10 @@ import pt.ptcris.handlers.ProgressHandler;
 /**
  * A worker thread that can be used to ADD works from ORCID.
  *
+ * Calls the ORCID client directly, so the summaries cached by an
+ * {@link ORCIDHelper} are not patched with the added work and must be
+ * retrieved again.
+ *
  * @see ORCIDWorker
  */
 @Deprecated
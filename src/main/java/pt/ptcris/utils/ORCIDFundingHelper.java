@@ -9,6 +9,7 @@
  */
 package pt.ptcris.utils;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
@@ -38,11 +39,11 @@ import pt.ptcris.handlers.ProgressHandler;
  */
 public final class ORCIDFundingHelper extends ORCIDHelper<Funding, FundingSummary, FundingGroup, FundingType> {
 	
+	// null until the summaries are retrieved, so that empty profiles are cached
 	protected List<FundingGroup> fundingGroupCache;
 	
 	public ORCIDFundingHelper(ORCIDClient orcidClient) {
 		super(orcidClient,0,0, false);
-		this.fundingGroupCache = new ArrayList<>();
 	}
 	/**
 	 * Initializes the helper with a given ORCID client.
@@ -52,7 +53,6 @@ public final class ORCIDFundingHelper extends ORCIDHelper<Funding, FundingSummar
 	 */
 	public ORCIDFundingHelper(ORCIDClient orcidClient, boolean useCache) {
 		super(orcidClient,0,0, useCache);
-		this.fundingGroupCache = new ArrayList<>();
 	}
 	
 	/*
@@ -63,15 +63,65 @@ public final class ORCIDFundingHelper extends ORCIDHelper<Funding, FundingSummar
 	@Override
 	protected List<FundingGroup> getSummariesClient() throws OrcidClientException {
 		assert client != null;
-		if (useCache && !fundingGroupCache.isEmpty()) {
+		final List<FundingGroup> cached = getCachedGroups();
+		if (cached != null) {
 			_log.debug("cache used on [getFundingSummaries] "+client.getUserId());
-			return fundingGroupCache;
+			return cached;
+		}
+		final List<FundingGroup> stored = loadSnapshot();
+		if (stored != null) {
+			_log.debug("store used on [getFundingSummaries] "+client.getUserId());
+			setCachedGroups(stored);
+			return stored;
 		}
 		_log.debug("[getFundingSummaries] "+client.getUserId());
-		fundingGroupCache = client.getFundingsSummary().getGroup();
+		final List<FundingGroup> fetched = fetchSummaries(() -> client.getFundingsSummary().getGroup());
+		setCachedGroups(fetched);
+		return fetched;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected synchronized List<FundingGroup> getCachedGroups() {
+		if (!useCache)
+			return null;
 		return fundingGroupCache;
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	protected synchronized void setCachedGroups(List<FundingGroup> groups) {
+		fundingGroupCache = groups;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected String getSnapshotName() {
+		return "fundings";
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected byte[] writeSnapshot(List<FundingGroup> groups) {
+		return ORCIDSnapshot.writeFundingGroups(groups);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected List<FundingGroup> readSnapshot(ByteBuffer snapshot) {
+		return ORCIDSnapshot.readFundingGroups(snapshot);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected FundingGroup createGroup(List<FundingSummary> summaries, ExternalIds eids) {
+		assert summaries != null && !summaries.isEmpty();
+		final FundingGroup group = new FundingGroup();
+		group.getFundingSummary().addAll(summaries);
+		group.setExternalIds(eids);
+		return group;
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	protected PTCRISyncResult<Funding> readClient(FundingSummary summary) {
@@ -219,6 +269,15 @@ public final class ORCIDFundingHelper extends ORCIDHelper<Funding, FundingSummar
 		assert group != null;
 		return group.getFundingSummary();
 	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected ExternalIds getGroupExternalIds(FundingGroup group) {
+		assert group != null;
+		if (group.getExternalIds() == null)
+			return new ExternalIds(new ArrayList<ExternalId>());
+		return group.getExternalIds();
+	}
 	
 	/** {@inheritDoc} */
 	@Override
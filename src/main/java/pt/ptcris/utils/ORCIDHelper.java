@@ -9,18 +9,32 @@
  */
 package pt.ptcris.utils;
 
+import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ObjIntConsumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,6 +48,7 @@ import org.um.dsi.gavea.orcid.model.common.ExternalIds;
 import org.um.dsi.gavea.orcid.model.common.FundingType;
 import org.um.dsi.gavea.orcid.model.common.FuzzyDate;
 import org.um.dsi.gavea.orcid.model.common.Relationship;
+import org.um.dsi.gavea.orcid.model.common.Source;
 import org.um.dsi.gavea.orcid.model.common.WorkType;
 import org.um.dsi.gavea.orcid.model.funding.Funding;
 import org.um.dsi.gavea.orcid.model.funding.FundingSummary;
@@ -110,6 +125,14 @@ public abstract class ORCIDHelper<E extends ElementSummary, S extends ElementSum
 	ExecutorService executor;
 	
 	protected boolean useCache;
+
+	protected boolean intern;
+
+	private ProfileStore store;
+
+	private ExportJournal journal;
+	private ExportJournal.Recovery recovery;
+	private boolean journaling;
 	
 	public ORCIDHelper(ORCIDClient orcidClient, int bulk_size_add,
 			int bulk_size_get) {
@@ -132,6 +155,9 @@ public abstract class ORCIDHelper<E extends ElementSummary, S extends ElementSum
 	 *            number of activities per bulk add request
 	 * @param bulk_size_get
 	 *            number of activities per bulk get request
+	 * @param useCache
+	 *            whether the retrieved activity summaries should be cached and
+	 *            patched after each successful mutation
 	 */
 	public ORCIDHelper(ORCIDClient orcidClient, int bulk_size_add,
 			int bulk_size_get, boolean useCache) {
@@ -143,6 +169,158 @@ public abstract class ORCIDHelper<E extends ElementSummary, S extends ElementSum
 			executor = Executors.newFixedThreadPool(client.threads());
 	}
 
+	/**
+	 * Sets whether the low-cardinality strings of the ORCID records loaded by
+	 * the helper (external identifier types and sources) should be interned,
+	 * so that they are shared across the whole JVM rather than duplicated in
+	 * each record. Useful when many summaries are kept in memory.
+	 * 
+	 * @param intern
+	 *            whether to intern the strings of loaded records
+	 */
+	public final void setInterning(boolean intern) {
+		this.intern = intern;
+	}
+
+	/**
+	 * Sets a disk-backed store of profile snapshots from which the activity
+	 * summaries are read while fresh, falling back to the ORCID API otherwise.
+	 * Summaries retrieved from ORCID are written back to the store, and the
+	 * snapshot of the profile is invalidated after each successful mutation.
+	 * The store may be shared by the helpers of different profiles.
+	 * 
+	 * @param store
+	 *            the profile store, null to disable it
+	 */
+	public final void setProfileStore(ProfileStore store) {
+		this.store = store;
+	}
+
+	/**
+	 * Sets a journal where the mutations performed by the export procedures
+	 * are recorded, so that interrupted exports can be resumed (see
+	 * {@link #beginJournal(Collection)}). The journal may be shared by the
+	 * helpers of different profiles. Added activities are journaled by their
+	 * local keys, so the exported local activities must then have local keys.
+	 * 
+	 * @param journal
+	 *            the export journal, null to disable it
+	 */
+	public final void setExportJournal(ExportJournal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * Begins journaling the mutations of an export procedure, if a journal is
+	 * set. If an interrupted export is recovered, the state of the ORCID
+	 * profile is uncertain, so the cached summaries and the snapshot in the
+	 * profile store are discarded. Does nothing if already journaling.
+	 * Failures to access the journal are logged and ignored. Every call must
+	 * be followed by {@link #releaseJournal()}, even if the procedure fails.
+	 * 
+	 * @param locals
+	 *            the local activities being exported
+	 * @return what is known about interrupted exports, null if none or if no
+	 *         journal is set
+	 * @throws IllegalArgumentException
+	 *             if a journal is set and some local activity has no local
+	 *             key
+	 */
+	public final ExportJournal.Recovery beginJournal(Collection<E> locals) throws IllegalArgumentException {
+		if (journal == null || journaling)
+			return recovery;
+		for (E local : locals)
+			if (local.getPutCode() == null)
+				throw new IllegalArgumentException("Null local key.");
+		try {
+			recovery = journal.begin(client.getUserId(), getSnapshotName());
+			journaling = true;
+		} catch (IOException e) {
+			_log.warn("[beginJournal] " + client.getUserId() + ": " + e.getMessage());
+			recovery = null;
+		}
+		if (recovery != null) {
+			_log.debug("[beginJournal] resuming interrupted export of " + client.getUserId());
+			invalidateSnapshot();
+			setCachedGroups(null);
+		}
+		return recovery;
+	}
+
+	/**
+	 * Finishes journaling the mutations of an export procedure, discarding
+	 * the journal. Failures to access the journal are logged and ignored.
+	 */
+	public final void endJournal() {
+		if (journal == null || !journaling)
+			return;
+		try {
+			journal.end(client.getUserId(), getSnapshotName());
+		} catch (IOException e) {
+			_log.warn("[endJournal] " + client.getUserId() + ": " + e.getMessage());
+		}
+		journaling = false;
+		recovery = null;
+	}
+
+	/**
+	 * Stops journaling the mutations of an export procedure that did not
+	 * finish, keeping the journal so that the export is recovered when one
+	 * begins again. Does nothing if the journal was already finished.
+	 * Failures to access the journal are logged and ignored.
+	 */
+	public final void releaseJournal() {
+		if (journal == null || !journaling)
+			return;
+		try {
+			journal.release(client.getUserId(), getSnapshotName());
+		} catch (IOException e) {
+			_log.warn("[releaseJournal] " + client.getUserId() + ": " + e.getMessage());
+		}
+		journaling = false;
+		recovery = null;
+	}
+
+	/**
+	 * Discards the cached summaries and the snapshot in the profile store if
+	 * the journal holds an interrupted export, which will be recovered when
+	 * the next export begins. Export plans must be computed over the actual
+	 * state of the ORCID profile, so this must be called before planning
+	 * outside an export procedure.
+	 */
+	public final void checkJournal() {
+		if (journal == null || journaling)
+			return;
+		try {
+			if (!journal.interrupted(client.getUserId(), getSnapshotName()))
+				return;
+		} catch (IOException e) {
+			_log.warn("[checkJournal] " + client.getUserId() + ": " + e.getMessage());
+		}
+		invalidateSnapshot();
+		setCachedGroups(null);
+	}
+
+	private final void journalIntent(byte op, BigInteger target) {
+		if (!journaling)
+			return;
+		try {
+			journal.intent(client.getUserId(), getSnapshotName(), op, target);
+		} catch (IOException e) {
+			_log.warn("[journalIntent] " + client.getUserId() + ": " + e.getMessage());
+		}
+	}
+
+	private final void journalDone(byte op, BigInteger target, PTCRISyncResult<E> res) {
+		if (!journaling)
+			return;
+		try {
+			journal.done(client.getUserId(), getSnapshotName(), op, target, res.code, res.putcode);
+		} catch (IOException e) {
+			_log.warn("[journalDone] " + client.getUserId() + ": " + e.getMessage());
+		}
+	}
+
 	/*
 	 * Generic client methods to be instantiated for concrete ORCID activity
 	 * types.
@@ -157,6 +335,68 @@ public abstract class ORCIDHelper<E extends ElementSummary, S extends ElementSum
 	 */
 	abstract List<G> getSummariesClient() throws OrcidClientException;
 
+	/**
+	 * Retrieves the activity groups currently cached by the helper, if caching
+	 * is active and the summaries have already been retrieved from ORCID. An
+	 * empty list is a cached profile without activities. The returned list is
+	 * the cache itself and must not be modified, since it may be shared. The
+	 * cache is guarded by the monitor of the helper, as mutations may be
+	 * executed concurrently.
+	 * 
+	 * @return the cached ORCID activity groups, null if nothing is cached
+	 */
+	abstract List<G> getCachedGroups();
+
+	/**
+	 * Replaces the activity groups cached by the helper.
+	 * 
+	 * @param groups
+	 *            the ORCID activity groups to be cached, null to discard the
+	 *            cache so that the summaries are retrieved again
+	 */
+	abstract void setCachedGroups(List<G> groups);
+
+	/**
+	 * Creates an activity group from a set of activity summaries and the
+	 * external identifiers that caused them to be grouped. The first summary
+	 * is the preferred one.
+	 * 
+	 * @param summaries
+	 *            the ORCID activity summaries that compose the group
+	 * @param eids
+	 *            the external identifiers of the group
+	 * @return the resulting ORCID activity group
+	 */
+	abstract G createGroup(List<S> summaries, ExternalIds eids);
+
+	/**
+	 * The name under which the snapshots of the activity summaries are kept
+	 * in a {@link ProfileStore}.
+	 * 
+	 * @return the name of the snapshots
+	 */
+	abstract String getSnapshotName();
+
+	/**
+	 * Encodes activity groups as a snapshot (see {@link ORCIDSnapshot}).
+	 * 
+	 * @param groups
+	 *            the ORCID activity groups
+	 * @return the encoded snapshot
+	 */
+	abstract byte[] writeSnapshot(List<G> groups);
+
+	/**
+	 * Decodes activity groups from a snapshot (see {@link ORCIDSnapshot}).
+	 * 
+	 * @param snapshot
+	 *            the encoded snapshot
+	 * @return the ORCID activity groups
+	 * @throws IllegalArgumentException
+	 *             if the snapshot is invalid
+	 */
+	abstract List<G> readSnapshot(ByteBuffer snapshot) throws IllegalArgumentException;
+
 	/**
 	 * Retrieves through the ORCID client a single full activity for which the
 	 * summary is provided. If the communication with ORCID fails, the exception
@@ -266,41 +506,92 @@ public abstract class ORCIDHelper<E extends ElementSummary, S extends ElementSum
 	 */
 
 	/**
-	 * Retrieves the entire set of activity summaries from the set ORCID profile
-	 * that have at least an external identifier set. Merges each ORCID group
-	 * into a single summary, following {@link #group(Object)}.
-	 *
+	 * Retrieves the entire set of activity summaries of given types from the
+	 * set ORCID profile that have at least an external identifier set. Merges
+	 * each ORCID group into a single summary, following {@link #group(Object)}.
+	 * 
+	 * @param types
+	 *            the ORCID types of the activities to be retrieved (may be null)
 	 * @return the set of ORCID activity summaries in the defined ORCID profile
 	 * @throws OrcidClientException
 	 *             if the communication with ORCID fails
 	 */
-	private final List<S> getAllSummaries() throws OrcidClientException {
-		final List<S> fundSummaryList = new LinkedList<S>();
-		final List<G> fundGroupList = getSummariesClient();
-		for (G group : fundGroupList)
-			fundSummaryList.add(group(group));
-		return fundSummaryList;
+	public final List<S> getAllTypedSummaries(Collection<T> types) 
+			throws OrcidClientException {
+		return new ArrayList<S>(getLazyTypedSummaries(types));
 	}
 
 	/**
 	 * Retrieves the entire set of activity summaries of given types from the
-	 * set ORCID profile that have at least an external identifier set. Merges
-	 * each ORCID group into a single summary, following {@link #group(Object)}.
+	 * set ORCID profile, like {@link #getAllTypedSummaries(Collection)}, but
+	 * merges each ORCID group into a single summary only as it is iterated.
+	 * Thus, only the merged summary being processed is kept alive besides the
+	 * retrieved groups, rather than a merged copy of the whole profile. The
+	 * size of the collection is known upfront, but it is read-only and each
+	 * iteration creates new merged summaries.
 	 * 
 	 * @param types
 	 *            the ORCID types of the activities to be retrieved (may be null)
-	 * @return the set of ORCID activity summaries in the defined ORCID profile
+	 * @return a lazy view of the ORCID activity summaries in the defined ORCID
+	 *         profile
 	 * @throws OrcidClientException
 	 *             if the communication with ORCID fails
 	 */
-	public final List<S> getAllTypedSummaries(Collection<T> types) 
+	public final Collection<S> getLazyTypedSummaries(Collection<T> types)
 			throws OrcidClientException {
-		List<S> res = new ArrayList<S>();
-		if (types != null)
-			for (S r : getAllSummaries())
-				if (types.contains(getTypeS(r)))
-					res.add(r);
-		return res;
+		final List<G> groups = types == null ? new ArrayList<G>() : getSummariesClient();
+		int count = 0;
+		for (G group : groups)
+			if (isTyped(group, types))
+				count++;
+		final int size = count;
+
+		return new AbstractCollection<S>() {
+			@Override
+			public Iterator<S> iterator() {
+				final Iterator<G> it = groups.iterator();
+				return new Iterator<S>() {
+					private G next = advance();
+
+					private G advance() {
+						while (it.hasNext()) {
+							final G group = it.next();
+							if (isTyped(group, types))
+								return group;
+						}
+						return null;
+					}
+
+					@Override
+					public boolean hasNext() {
+						return next != null;
+					}
+
+					@Override
+					public S next() {
+						if (next == null)
+							throw new NoSuchElementException();
+						final G group = next;
+						next = advance();
+						return group(group);
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	/**
+	 * Tests whether the summary resulting from merging a group has one of the
+	 * given types, i.e., whether its preferred summary does.
+	 */
+	private final boolean isTyped(G group, Collection<T> types) {
+		final List<S> summaries = getGroupSummaries(group);
+		return !summaries.isEmpty() && types.contains(getTypeS(summaries.get(0)));
 	}
 
 	/**
@@ -363,7 +654,183 @@ public abstract class ORCIDHelper<E extends ElementSummary, S extends ElementSum
 		if (summaries == null || summaries.isEmpty())
 			return;
 
-		if (client.threads() > 1 && cb != null) {
+		dispatchFulls(summaries, cb, handler, null);
+		waitFulls(cb);
+	}
+
+	/**
+	 * Creates a pipeline that reads full ORCID activities while the summaries
+	 * to be read are still being selected, following
+	 * {@link #getFulls(List, Map, ProgressHandler)}. As soon as enough
+	 * summaries for a (bulk) request have been offered, the request is
+	 * performed, so that the callback map is filled incrementally. If the
+	 * number of threads is higher than 1, the request is dispatched to the
+	 * worker threads, so that retrieval overlaps with the selection of the
+	 * remaining summaries.
+	 * 
+	 * @param cb
+	 *            the callback object
+	 * @return the pipeline
+	 */
+	public final FullsPipeline pipelineFulls(Map<BigInteger, PTCRISyncResult<E>> cb) {
+		if (cb == null)
+			throw new IllegalArgumentException("Null callback map.");
+		return new FullsPipeline(cb);
+	}
+
+	/**
+	 * A pipeline of full ORCID activity reads, see {@link #pipelineFulls(Map)}.
+	 */
+	public final class FullsPipeline {
+		private final Map<BigInteger, PTCRISyncResult<E>> cb;
+		private List<S> pending = new ArrayList<S>();
+		private int dispatched = 0;
+		private int running = 0;
+		private volatile boolean cancelled = false;
+
+		/**
+		 * Counts the progress of the requests dispatched before {@link
+		 * #finish(ProgressHandler)}, to be reported then.
+		 */
+		private final AtomicInteger steps = new AtomicInteger();
+		private final ProgressHandler deferred = new ProgressHandler() {
+			@Override
+			@Deprecated
+			public void setProgress(int progress) {}
+
+			@Override
+			public void setCurrentStatus(String message) {}
+
+			@Override
+			public void setCurrentStatus(String message, int size) {}
+
+			@Override
+			public void sendError(String message) {}
+
+			@Override
+			public void done() {}
+
+			@Override
+			public void step() {
+				steps.incrementAndGet();
+			}
+
+			@Override
+			public void step(int step) {
+				steps.addAndGet(step);
+			}
+		};
+
+		private FullsPipeline(Map<BigInteger, PTCRISyncResult<E>> cb) {
+			this.cb = cb;
+		}
+
+		/**
+		 * Offers a summary whose full ORCID activity is to be read. May
+		 * perform a request, asynchronously if possible.
+		 * 
+		 * @param summary
+		 *            the ORCID activity summary representing a merged group
+		 */
+		public void offer(S summary) {
+			if (summary == null)
+				throw new IllegalArgumentException("Null summary.");
+			pending.add(summary);
+			if (pending.size() >= Math.max(bulk_size_get, 1)) {
+				dispatchFulls(pending, cb, deferred, this);
+				dispatched += pending.size();
+				pending = new ArrayList<S>();
+			}
+		}
+
+		/**
+		 * The number of summaries offered so far.
+		 * 
+		 * @return the number of offered summaries
+		 */
+		public int size() {
+			return dispatched + pending.size();
+		}
+
+		/**
+		 * Reads the remaining offered summaries and waits for every dispatched
+		 * request to finish.
+		 * 
+		 * @param handler
+		 *            the handler to report progress
+		 * @throws InterruptedException
+		 *             if the asynchronous GET process is interrupted
+		 */
+		public void finish(ProgressHandler handler) throws InterruptedException {
+			if (!pending.isEmpty())
+				dispatchFulls(pending, cb, handler, this);
+			pending = new ArrayList<S>();
+			waitFulls(cb);
+			if (handler != null && steps.get() > 0)
+				handler.step(steps.getAndSet(0));
+		}
+
+		/**
+		 * Cancels the dispatched requests that have not started yet. Requests
+		 * already being performed still report to the callback map.
+		 */
+		public void cancel() {
+			cancelled = true;
+		}
+
+		/**
+		 * Waits for every request dispatched by the pipeline to finish, even
+		 * those that outlived the timeout of
+		 * {@link #finish(ProgressHandler)}, so that nothing else is reported
+		 * to the callback map afterwards. The wait is not interruptible, but
+		 * the interrupt status is preserved.
+		 */
+		public synchronized void awaitTermination() {
+			boolean interrupted = false;
+			while (running > 0)
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+
+		/**
+		 * Wraps a worker so that the pipeline tracks whether it is running
+		 * and skips it if cancelled meanwhile.
+		 */
+		private synchronized Runnable track(ORCIDWorker<E> worker) {
+			running++;
+			return () -> {
+				try {
+					if (!cancelled)
+						worker.run();
+				} finally {
+					untrack();
+				}
+			};
+		}
+
+		private synchronized void untrack() {
+			if (--running == 0)
+				notifyAll();
+		}
+	}
+
+	/**
+	 * Reads full ORCID activities into a callback map, asynchronously if the
+	 * number of threads is higher than 1, without waiting for the workers. The
+	 * workers are tracked by the pipeline that dispatched them, if any.
+	 * 
+	 * @see #getFulls(List, Map, ProgressHandler)
+	 */
+	private final void dispatchFulls(List<S> summaries,
+			Map<BigInteger, PTCRISyncResult<E>> cb, ProgressHandler handler, FullsPipeline pipeline) {
+		assert summaries != null && cb != null;
+
+		if (client.threads() > 1) {
 			for (int i = 0; i < summaries.size();) {
 				if (bulk_size_get > 1) {
 					List<S> putcodes = new ArrayList<S>();
@@ -371,11 +838,9 @@ public abstract class ORCIDHelper<E extends ElementSummary, S extends ElementSum
 						putcodes.add(summaries.get(i));
 						i++;
 					}
-					final ORCIDWorker<E> worker = readWorker(putcodes, cb, handler);
-					executor.execute(worker);
+					execute(readWorker(putcodes, cb, handler), pipeline);
 				} else {
-					final ORCIDWorker<E> worker = readWorker(summaries.get(i), cb, handler);
-					executor.execute(worker);
+					execute(readWorker(summaries.get(i), cb, handler), pipeline);
 					i++;
 				}
 			}
@@ -399,7 +864,35 @@ public abstract class ORCIDHelper<E extends ElementSummary, S extends ElementSum
 			}
 			cb.putAll(fulls);
 		}
+	}
+
+	private final void execute(ORCIDWorker<E> worker, FullsPipeline pipeline) {
+		if (pipeline == null) {
+			executor.execute(worker);
+			return;
+		}
+		final Runnable tracked = pipeline.track(worker);
+		try {
+			executor.execute(tracked);
+		} catch (RuntimeException e) {
+			pipeline.untrack();
+			throw e;
+		}
+	}
+
+	/**
+	 * Waits for the dispatched reads of full ORCID activities to finish.
+	 * 
+	 * @see #getFulls(List, Map, ProgressHandler)
+	 */
+	private final void waitFulls(Map<BigInteger, PTCRISyncResult<E>> cb)
+			throws InterruptedException {
 		waitWorkers();
+
+		if (intern)
+			for (PTCRISyncResult<E> r : cb.values())
+				if (r.act != null)
+					intern(r.act, getNonNullExternalIdsE(r.act));
 	}
 
 	/**
@@ -420,7 +913,12 @@ public abstract class ORCIDHelper<E extends ElementSummary, S extends ElementSum
 		final E clone = cloneE(activity);
 		clone.setPutCode(null);
 
-		return addClient(clone);
+		journalIntent(ExportJournal.ADD, activity.getPutCode());
+		final PTCRISyncResult<E> res = addClient(clone);
+		journalDone(ExportJournal.ADD, activity.getPutCode(), res);
+		if (res.code == PTCRISyncResult.ADDOK && res.putcode != null)
+			patchCache(res.putcode, cachedSummary(res.putcode, clone));
+		return res;
 	}
 
 	/**
@@ -440,14 +938,23 @@ public abstract class ORCIDHelper<E extends ElementSummary, S extends ElementSum
 		assert activities != null;
 		
 		List<E> clones = new ArrayList<E>();
+		List<BigInteger> keys = new ArrayList<BigInteger>();
 		// remove any put-code otherwise ORCID will throw an error
 		for (E activity : activities) {
 			final E clone = cloneE(activity);
 			clone.setPutCode(null);
 			clones.add(clone);
+			keys.add(activity.getPutCode());
+			journalIntent(ExportJournal.ADD, activity.getPutCode());
 		}
 
-		return addClient(clones);
+		final List<PTCRISyncResult<E>> res = addClient(clones);
+		for (int i = 0; i < res.size() && i < keys.size(); i++)
+			journalDone(ExportJournal.ADD, keys.get(i), res.get(i));
+		for (int i = 0; i < res.size() && i < clones.size(); i++)
+			if (res.get(i).code == PTCRISyncResult.ADDOK && res.get(i).putcode != null)
+				patchCache(res.get(i).putcode, cachedSummary(res.get(i).putcode, clones.get(i)));
+		return res;
 	}
 
 	/**
@@ -465,7 +972,27 @@ public abstract class ORCIDHelper<E extends ElementSummary, S extends ElementSum
 	 * @return the results of the ORCID call for each input activity
 	 */
 	public final List<PTCRISyncResult<E>> add(List<E> activities, ProgressHandler handler) {
+		return add(activities, handler, null);
+	}
+
+	/**
+	 * Synchronously adds a list of activities to an ORCID profile, following
+	 * {@link #add(List, ProgressHandler)}, additionally reporting the result
+	 * for each activity as soon as the (bulk) call that added it completes.
+	 *
+	 * @param activities
+	 *            the new ORCID activities to be added
+	 * @param handler
+	 *            the handler to report progress
+	 * @param listener
+	 *            receives each result along with the index of the activity
+	 *            (may be null)
+	 * @return the results of the ORCID call for each input activity
+	 */
+	public final List<PTCRISyncResult<E>> add(List<E> activities, ProgressHandler handler,
+			ObjIntConsumer<PTCRISyncResult<E>> listener) {
 		List<PTCRISyncResult<E>> res = new ArrayList<PTCRISyncResult<E>>();
+		int reported = 0;
 		if (activities == null || activities.isEmpty())
 			return new ArrayList<PTCRISyncResult<E>>();
 		
@@ -484,14 +1011,33 @@ public abstract class ORCIDHelper<E extends ElementSummary, S extends ElementSum
 				if (handler!=null) handler.step();
 				c++;
 			}
+			if (listener != null)
+				for (; reported < res.size(); reported++)
+					listener.accept(res.get(reported), reported);
 		}
 		return res;
 	}
 
+	/**
+	 * The number of ORCID requests required to add a number of activities
+	 * through {@link #add(List, ProgressHandler)}, taking into consideration
+	 * bulk requests if available.
+	 * 
+	 * @param activities
+	 *            the number of activities to be added
+	 * @return the number of add requests
+	 */
+	public final int countAddRequests(int activities) {
+		if (bulk_size_add > 1 && activities > 1)
+			return (activities + bulk_size_add - 1) / bulk_size_add;
+		return activities;
+	}
+
 	/**
 	 * Synchronously updates an activity to an ORCID profile. If the
 	 * communication with ORCID fails, the exception is embedded in a failed
-	 * {@link PTCRISyncResult}.
+	 * {@link PTCRISyncResult}. If successful and caching is active, the cached
+	 * summary is replaced by the updated state.
 	 * 
 	 * @see #updateClient(BigInteger, ElementSummary)
 	 * 
@@ -509,13 +1055,19 @@ public abstract class ORCIDHelper<E extends ElementSummary, S extends ElementSum
 		// set the remote put-code
 		clone.setPutCode(remotePutcode);
 
-		return updateClient(remotePutcode, clone);
+		journalIntent(ExportJournal.UPDATE, remotePutcode);
+		final PTCRISyncResult<E> res = updateClient(remotePutcode, clone);
+		journalDone(ExportJournal.UPDATE, remotePutcode, res);
+		if (res.code == PTCRISyncResult.UPDATEOK)
+			patchCache(remotePutcode, cachedSummary(remotePutcode, clone));
+		return res;
 	}
 
 	/**
 	 * Synchronously deletes an activity from an ORCID profile. If the
 	 * communication with ORCID fails, the exception is embedded in a failed
-	 * {@link PTCRISyncResult}.
+	 * {@link PTCRISyncResult}. If successful and caching is active, the
+	 * summary is removed from the cache.
 	 * 
 	 * @see #deleteClient(BigInteger)
 	 * 
@@ -527,7 +1079,12 @@ public abstract class ORCIDHelper<E extends ElementSummary, S extends ElementSum
 		if (putcode == null)
 			throw new IllegalArgumentException("Can't delete null activity.");
 
-		return deleteClient(putcode);
+		journalIntent(ExportJournal.DELETE, putcode);
+		final PTCRISyncResult<E> res = deleteClient(putcode);
+		journalDone(ExportJournal.DELETE, putcode, res);
+		if (res.code == PTCRISyncResult.DELETEOK)
+			patchCache(putcode, null);
+		return res;
 	}
 
 	/**
@@ -545,6 +1102,266 @@ public abstract class ORCIDHelper<E extends ElementSummary, S extends ElementSum
 		}
 	}
 
+	/**
+	 * Retrieves the activity groups of the ORCID profile from ORCID, sharing
+	 * the request with any concurrent helper retrieving the same activity
+	 * type from the same profile through the same Member API client. The
+	 * retrieved groups are interned and written to the profile store, if
+	 * any. The groups are shared by every concurrent caller, so they must not
+	 * be modified; the cache is patched by copying (see
+	 * {@link #patchCache(BigInteger, ElementSummary)}).
+	 * 
+	 * @param fetch
+	 *            the request for the activity groups
+	 * @return the remote ORCID activity groups
+	 * @throws OrcidClientException
+	 *             if the communication with ORCID fails
+	 */
+	final List<G> fetchSummaries(SingleFlight.Fetch<List<G>> fetch) throws OrcidClientException {
+		assert fetch != null;
+		final String key = client.getClientId() + "/" + client.getUserId() + "/" + getSnapshotName();
+		final List<G> groups = SingleFlight.run(key, () -> {
+			final List<G> res = fetch.fetch();
+			intern(res);
+			storeSnapshot(res);
+			return res;
+		});
+		return new ArrayList<G>(groups);
+	}
+
+	/**
+	 * Reads the activity groups of the ORCID profile from the profile store,
+	 * if one is set and its snapshot is fresh. Failures to read the store are
+	 * logged and treated as misses.
+	 * 
+	 * @return the stored ORCID activity groups, null if unavailable
+	 */
+	final List<G> loadSnapshot() {
+		if (store == null)
+			return null;
+		try {
+			final ByteBuffer snapshot = store.get(client.getUserId(), getSnapshotName());
+			if (snapshot == null)
+				return null;
+			final List<G> groups = readSnapshot(snapshot);
+			intern(groups);
+			return groups;
+		} catch (IOException | IllegalArgumentException e) {
+			_log.warn("[loadSnapshot] " + client.getUserId() + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the activity groups of the ORCID profile to the profile store, if
+	 * one is set. Failures to write the store are logged and ignored.
+	 * 
+	 * @param groups
+	 *            the ORCID activity groups retrieved from ORCID
+	 */
+	final void storeSnapshot(List<G> groups) {
+		assert groups != null;
+		if (store == null)
+			return;
+		try {
+			store.put(client.getUserId(), getSnapshotName(), writeSnapshot(groups));
+		} catch (IOException | IllegalArgumentException e) {
+			_log.warn("[storeSnapshot] " + client.getUserId() + ": " + e.getMessage());
+		}
+	}
+
+	private final void invalidateSnapshot() {
+		if (store == null)
+			return;
+		try {
+			store.invalidate(client.getUserId(), getSnapshotName());
+		} catch (IOException e) {
+			_log.warn("[invalidateSnapshot] " + client.getUserId() + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Records in the profile store, if one is set, the classification of the
+	 * local activities resulting from a synchronization procedure, i.e., the
+	 * outcome code of each of them. Failures to write the store are logged and
+	 * ignored.
+	 * 
+	 * @param results
+	 *            the results of the synchronization, indexed by local key
+	 */
+	public final void storeClassification(Map<BigInteger, PTCRISyncResult<E>> results) {
+		if (results == null)
+			throw new IllegalArgumentException("Null arguments.");
+		if (store == null)
+			return;
+		final Map<BigInteger, Integer> codes = new LinkedHashMap<BigInteger, Integer>();
+		for (Map.Entry<BigInteger, PTCRISyncResult<E>> e : results.entrySet())
+			codes.put(e.getKey(), e.getValue().code);
+		try {
+			store.putClassification(client.getUserId(), getSnapshotName(), codes);
+		} catch (IOException e) {
+			_log.warn("[storeClassification] " + client.getUserId() + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Retrieves from the profile store, if one is set, the last known
+	 * classification of the local activities, i.e., the outcome code of each
+	 * of them in the last synchronization procedure.
+	 * 
+	 * @return the outcome codes indexed by local key, null if unknown
+	 */
+	public final Map<BigInteger, Integer> getLastClassification() {
+		if (store == null)
+			return null;
+		try {
+			return store.getClassification(client.getUserId(), getSnapshotName());
+		} catch (IOException e) {
+			_log.warn("[getLastClassification] " + client.getUserId() + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Patches the cached activity groups after a successful mutation, so that
+	 * subsequent cached reads reflect the current state of the ORCID profile
+	 * without re-fetching the summaries. The summary with the given put-code
+	 * is replaced by the new one (or removed, if null) and the affected groups
+	 * are re-grouped by shared self external identifiers, mimicking ORCID. The
+	 * patched groups replace the cache rather than modifying it, since cached
+	 * groups may be shared with concurrent helpers and readers. Does nothing
+	 * if caching is inactive or nothing has been cached yet. The snapshot in
+	 * the profile store, if any, is invalidated.
+	 * 
+	 * @param putcode
+	 *            the remote put-code of the mutated ORCID activity
+	 * @param summary
+	 *            the new state of the activity summary, null if deleted
+	 */
+	private final synchronized void patchCache(BigInteger putcode, S summary) {
+		assert putcode != null;
+
+		invalidateSnapshot();
+
+		final List<G> cached = getCachedGroups();
+		if (cached == null)
+			return;
+
+		final List<G> groups = new ArrayList<G>(cached);
+		final Set<String> keys = summary == null ? new HashSet<String>() : getSelfKeysS(summary);
+		final List<S> members = new ArrayList<S>();
+		boolean replaced = false;
+		for (Iterator<G> it = groups.iterator(); it.hasNext();) {
+			final List<S> summaries = getGroupSummaries(it.next());
+			boolean affected = false;
+			for (S s : summaries)
+				affected |= putcode.equals(s.getPutCode())
+						|| (!keys.isEmpty() && !Collections.disjoint(keys, getSelfKeysS(s)));
+			if (affected) {
+				for (S s : summaries) {
+					if (!putcode.equals(s.getPutCode()))
+						members.add(s);
+					else if (summary != null) {
+						members.add(summary);
+						replaced = true;
+					}
+				}
+				it.remove();
+			}
+		}
+		if (summary != null && !replaced)
+			members.add(summary);
+
+		// re-group the affected summaries by shared self identifiers
+		final List<List<S>> comps = new ArrayList<List<S>>();
+		final List<Set<String>> compKeys = new ArrayList<Set<String>>();
+		for (S s : members) {
+			final List<S> comp = new ArrayList<S>();
+			final Set<String> ks = getSelfKeysS(s);
+			for (int i = comps.size() - 1; i >= 0; i--)
+				if (!Collections.disjoint(compKeys.get(i), ks)) {
+					comp.addAll(0, comps.remove(i));
+					ks.addAll(compKeys.remove(i));
+				}
+			comp.add(s);
+			comps.add(comp);
+			compKeys.add(ks);
+		}
+		for (List<S> comp : comps) {
+			final Map<String, ExternalId> eids = new LinkedHashMap<String, ExternalId>();
+			for (S s : comp)
+				for (ExternalId eid : getSelfExternalIdsS(s).getExternalId())
+					if (!eids.containsKey(getKey(eid)))
+						eids.put(getKey(eid), clone(eid));
+			groups.add(createGroup(comp, new ExternalIds(new ArrayList<ExternalId>(eids.values()))));
+		}
+		setCachedGroups(groups);
+	}
+
+	/**
+	 * Builds the summary that represents in the cache an activity sourced by
+	 * the CRIS, as it was sent to ORCID.
+	 * 
+	 * @param putcode
+	 *            the remote put-code assigned to the ORCID activity
+	 * @param activity
+	 *            the ORCID activity as sent to ORCID
+	 * @return the corresponding ORCID activity summary
+	 */
+	private final S cachedSummary(BigInteger putcode, E activity) {
+		final S summary = summarize(activity);
+		summary.setPutCode(putcode);
+		setExternalIdsS(summary, new ExternalIds(new ArrayList<ExternalId>(
+				getNonNullExternalIdsS(summary).getExternalId())));
+		final ClientId clientId = new ClientId();
+		clientId.setUriPath(client.getClientId());
+		final Source source = new Source();
+		source.setSourceClientId(clientId);
+		summary.setSource(source);
+		if (intern)
+			intern(summary, getNonNullExternalIdsS(summary));
+		return summary;
+	}
+
+	/**
+	 * Interns the low-cardinality strings of a set of loaded activity groups,
+	 * if interning is active.
+	 * 
+	 * @see #setInterning(boolean)
+	 * 
+	 * @param groups
+	 *            the loaded ORCID activity groups
+	 */
+	final void intern(List<G> groups) {
+		if (!intern || groups == null)
+			return;
+
+		for (G group : groups) {
+			intern(null, getGroupExternalIds(group));
+			for (S summary : getGroupSummaries(group))
+				intern(summary, getNonNullExternalIdsS(summary));
+		}
+	}
+
+	/**
+	 * Interns the external identifier types and the source of an activity.
+	 * 
+	 * @param activity
+	 *            the ORCID activity or summary (may be null)
+	 * @param eids
+	 *            the external identifiers of the activity (may be null)
+	 */
+	private static void intern(ElementSummary activity, ExternalIds eids) {
+		if (eids != null)
+			for (ExternalId eid : eids.getExternalId())
+				eid.setExternalIdType(StringPool.intern(eid.getExternalIdType()));
+		if (activity != null && activity.getSource() != null
+				&& activity.getSource().getSourceClientId() != null) {
+			final ClientId clientId = activity.getSource().getSourceClientId();
+			clientId.setUriPath(StringPool.intern(clientId.getUriPath()));
+		}
+	}
+
 	/**
 	 * Waits for all active asynchronous workers communicating with ORCID to
 	 * finish (if multi-threading is enabled, otherwise it is always true).
@@ -558,10 +1375,11 @@ public abstract class ORCIDHelper<E extends ElementSummary, S extends ElementSum
 			return true;
 
 		executor.shutdown();
-		final boolean timeout = executor
-				.awaitTermination(100, TimeUnit.SECONDS);
-		executor = Executors.newFixedThreadPool(client.threads());
-		return timeout;
+		try {
+			return executor.awaitTermination(100, TimeUnit.SECONDS);
+		} finally {
+			executor = Executors.newFixedThreadPool(client.threads());
+		}
 	}
 
 	/*
@@ -660,6 +1478,16 @@ public abstract class ORCIDHelper<E extends ElementSummary, S extends ElementSum
 	 */
 	abstract List<S> getGroupSummaries(G group);
 
+	/**
+	 * Retrieve the external identifiers that define an activity group.
+	 * 
+	 * @param group
+	 *            the ORCID group from which to retrieve the external
+	 *            identifiers
+	 * @return the external identifiers of the group
+	 */
+	abstract ExternalIds getGroupExternalIds(G group);
+
 	/**
 	 * Merges an activity group into a single activity summary. Simply selects
 	 * the meta-data (including part-of external identifiers) from the first
@@ -729,13 +1557,14 @@ public abstract class ORCIDHelper<E extends ElementSummary, S extends ElementSum
 	abstract S cloneS(S summary);
 
 	/**
-	 * Clones an activity.
+	 * Clones an activity. The clone may share the meta-data of the original
+	 * activity, which should be replaced rather than modified.
 	 * 
 	 * @param activity
 	 *            the ORCID activity to be cloned
 	 * @return the cloned ORCID activity
 	 */
-	abstract E cloneE(E activity);
+	public abstract E cloneE(E activity);
 
 	/**
 	 * Summarizes an activity into an activity summary. Most methods on
@@ -850,12 +1679,44 @@ public abstract class ORCIDHelper<E extends ElementSummary, S extends ElementSum
 		
 		final ExternalId eid = new ExternalId();
 		eid.setExternalIdRelationship(id.getExternalIdRelationship());
-		eid.setExternalIdType(id.getExternalIdType().toLowerCase());
+		eid.setExternalIdType(StringPool.intern(id.getExternalIdType().toLowerCase()));
 		eid.setExternalIdValue(id.getExternalIdValue().replaceAll("\\p{C}", "").trim());
 		eid.setExternalIdUrl(id.getExternalIdUrl());
 		return eid;
 	}
 	
+	/**
+	 * Calculates a normalized key for an external identifier, under which
+	 * identifiers considered the same by ORCID collide.
+	 * 
+	 * @param eid
+	 *            the external identifier
+	 * @return the normalized key
+	 */
+	public static String getKey(ExternalId eid) {
+		assert eid != null;
+
+		return eid.getExternalIdType().toLowerCase() + ":"
+				+ ExternalIdsNormalizer.normaliseId(eid.getExternalIdType(), eid.getExternalIdValue());
+	}
+
+	/**
+	 * Retrieves the normalized keys of the self external identifiers of an
+	 * activity summary.
+	 * 
+	 * @see #getKey(ExternalId)
+	 * 
+	 * @param summary
+	 *            the ORCID activity summary
+	 * @return the keys of the self external identifiers
+	 */
+	final Set<String> getSelfKeysS(S summary) {
+		final Set<String> res = new HashSet<String>();
+		for (ExternalId eid : getSelfExternalIdsS(summary).getExternalId())
+			res.add(getKey(eid));
+		return res;
+	}
+
 	/**
 	 * Retrieves the type of an activity. Build on
 	 * {@link #getTypeS(ElementSummary)}.
@@ -955,7 +1816,7 @@ public abstract class ORCIDHelper<E extends ElementSummary, S extends ElementSum
 	 *            identifiers
 	 * @return the non-null self external identifiers
 	 */
-	final ExternalIds getSelfExternalIdsS(S summary) {
+	public final ExternalIds getSelfExternalIdsS(S summary) {
 		if (summary == null)
 			throw new IllegalArgumentException("Null element.");
 		
@@ -1118,6 +1979,34 @@ public abstract class ORCIDHelper<E extends ElementSummary, S extends ElementSum
 				&& isMetaUpToDate(preElement, posElement);
 	}
 
+	/**
+	 * Checks whether an activity is already up to date regarding another one,
+	 * given the content fingerprint of the former, as calculated by
+	 * {@link #fingerprintE(ElementSummary)} or previously stored by the CRIS.
+	 * Activities with the same fingerprint are settled by a single comparison
+	 * without summarizing the local activity, otherwise resorts to
+	 * {@link #isUpToDateS(ElementSummary, ElementSummary)}.
+	 *
+	 * @param preElement
+	 *            the potentially out of date ORCID activity
+	 * @param fingerprint
+	 *            the content fingerprint of the potentially out of date
+	 *            activity, null if unknown
+	 * @param posElement
+	 *            the up to date ORCID activity
+	 * @return true if all the self external identifiers and the meta-data
+	 *         between the two activities are the same, false otherwise
+	 */
+	public final boolean isUpToDateS(E preElement, UUID fingerprint, S posElement) {
+		if (preElement == null || posElement == null)
+			throw new IllegalArgumentException("Null element.");
+
+		if (fingerprint != null && fingerprint.equals(fingerprintS(posElement)))
+			return true;
+
+		return isUpToDateS(preElement, posElement);
+	}
+
 	/**
 	 * Checks whether an activity is already up to date regarding another one,
 	 * considering the self {@link ExternalId external identifiers} and
@@ -1142,6 +2031,79 @@ public abstract class ORCIDHelper<E extends ElementSummary, S extends ElementSum
 		return isUpToDateS(preElement, summarize(posElement));
 	}
 
+	/**
+	 * Calculates a content fingerprint of an activity summary, over the fields
+	 * considered by {@link #isUpToDateS(ElementSummary, ElementSummary)}: the
+	 * self and part-of external identifiers (normalized, disregarding URLs and
+	 * order), the title, the year and the type. Activities with the same
+	 * fingerprint are up-to-date regarding each other. The fingerprint is
+	 * stable across executions and can be persisted.
+	 * 
+	 * @param summary
+	 *            the ORCID activity summary
+	 * @return the 128-bit fingerprint of the summary
+	 */
+	public final UUID fingerprintS(S summary) {
+		if (summary == null)
+			throw new IllegalArgumentException("Null element.");
+
+		return digest(summary);
+	}
+
+	/**
+	 * Calculates a content fingerprint of an activity. Builds on
+	 * {@link #fingerprintS(ElementSummary)}.
+	 * 
+	 * @param activity
+	 *            the ORCID activity
+	 * @return the 128-bit fingerprint of the activity
+	 */
+	public final UUID fingerprintE(E activity) {
+		if (activity == null)
+			throw new IllegalArgumentException("Null element.");
+
+		return digest(summarize(activity));
+	}
+
+	/**
+	 * Digests the fields of an activity summary considered by
+	 * {@link #fingerprintS(ElementSummary)}.
+	 */
+	private final UUID digest(S summary) {
+		assert summary != null;
+
+		final StringBuilder content = new StringBuilder();
+		fingerprintIds(content, getSelfExternalIdsS(summary));
+		fingerprintIds(content, getPartOfExternalIdsS(summary));
+		content.append(getTitleS(summary)).append('\0');
+		content.append(getYearS(summary)).append('\0');
+		content.append(getTypeS(summary)).append('\0');
+
+		final ByteBuffer digest;
+		try {
+			digest = ByteBuffer.wrap(MessageDigest.getInstance("MD5")
+					.digest(content.toString().getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform is required to support MD5
+			throw new IllegalStateException(e);
+		}
+		return new UUID(digest.getLong(), digest.getLong());
+	}
+
+	/**
+	 * Appends the sorted keys of a set of external identifiers to the content
+	 * of a fingerprint, as compared by {@link ExternalIdsDiff}.
+	 */
+	private static void fingerprintIds(StringBuilder content, ExternalIds eids) {
+		final Set<String> keys = new TreeSet<String>();
+		for (ExternalId eid : eids.getExternalId())
+			keys.add(eid.getExternalIdRelationship() + ":" + eid.getExternalIdType() + ":"
+					+ ExternalIdsNormalizer.normaliseId(eid.getExternalIdType(), eid.getExternalIdValue()));
+		for (String key : keys)
+			content.append(key).append('\0');
+		content.append('\0');
+	}
+
 	/**
 	 * Tests whether an activity has minimal quality to be synchronized, by
 	 * inspecting its meta-data. Throws an exception if the test fails. Only
@@ -0,0 +1,699 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+
+import org.um.dsi.gavea.orcid.model.activities.FundingGroup;
+import org.um.dsi.gavea.orcid.model.activities.WorkGroup;
+import org.um.dsi.gavea.orcid.model.funding.Funding;
+import org.um.dsi.gavea.orcid.model.funding.FundingSummary;
+import org.um.dsi.gavea.orcid.model.work.Work;
+import org.um.dsi.gavea.orcid.model.work.WorkSummary;
+
+/**
+ * A compact binary codec for ORCID activity summaries, either grouped as
+ * retrieved from ORCID or not, and full activities. Snapshots can be stored
+ * and later loaded without re-reading the ORCID profile or parsing XML.
+ *
+ * A snapshot consists of a header identifying its kind, a table of every
+ * distinct string followed by the activities themselves, where strings are
+ * referenced by their index in the table and numbers (including put-codes)
+ * are encoded as variable-length integers.
+ *
+ * Activities are encoded field by field, as declared by the classes of the
+ * ORCID model, so every field survives the round-trip: external identifier
+ * URLs, visibility, creation and modification dates, contributors, and so
+ * on. Each class is described once per snapshot by the names of its fields,
+ * so a snapshot written by a different version of the model is rejected
+ * rather than misread. Only values of the ORCID model, strings, numbers,
+ * booleans, calendars and lists are supported; anything else is rejected
+ * when encoding, so that nothing is silently lost.
+ *
+ * Snapshots are read from {@link ByteBuffer buffers}, so they can be loaded
+ * directly from memory-mapped files through {@link #map(Path)}.
+ */
+public final class ORCIDSnapshot {
+
+	private static final int MAGIC = 0x50544353; // PTCS
+	private static final byte VERSION = 2;
+
+	private static final byte WORK_GROUPS = 1;
+	private static final byte FUNDING_GROUPS = 2;
+	private static final byte WORK_SUMMARIES = 3;
+	private static final byte FUNDING_SUMMARIES = 4;
+	private static final byte WORKS = 5;
+	private static final byte FUNDINGS = 6;
+
+	private static final int NULL = 0;
+	private static final int STRING = 1;
+	private static final int FALSE = 2;
+	private static final int TRUE = 3;
+	private static final int INTEGER = 4;
+	private static final int LONG = 5;
+	private static final int BIG_INTEGER = 6;
+	private static final int LARGE_INTEGER = 7;
+	private static final int DECIMAL = 8;
+	private static final int DOUBLE = 9;
+	private static final int FLOAT = 10;
+	private static final int ENUM = 11;
+	private static final int CALENDAR = 12;
+	private static final int LIST = 13;
+	private static final int OBJECT = 14;
+
+	/** The package of the classes that may be encoded field by field. */
+	private static final String MODEL = "org.um.dsi.gavea.orcid.model.";
+
+	/** The instance fields of each class, superclass first and by name. */
+	private static final ClassValue<Field[]> FIELDS = new ClassValue<Field[]>() {
+		@Override
+		protected Field[] computeValue(Class<?> type) {
+			final List<Field> res = new ArrayList<Field>();
+			if (type.getSuperclass() != null)
+				res.addAll(Arrays.asList(FIELDS.get(type.getSuperclass())));
+			final Field[] declared = type.getDeclaredFields();
+			Arrays.sort(declared, Comparator.comparing(Field::getName));
+			for (Field field : declared)
+				if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isTransient(field.getModifiers())) {
+					field.setAccessible(true);
+					res.add(field);
+				}
+			return res.toArray(new Field[res.size()]);
+		}
+	};
+
+	/** The classes of the ORCID model already resolved, by name. */
+	private static final Map<String, Class<?>> TYPES = new ConcurrentHashMap<String, Class<?>>();
+
+	private ORCIDSnapshot() {}
+
+	/*
+	 * Public encoding and decoding methods.
+	 */
+
+	/**
+	 * Encodes a list of work groups, as retrieved from ORCID.
+	 *
+	 * @param groups
+	 *            the work groups to be encoded
+	 * @return the snapshot
+	 * @throws IllegalArgumentException
+	 *             if some value is not supported
+	 */
+	public static byte[] writeWorkGroups(List<WorkGroup> groups) {
+		return write(groups, WORK_GROUPS);
+	}
+
+	/**
+	 * Decodes a list of work groups.
+	 *
+	 * @param buffer
+	 *            the snapshot, read from the current position
+	 * @return the work groups
+	 * @throws IllegalArgumentException
+	 *             if the buffer does not contain a valid work group snapshot
+	 */
+	public static List<WorkGroup> readWorkGroups(ByteBuffer buffer) {
+		return read(buffer, WORK_GROUPS, WorkGroup.class);
+	}
+
+	/**
+	 * Encodes a list of work summaries.
+	 *
+	 * @param summaries
+	 *            the work summaries to be encoded
+	 * @return the snapshot
+	 * @throws IllegalArgumentException
+	 *             if some value is not supported
+	 */
+	public static byte[] writeWorkSummaries(List<WorkSummary> summaries) {
+		return write(summaries, WORK_SUMMARIES);
+	}
+
+	/**
+	 * Decodes a list of work summaries.
+	 *
+	 * @param buffer
+	 *            the snapshot, read from the current position
+	 * @return the work summaries
+	 * @throws IllegalArgumentException
+	 *             if the buffer does not contain a valid work summary snapshot
+	 */
+	public static List<WorkSummary> readWorkSummaries(ByteBuffer buffer) {
+		return read(buffer, WORK_SUMMARIES, WorkSummary.class);
+	}
+
+	/**
+	 * Encodes a list of full works.
+	 *
+	 * @param works
+	 *            the works to be encoded
+	 * @return the snapshot
+	 * @throws IllegalArgumentException
+	 *             if some value is not supported
+	 */
+	public static byte[] writeWorks(List<Work> works) {
+		return write(works, WORKS);
+	}
+
+	/**
+	 * Decodes a list of full works.
+	 *
+	 * @param buffer
+	 *            the snapshot, read from the current position
+	 * @return the works
+	 * @throws IllegalArgumentException
+	 *             if the buffer does not contain a valid work snapshot
+	 */
+	public static List<Work> readWorks(ByteBuffer buffer) {
+		return read(buffer, WORKS, Work.class);
+	}
+
+	/**
+	 * Encodes a list of funding groups, as retrieved from ORCID.
+	 *
+	 * @param groups
+	 *            the funding groups to be encoded
+	 * @return the snapshot
+	 * @throws IllegalArgumentException
+	 *             if some value is not supported
+	 */
+	public static byte[] writeFundingGroups(List<FundingGroup> groups) {
+		return write(groups, FUNDING_GROUPS);
+	}
+
+	/**
+	 * Decodes a list of funding groups.
+	 *
+	 * @param buffer
+	 *            the snapshot, read from the current position
+	 * @return the funding groups
+	 * @throws IllegalArgumentException
+	 *             if the buffer does not contain a valid funding group
+	 *             snapshot
+	 */
+	public static List<FundingGroup> readFundingGroups(ByteBuffer buffer) {
+		return read(buffer, FUNDING_GROUPS, FundingGroup.class);
+	}
+
+	/**
+	 * Encodes a list of funding summaries.
+	 *
+	 * @param summaries
+	 *            the funding summaries to be encoded
+	 * @return the snapshot
+	 * @throws IllegalArgumentException
+	 *             if some value is not supported
+	 */
+	public static byte[] writeFundingSummaries(List<FundingSummary> summaries) {
+		return write(summaries, FUNDING_SUMMARIES);
+	}
+
+	/**
+	 * Decodes a list of funding summaries.
+	 *
+	 * @param buffer
+	 *            the snapshot, read from the current position
+	 * @return the funding summaries
+	 * @throws IllegalArgumentException
+	 *             if the buffer does not contain a valid funding summary
+	 *             snapshot
+	 */
+	public static List<FundingSummary> readFundingSummaries(ByteBuffer buffer) {
+		return read(buffer, FUNDING_SUMMARIES, FundingSummary.class);
+	}
+
+	/**
+	 * Encodes a list of full funding activities.
+	 *
+	 * @param fundings
+	 *            the funding activities to be encoded
+	 * @return the snapshot
+	 * @throws IllegalArgumentException
+	 *             if some value is not supported
+	 */
+	public static byte[] writeFundings(List<Funding> fundings) {
+		return write(fundings, FUNDINGS);
+	}
+
+	/**
+	 * Decodes a list of full funding activities.
+	 *
+	 * @param buffer
+	 *            the snapshot, read from the current position
+	 * @return the funding activities
+	 * @throws IllegalArgumentException
+	 *             if the buffer does not contain a valid funding snapshot
+	 */
+	public static List<Funding> readFundings(ByteBuffer buffer) {
+		return read(buffer, FUNDINGS, Funding.class);
+	}
+
+	/**
+	 * Maps a snapshot file into memory, to be read by any of the decoding
+	 * methods without copying it to the heap.
+	 *
+	 * @param file
+	 *            the snapshot file
+	 * @return a read-only buffer over the contents of the file
+	 * @throws IOException
+	 *             if the file cannot be mapped
+	 */
+	public static ByteBuffer map(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+	}
+
+	private static byte[] write(List<?> elements, byte kind) {
+		if (elements == null)
+			throw new IllegalArgumentException("Null arguments.");
+		final Writer out = new Writer();
+		out.varint(elements.size());
+		for (Object element : elements)
+			out.value(element);
+		return out.toByteArray(kind);
+	}
+
+	private static <T> List<T> read(ByteBuffer buffer, byte kind, Class<T> type) {
+		final Reader in = new Reader(buffer, kind);
+		final int n = in.varint();
+		final List<T> res = new ArrayList<T>(Math.min(n, buffer.remaining()));
+		for (int i = 0; i < n; i++) {
+			final Object element = in.value();
+			if (!type.isInstance(element))
+				throw new IllegalArgumentException("Invalid snapshot.");
+			res.add(type.cast(element));
+		}
+		return res;
+	}
+
+	/*
+	 * Low-level encoding.
+	 */
+
+	/**
+	 * Encodes the body of a snapshot while collecting its string table, which
+	 * is prepended when the snapshot is finished.
+	 */
+	private static final class Writer {
+		private final Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+		private final Map<Class<?>, Integer> classes = new IdentityHashMap<Class<?>, Integer>();
+		private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+		byte[] toByteArray(byte kind) {
+			final ByteArrayOutputStream res = new ByteArrayOutputStream(body.size() + 16 * strings.size() + 8);
+			res.write(MAGIC >>> 24);
+			res.write(MAGIC >>> 16);
+			res.write(MAGIC >>> 8);
+			res.write(MAGIC);
+			res.write(VERSION);
+			res.write(kind);
+			varint(res, strings.size());
+			for (String str : strings.keySet()) {
+				final byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+				varint(res, bytes.length);
+				res.write(bytes, 0, bytes.length);
+			}
+			res.write(body.toByteArray(), 0, body.size());
+			return res.toByteArray();
+		}
+
+		void varint(long value) {
+			varint(body, value);
+		}
+
+		/** Strings are written as their index in the table. */
+		void string(String str) {
+			Integer idx = strings.get(str);
+			if (idx == null) {
+				idx = strings.size();
+				strings.put(str, idx);
+			}
+			varint(idx);
+		}
+
+		/**
+		 * Classes are written as their index plus one, 0 being followed by the
+		 * description of a class that was not yet written.
+		 */
+		void type(Class<?> type) {
+			final Integer idx = classes.get(type);
+			if (idx != null) {
+				varint(idx + 1);
+				return;
+			}
+			classes.put(type, classes.size());
+			varint(0);
+			string(type.getName());
+			final Field[] fields = FIELDS.get(type);
+			varint(fields.length);
+			for (Field field : fields)
+				string(field.getName());
+		}
+
+		/** Values are written as a tag followed by their contents. */
+		void value(Object value) {
+			if (value == null)
+				varint(NULL);
+			else if (value instanceof String) {
+				varint(STRING);
+				string((String) value);
+			} else if (value instanceof Boolean)
+				varint((Boolean) value ? TRUE : FALSE);
+			else if (value instanceof Integer) {
+				varint(INTEGER);
+				varint(zigzag((Integer) value));
+			} else if (value instanceof Long) {
+				varint(LONG);
+				varint(zigzag((Long) value));
+			} else if (value instanceof BigInteger) {
+				final BigInteger big = (BigInteger) value;
+				if (big.bitLength() < 64) {
+					varint(BIG_INTEGER);
+					varint(zigzag(big.longValue()));
+				} else {
+					varint(LARGE_INTEGER);
+					string(big.toString());
+				}
+			} else if (value instanceof BigDecimal) {
+				varint(DECIMAL);
+				string(value.toString());
+			} else if (value instanceof Double) {
+				varint(DOUBLE);
+				varint(Double.doubleToRawLongBits((Double) value));
+			} else if (value instanceof Float) {
+				varint(FLOAT);
+				varint(Float.floatToRawIntBits((Float) value) & 0xFFFFFFFFL);
+			} else if (value instanceof Enum) {
+				final Class<?> type = ((Enum<?>) value).getDeclaringClass();
+				supported(type);
+				varint(ENUM);
+				string(type.getName());
+				string(((Enum<?>) value).name());
+			} else if (value instanceof XMLGregorianCalendar) {
+				varint(CALENDAR);
+				string(((XMLGregorianCalendar) value).toXMLFormat());
+			} else if (value instanceof List) {
+				final List<?> list = (List<?>) value;
+				varint(LIST);
+				varint(list.size());
+				for (Object element : list)
+					value(element);
+			} else {
+				supported(value.getClass());
+				try {
+					value.getClass().getDeclaredConstructor();
+				} catch (NoSuchMethodException e) {
+					throw new IllegalArgumentException("Unsupported value: " + value.getClass().getName(), e);
+				}
+				varint(OBJECT);
+				type(value.getClass());
+				try {
+					for (Field field : FIELDS.get(value.getClass()))
+						value(field.get(value));
+				} catch (IllegalAccessException e) {
+					throw new IllegalArgumentException("Unsupported value: " + value.getClass().getName(), e);
+				}
+			}
+		}
+
+		private static void supported(Class<?> type) {
+			if (!type.getName().startsWith(MODEL))
+				throw new IllegalArgumentException("Unsupported value: " + type.getName());
+		}
+
+		private static long zigzag(long value) {
+			return (value << 1) ^ (value >> 63);
+		}
+
+		private static void varint(ByteArrayOutputStream out, long value) {
+			while ((value & ~0x7FL) != 0) {
+				out.write((int) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			out.write((int) value);
+		}
+	}
+
+	/*
+	 * Low-level decoding.
+	 */
+
+	/**
+	 * Decodes a snapshot, eagerly reading its string table.
+	 */
+	private static final class Reader {
+		private final ByteBuffer in;
+		private final String[] strings;
+		private final List<Constructor<?>> constructors = new ArrayList<Constructor<?>>();
+		private final List<Field[]> layouts = new ArrayList<Field[]>();
+		private final List<boolean[]> nulls = new ArrayList<boolean[]>();
+		private DatatypeFactory calendars;
+
+		Reader(ByteBuffer buffer, byte kind) {
+			if (buffer == null)
+				throw new IllegalArgumentException("Null arguments.");
+			this.in = buffer;
+			try {
+				if (in.getInt() != MAGIC || in.get() != VERSION)
+					throw new IllegalArgumentException("Not a PTCRISync snapshot.");
+				if (in.get() != kind)
+					throw new IllegalArgumentException("Unexpected snapshot kind.");
+				final int n = varint();
+				if (n > in.remaining())
+					throw new IllegalArgumentException("Truncated snapshot.");
+				strings = new String[n];
+				for (int i = 0; i < strings.length; i++) {
+					final int size = varint();
+					if (size > in.remaining())
+						throw new IllegalArgumentException("Truncated snapshot.");
+					final byte[] bytes = new byte[size];
+					in.get(bytes);
+					strings[i] = new String(bytes, StandardCharsets.UTF_8);
+				}
+			} catch (BufferUnderflowException e) {
+				throw new IllegalArgumentException("Truncated snapshot.", e);
+			}
+		}
+
+		int varint() {
+			final long value = varlong();
+			if (value < 0 || value > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("Invalid snapshot.");
+			return (int) value;
+		}
+
+		long varlong() {
+			long value = 0;
+			try {
+				for (int shift = 0; shift < 64; shift += 7) {
+					final byte b = in.get();
+					value |= (long) (b & 0x7F) << shift;
+					if ((b & 0x80) == 0)
+						return value;
+				}
+			} catch (BufferUnderflowException e) {
+				throw new IllegalArgumentException("Truncated snapshot.", e);
+			}
+			throw new IllegalArgumentException("Invalid snapshot.");
+		}
+
+		String string() {
+			final int idx = varint();
+			if (idx >= strings.length)
+				throw new IllegalArgumentException("Invalid snapshot.");
+			return strings[idx];
+		}
+
+		/**
+		 * Reads a class reference, resolving the fields of the snapshot
+		 * against those of the class when it is described.
+		 */
+		int type() {
+			final int idx = varint();
+			if (idx > 0) {
+				if (idx > layouts.size())
+					throw new IllegalArgumentException("Invalid snapshot.");
+				return idx - 1;
+			}
+			final Class<?> type = supported(string());
+			final Map<String, Field> byName = new HashMap<String, Field>();
+			for (Field field : FIELDS.get(type))
+				byName.put(field.getName(), field);
+			final Field[] layout = new Field[varint()];
+			for (int i = 0; i < layout.length; i++) {
+				layout[i] = byName.get(string());
+				if (layout[i] == null)
+					throw new IllegalArgumentException("Incompatible snapshot.");
+			}
+			// fields that are null on construction need not be set to null
+			final Constructor<?> constructor = constructor(type);
+			final boolean[] nullable = new boolean[layout.length];
+			try {
+				final Object prototype = constructor.newInstance();
+				for (int i = 0; i < layout.length; i++)
+					nullable[i] = layout[i].get(prototype) == null;
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalArgumentException("Incompatible snapshot.", e);
+			}
+			constructors.add(constructor);
+			layouts.add(layout);
+			nulls.add(nullable);
+			return layouts.size() - 1;
+		}
+
+		Object value() {
+			final int tag = varint();
+			switch (tag) {
+			case NULL:
+				return null;
+			case STRING:
+				return string();
+			case FALSE:
+				return Boolean.FALSE;
+			case TRUE:
+				return Boolean.TRUE;
+			case INTEGER:
+				return (int) unzigzag(varlong());
+			case LONG:
+				return unzigzag(varlong());
+			case BIG_INTEGER:
+				return BigInteger.valueOf(unzigzag(varlong()));
+			case LARGE_INTEGER:
+				return new BigInteger(number());
+			case DECIMAL:
+				return new BigDecimal(number());
+			case DOUBLE:
+				return Double.longBitsToDouble(varlong());
+			case FLOAT:
+				return Float.intBitsToFloat((int) varlong());
+			case ENUM:
+				return enumeration(supported(string()), string());
+			case CALENDAR:
+				return calendar(string());
+			case LIST:
+				final int n = varint();
+				final List<Object> list = new ArrayList<Object>(Math.min(n, in.remaining()));
+				for (int i = 0; i < n; i++)
+					list.add(value());
+				return list;
+			case OBJECT:
+				final int type = type();
+				final Object object;
+				try {
+					object = constructors.get(type).newInstance();
+				} catch (ReflectiveOperationException e) {
+					throw new IllegalArgumentException("Incompatible snapshot.", e);
+				}
+				final Field[] layout = layouts.get(type);
+				final boolean[] nullable = nulls.get(type);
+				for (int i = 0; i < layout.length; i++) {
+					final Object value = value();
+					if (value == null && nullable[i])
+						continue;
+					try {
+						layout[i].set(object, value);
+					} catch (IllegalArgumentException | IllegalAccessException e) {
+						throw new IllegalArgumentException("Incompatible snapshot.", e);
+					}
+				}
+				return object;
+			default:
+				throw new IllegalArgumentException("Invalid snapshot.");
+			}
+		}
+
+		private String number() {
+			final String str = string();
+			if (str.isEmpty() || str.length() > 1000)
+				throw new IllegalArgumentException("Invalid snapshot.");
+			try {
+				new BigDecimal(str);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid snapshot.", e);
+			}
+			return str;
+		}
+
+		private XMLGregorianCalendar calendar(String str) {
+			try {
+				if (calendars == null)
+					calendars = DatatypeFactory.newInstance();
+				return calendars.newXMLGregorianCalendar(str);
+			} catch (DatatypeConfigurationException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		private static Object enumeration(Class<?> type, String name) {
+			if (!type.isEnum())
+				throw new IllegalArgumentException("Incompatible snapshot.");
+			return Enum.valueOf((Class) type, name);
+		}
+
+		private static Constructor<?> constructor(Class<?> type) {
+			try {
+				final Constructor<?> constructor = type.getDeclaredConstructor();
+				constructor.setAccessible(true);
+				return constructor;
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalArgumentException("Incompatible snapshot.", e);
+			}
+		}
+
+		/** Only classes of the ORCID model are ever loaded from a snapshot. */
+		private static Class<?> supported(String name) {
+			Class<?> type = TYPES.get(name);
+			if (type != null)
+				return type;
+			if (!name.startsWith(MODEL))
+				throw new IllegalArgumentException("Invalid snapshot.");
+			try {
+				type = Class.forName(name, false, ORCIDSnapshot.class.getClassLoader());
+			} catch (ClassNotFoundException e) {
+				throw new IllegalArgumentException("Incompatible snapshot.", e);
+			}
+			TYPES.put(name, type);
+			return type;
+		}
+
+		private static long unzigzag(long value) {
+			return (value >>> 1) ^ -(value & 1);
+		}
+	}
+
+}
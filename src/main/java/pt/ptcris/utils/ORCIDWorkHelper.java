@@ -10,6 +10,7 @@
 package pt.ptcris.utils;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -59,11 +60,11 @@ public final class ORCIDWorkHelper extends ORCIDHelper<Work, WorkSummary, WorkGr
 		}
 	}
 	
+	// null until the summaries are retrieved, so that empty profiles are cached
 	private List<WorkGroup> worksGroupCache;
 	
 	public ORCIDWorkHelper(ORCIDClient orcidClient) {
 		super(orcidClient, 100, 50, false);
-		this.worksGroupCache = new ArrayList<>();
 	}
 	
 	/**
@@ -74,7 +75,6 @@ public final class ORCIDWorkHelper extends ORCIDHelper<Work, WorkSummary, WorkGr
 	 */
 	public ORCIDWorkHelper(ORCIDClient orcidClient, boolean useCache) {
 		super(orcidClient, 100, 50, useCache);
-		this.worksGroupCache = new ArrayList<>();
 	}
 
 	/*
@@ -85,16 +85,65 @@ public final class ORCIDWorkHelper extends ORCIDHelper<Work, WorkSummary, WorkGr
 	@Override
 	protected List<WorkGroup> getSummariesClient() throws OrcidClientException {
 		assert client != null;
-		if (useCache && !worksGroupCache.isEmpty()) {
+		final List<WorkGroup> cached = getCachedGroups();
+		if (cached != null) {
 			_log.debug("cache used on [getWorkSummaries] "+client.getUserId());
-			return worksGroupCache;
+			return cached;
+		}
+		final List<WorkGroup> stored = loadSnapshot();
+		if (stored != null) {
+			_log.debug("store used on [getWorkSummaries] "+client.getUserId());
+			setCachedGroups(stored);
+			return stored;
 		}
 		_log.debug("[getWorkSummaries] "+client.getUserId());
-		
-		worksGroupCache = client.getWorksSummary().getGroup();
+		final List<WorkGroup> fetched = fetchSummaries(() -> client.getWorksSummary().getGroup());
+		setCachedGroups(fetched);
+		return fetched;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected synchronized List<WorkGroup> getCachedGroups() {
+		if (!useCache)
+			return null;
 		return worksGroupCache;
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	protected synchronized void setCachedGroups(List<WorkGroup> groups) {
+		worksGroupCache = groups;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected String getSnapshotName() {
+		return "works";
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected byte[] writeSnapshot(List<WorkGroup> groups) {
+		return ORCIDSnapshot.writeWorkGroups(groups);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected List<WorkGroup> readSnapshot(ByteBuffer snapshot) {
+		return ORCIDSnapshot.readWorkGroups(snapshot);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected WorkGroup createGroup(List<WorkSummary> summaries, ExternalIds eids) {
+		assert summaries != null && !summaries.isEmpty();
+		final WorkGroup group = new WorkGroup();
+		group.getWorkSummary().addAll(summaries);
+		group.setExternalIds(eids);
+		return group;
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	protected PTCRISyncResult<Work> readClient(WorkSummary work) {
@@ -261,6 +310,15 @@ public final class ORCIDWorkHelper extends ORCIDHelper<Work, WorkSummary, WorkGr
 		return group.getWorkSummary();
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	protected ExternalIds getGroupExternalIds(WorkGroup group) {
+		assert group != null;
+		if (group.getExternalIds() == null)
+			return new ExternalIds(new ArrayList<ExternalId>());
+		return group.getExternalIds();
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	protected WorkSummary group(WorkGroup group) throws IllegalArgumentException {
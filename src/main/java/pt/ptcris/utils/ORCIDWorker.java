@@ -65,7 +65,9 @@ abstract class ORCIDWorker<E extends ElementSummary> extends Thread {
 	 *            the result to return
 	 */
 	protected void callback(BigInteger id, PTCRISyncResult<E> res) {
-		cb.put(id, res);
+		synchronized (cb) {
+			cb.put(id, res);
+		}
 	}
 	
 }
@@ -0,0 +1,391 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * <p>
+ * A disk-backed store of ORCID profile snapshots (see {@link ORCIDSnapshot}),
+ * to be shared by the helpers of a batch synchronization process so that
+ * summaries can be re-used across procedures and restarts without being kept
+ * in the heap. Entries are identified by the ORCID iD of the profile and a
+ * name (e.g., the activity type), and expire after a maximum age, after which
+ * the helpers fall back to the ORCID API.
+ * </p>
+ *
+ * <p>
+ * Entries are appended to a single log file and read back through a memory
+ * mapping of it; only a small index of their positions is kept in memory.
+ * Replaced and invalidated entries are reclaimed by compacting the log, which
+ * happens automatically once most of it is garbage. Incomplete records left
+ * by a crash are discarded when the store is re-opened.
+ * </p>
+ *
+ * <p>
+ * The store also keeps the last known classification of the synchronized
+ * local activities, i.e., the outcome codes of the last export procedure
+ * (see {@link pt.ptcris.PTCRISyncResult}).
+ * </p>
+ */
+public final class ProfileStore implements Closeable {
+
+	private static final String LOG = "profiles.log";
+	private static final String TMP = "profiles.tmp";
+	private static final String CLASSIFICATION = "#classification";
+
+	private static final byte PUT = 1;
+	private static final byte DELETE = 2;
+
+	/**
+	 * The header of a record: length, checksum, kind, timestamp and key
+	 * length.
+	 */
+	private static final int HEADER = 4 + 4 + 1 + 8 + 2;
+
+	/**
+	 * The minimal size of the log before automatic compactions are triggered.
+	 */
+	private static final long COMPACT_MIN_SIZE = 16 * 1024 * 1024;
+
+	/**
+	 * The position of a live entry in the log.
+	 */
+	private static final class Entry {
+		final long record;
+		final int recordLength;
+		final long payload;
+		final int payloadLength;
+		final long timestamp;
+
+		Entry(long record, int recordLength, long payload, int payloadLength, long timestamp) {
+			this.record = record;
+			this.recordLength = recordLength;
+			this.payload = payload;
+			this.payloadLength = payloadLength;
+			this.timestamp = timestamp;
+		}
+	}
+
+	private final Path dir;
+	private final long maxAge;
+	private final Map<String, Entry> index = new HashMap<String, Entry>();
+	private FileChannel channel;
+	private MappedByteBuffer mapping;
+	private long size;
+	private long garbage;
+
+	/**
+	 * Opens (or creates) a profile store at the given directory, rebuilding
+	 * the index from the existing log.
+	 *
+	 * @param dir
+	 *            the directory where the store is kept
+	 * @param maxAge
+	 *            the maximum age of an entry, in milliseconds, after which it
+	 *            is considered stale
+	 * @throws IOException
+	 *             if the store cannot be opened
+	 */
+	public ProfileStore(Path dir, long maxAge) throws IOException {
+		if (dir == null || maxAge < 0)
+			throw new IllegalArgumentException("Invalid arguments.");
+		this.dir = dir;
+		this.maxAge = maxAge;
+		Files.createDirectories(dir);
+		open();
+	}
+
+	/**
+	 * Retrieves a snapshot of an ORCID profile, if not stale.
+	 *
+	 * @param orcid
+	 *            the ORCID iD of the profile
+	 * @param name
+	 *            the name of the snapshot
+	 * @return a read-only buffer with the snapshot, null if missing or stale
+	 * @throws IOException
+	 *             if the store cannot be read
+	 */
+	public synchronized ByteBuffer get(String orcid, String name) throws IOException {
+		final Entry entry = index.get(key(orcid, name));
+		if (entry == null || System.currentTimeMillis() - entry.timestamp > maxAge)
+			return null;
+		return map(entry);
+	}
+
+	/**
+	 * Stores a snapshot of an ORCID profile, replacing any previous one.
+	 *
+	 * @param orcid
+	 *            the ORCID iD of the profile
+	 * @param name
+	 *            the name of the snapshot
+	 * @param snapshot
+	 *            the snapshot
+	 * @throws IOException
+	 *             if the store cannot be written
+	 */
+	public synchronized void put(String orcid, String name, byte[] snapshot) throws IOException {
+		if (snapshot == null)
+			throw new IllegalArgumentException("Null snapshot.");
+		append(key(orcid, name), PUT, snapshot);
+		compactIfNeeded();
+	}
+
+	/**
+	 * Invalidates a snapshot of an ORCID profile, for instance because the
+	 * profile has been modified.
+	 *
+	 * @param orcid
+	 *            the ORCID iD of the profile
+	 * @param name
+	 *            the name of the snapshot
+	 * @throws IOException
+	 *             if the store cannot be written
+	 */
+	public synchronized void invalidate(String orcid, String name) throws IOException {
+		final String key = key(orcid, name);
+		if (!index.containsKey(key))
+			return;
+		append(key, DELETE, new byte[0]);
+		compactIfNeeded();
+	}
+
+	/**
+	 * Stores the classification of the local activities resulting from the
+	 * last synchronization of an ORCID profile, identified by their local
+	 * keys.
+	 *
+	 * @param orcid
+	 *            the ORCID iD of the profile
+	 * @param name
+	 *            the name of the synchronized activities
+	 * @param codes
+	 *            the outcome code of each local activity
+	 * @throws IOException
+	 *             if the store cannot be written
+	 */
+	public synchronized void putClassification(String orcid, String name, Map<BigInteger, Integer> codes)
+			throws IOException {
+		if (codes == null)
+			throw new IllegalArgumentException("Null classification.");
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(4 + codes.size() * 16);
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(codes.size());
+			for (Map.Entry<BigInteger, Integer> e : codes.entrySet()) {
+				final byte[] key = e.getKey().toByteArray();
+				out.writeInt(key.length);
+				out.write(key);
+				out.writeInt(e.getValue());
+			}
+		}
+		append(key(orcid, name + CLASSIFICATION), PUT, bytes.toByteArray());
+		compactIfNeeded();
+	}
+
+	/**
+	 * Retrieves the last known classification of the local activities of an
+	 * ORCID profile, regardless of its age.
+	 *
+	 * @param orcid
+	 *            the ORCID iD of the profile
+	 * @param name
+	 *            the name of the synchronized activities
+	 * @return the outcome code of each local activity, null if unknown
+	 * @throws IOException
+	 *             if the store cannot be read
+	 */
+	public synchronized Map<BigInteger, Integer> getClassification(String orcid, String name) throws IOException {
+		final Entry entry = index.get(key(orcid, name + CLASSIFICATION));
+		if (entry == null)
+			return null;
+		final ByteBuffer buffer = map(entry);
+		final int n = buffer.getInt();
+		final Map<BigInteger, Integer> codes = new LinkedHashMap<BigInteger, Integer>();
+		for (int i = 0; i < n; i++) {
+			final byte[] key = new byte[buffer.getInt()];
+			buffer.get(key);
+			codes.put(new BigInteger(key), buffer.getInt());
+		}
+		return codes;
+	}
+
+	/**
+	 * Rewrites the log keeping only the live entries.
+	 *
+	 * @throws IOException
+	 *             if the store cannot be compacted
+	 */
+	public synchronized void compact() throws IOException {
+		final Path tmp = dir.resolve(TMP);
+		final Map<String, Entry> moved = new HashMap<String, Entry>();
+		long pos = 0;
+		try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			for (Map.Entry<String, Entry> e : index.entrySet()) {
+				final Entry entry = e.getValue();
+				long done = 0;
+				while (done < entry.recordLength)
+					done += channel.transferTo(entry.record + done, entry.recordLength - done, out);
+				moved.put(e.getKey(), new Entry(pos, entry.recordLength,
+						pos + (entry.payload - entry.record), entry.payloadLength, entry.timestamp));
+				pos += entry.recordLength;
+			}
+			out.force(true);
+		}
+		channel.close();
+		mapping = null;
+		Files.move(tmp, dir.resolve(LOG), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		channel = FileChannel.open(dir.resolve(LOG), StandardOpenOption.READ, StandardOpenOption.WRITE);
+		index.clear();
+		index.putAll(moved);
+		size = pos;
+		garbage = 0;
+	}
+
+	/**
+	 * Forces pending writes to disk and closes the store.
+	 *
+	 * @throws IOException
+	 *             if the store cannot be closed
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (channel.isOpen()) {
+			channel.force(true);
+			channel.close();
+		}
+		mapping = null;
+	}
+
+	/**
+	 * Opens the log and rebuilds the index, truncating any incomplete or
+	 * corrupted tail left by a crash.
+	 *
+	 * @throws IOException
+	 *             if the log cannot be read
+	 */
+	private void open() throws IOException {
+		channel = FileChannel.open(dir.resolve(LOG), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		final long length = channel.size();
+		final ByteBuffer header = ByteBuffer.allocate(HEADER);
+		long pos = 0;
+		while (pos + HEADER <= length) {
+			header.clear();
+			channel.read(header, pos);
+			header.flip();
+			final int recordLength = header.getInt();
+			final int crc = header.getInt();
+			if (recordLength < HEADER || pos + recordLength > length)
+				break;
+			final ByteBuffer record = ByteBuffer.allocate(recordLength - 8);
+			channel.read(record, pos + 8);
+			record.flip();
+			final CRC32 check = new CRC32();
+			check.update(record.duplicate());
+			if ((int) check.getValue() != crc)
+				break;
+			final byte kind = record.get();
+			final long timestamp = record.getLong();
+			final byte[] key = new byte[record.getShort()];
+			record.get(key);
+			index(new String(key, StandardCharsets.UTF_8), kind, pos, recordLength, timestamp);
+			pos += recordLength;
+		}
+		if (pos < length)
+			channel.truncate(pos);
+		size = pos;
+	}
+
+	/**
+	 * Appends a record to the log and updates the index.
+	 */
+	private void append(String key, byte kind, byte[] payload) throws IOException {
+		final byte[] k = key.getBytes(StandardCharsets.UTF_8);
+		final int recordLength = HEADER + k.length + payload.length;
+		final long timestamp = System.currentTimeMillis();
+		final ByteBuffer record = ByteBuffer.allocate(recordLength);
+		record.putInt(recordLength);
+		record.putInt(0);
+		record.put(kind);
+		record.putLong(timestamp);
+		record.putShort((short) k.length);
+		record.put(k);
+		record.put(payload);
+		final CRC32 check = new CRC32();
+		check.update(record.array(), 8, recordLength - 8);
+		record.putInt(4, (int) check.getValue());
+		record.flip();
+		long pos = size;
+		while (record.hasRemaining())
+			pos += channel.write(record, pos);
+		index(key, kind, size, recordLength, timestamp);
+		size = pos;
+	}
+
+	/**
+	 * Registers a record in the index, accounting for the garbage it creates.
+	 */
+	private void index(String key, byte kind, long pos, int recordLength, long timestamp) {
+		final Entry previous = index.remove(key);
+		if (previous != null)
+			garbage += previous.recordLength;
+		if (kind == PUT) {
+			final int keyLength = key.getBytes(StandardCharsets.UTF_8).length;
+			index.put(key, new Entry(pos, recordLength, pos + HEADER + keyLength,
+					recordLength - HEADER - keyLength, timestamp));
+		} else
+			garbage += recordLength;
+	}
+
+	private void compactIfNeeded() throws IOException {
+		if (size >= COMPACT_MIN_SIZE && garbage * 2 > size)
+			compact();
+	}
+
+	/**
+	 * Retrieves the payload of an entry as a slice of a mapping of the whole
+	 * log, which is only re-mapped once the log has grown past it. Records are
+	 * never modified once appended, so slices remain valid until the log is
+	 * compacted. Logs too large to be mapped at once are mapped per entry.
+	 */
+	private ByteBuffer map(Entry entry) throws IOException {
+		if (size > Integer.MAX_VALUE)
+			return channel.map(FileChannel.MapMode.READ_ONLY, entry.payload, entry.payloadLength);
+		if (mapping == null || entry.payload + entry.payloadLength > mapping.capacity())
+			mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		return mapping.slice((int) entry.payload, entry.payloadLength);
+	}
+
+	private static String key(String orcid, String name) {
+		if (orcid == null || name == null)
+			throw new IllegalArgumentException("Null key.");
+		return orcid + "/" + name;
+	}
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.um.dsi.gavea.orcid.client.exception.OrcidClientException;
+
+/**
+ * Deduplicates concurrent ORCID requests with the same key, so that callers
+ * that arrive while a request is in flight wait for it and share its result
+ * (or failure) rather than issuing their own. Nothing is cached once the
+ * request completes.
+ */
+final class SingleFlight {
+
+	/**
+	 * A request to ORCID.
+	 *
+	 * @param <V>
+	 *            the type of the result
+	 */
+	interface Fetch<V> {
+		V fetch() throws OrcidClientException;
+	}
+
+	private static final ConcurrentMap<String, FutureTask<?>> flights = new ConcurrentHashMap<String, FutureTask<?>>();
+
+	private SingleFlight() {}
+
+	/**
+	 * Runs a request, unless one with the same key is already in flight, in
+	 * which case waits for and returns its result. If the waiting thread is
+	 * interrupted, its interrupt status is restored and it fails without
+	 * issuing the request.
+	 *
+	 * @param key
+	 *            the key identifying the request
+	 * @param fetch
+	 *            the request
+	 * @return the result of the request
+	 * @throws OrcidClientException
+	 *             if the communication with ORCID fails or the waiting thread
+	 *             is interrupted
+	 */
+	@SuppressWarnings("unchecked")
+	static <V> V run(String key, Fetch<V> fetch) throws OrcidClientException {
+		assert key != null && fetch != null;
+
+		final FutureTask<V> task = new FutureTask<V>(() -> fetch.fetch());
+		final FutureTask<V> flight = (FutureTask<V>) flights.putIfAbsent(key, task);
+		if (flight == null) {
+			try {
+				task.run();
+			} finally {
+				flights.remove(key, task);
+			}
+			return get(task);
+		}
+		ORCIDHelper._log.debug("[singleFlight] joined " + key);
+		return get(flight);
+	}
+
+	private static <V> V get(FutureTask<V> task) throws OrcidClientException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			final OrcidClientException ex = new OrcidClientException(0, "Interrupted.", 0,
+					"Interrupted while waiting for a concurrent request.");
+			ex.initCause(e);
+			throw ex;
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof OrcidClientException)
+				throw (OrcidClientException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IllegalStateException(cause);
+		}
+	}
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A bounded pool of canonical strings, shared by every helper, used to
+ * deduplicate the low-cardinality values that are repeated throughout loaded
+ * ORCID records, like external identifier types or source client ids. Once
+ * the pool is full, new strings are simply returned as they are, so that
+ * high-cardinality values passed by mistake do not grow it indefinitely.
+ */
+final class StringPool {
+
+	/**
+	 * The maximum number of canonical strings kept by the pool.
+	 */
+	static final int MAX_SIZE = 4096;
+
+	private static final ConcurrentMap<String, String> pool = new ConcurrentHashMap<String, String>();
+
+	private StringPool() {}
+
+	/**
+	 * Retrieves the canonical representation of a string, registering it if
+	 * not yet known and the pool is not full.
+	 * 
+	 * @param str
+	 *            the string to be canonicalized (may be null)
+	 * @return the canonical string, or the string itself if the pool is full
+	 */
+	static String intern(String str) {
+		if (str == null)
+			return null;
+
+		final String canon = pool.get(str);
+		if (canon != null)
+			return canon;
+		if (pool.size() >= MAX_SIZE)
+			return str;
+		final String prev = pool.putIfAbsent(str, str);
+		return prev == null ? str : prev;
+	}
+
+	/**
+	 * The number of canonical strings currently in the pool.
+	 * 
+	 * @return the size of the pool
+	 */
+	static int size() {
+		return pool.size();
+	}
+
+}
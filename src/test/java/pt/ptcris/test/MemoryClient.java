@@ -0,0 +1,348 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.test;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.um.dsi.gavea.orcid.client.exception.OrcidClientException;
+import org.um.dsi.gavea.orcid.model.activities.ActivitiesSummary;
+import org.um.dsi.gavea.orcid.model.activities.Fundings;
+import org.um.dsi.gavea.orcid.model.activities.WorkGroup;
+import org.um.dsi.gavea.orcid.model.activities.Works;
+import org.um.dsi.gavea.orcid.model.common.ClientId;
+import org.um.dsi.gavea.orcid.model.common.ExternalId;
+import org.um.dsi.gavea.orcid.model.common.ExternalIds;
+import org.um.dsi.gavea.orcid.model.common.Relationship;
+import org.um.dsi.gavea.orcid.model.common.Source;
+import org.um.dsi.gavea.orcid.model.funding.Funding;
+import org.um.dsi.gavea.orcid.model.funding.FundingSummary;
+import org.um.dsi.gavea.orcid.model.work.Work;
+import org.um.dsi.gavea.orcid.model.work.WorkSummary;
+
+import pt.ptcris.ORCIDClient;
+import pt.ptcris.PTCRISyncResult;
+import pt.ptcris.utils.ORCIDHelper;
+import pt.ptcris.utils.ORCIDSnapshot;
+import pt.ptcris.utils.ORCIDWorkHelper;
+
+/**
+ * An ORCID client over an in-memory profile of works, to test the
+ * synchronization procedures without the ORCID sandbox. Works are grouped by
+ * shared self external identifiers, as ORCID does, and adding or updating a
+ * work whose self external identifiers overlap those of another work of the
+ * same source fails, as in ORCID. Summaries are decoded afresh for each
+ * request, as if unmarshalled. Fundings are not supported. Counts the
+ * requests performed, and summary requests may be held until released.
+ */
+public class MemoryClient implements ORCIDClient {
+
+	private static final ORCIDWorkHelper helper = new ORCIDWorkHelper(null);
+
+	private final String clientId;
+	private final String userId;
+	private final int threads;
+
+	private final Map<BigInteger, Work> works = new LinkedHashMap<BigInteger, Work>();
+	private int next = 1000;
+
+	/** The number of requests for the summaries of the profile. */
+	public final AtomicInteger summaryRequests = new AtomicInteger();
+	/** The number of full activities read. */
+	public final AtomicInteger reads = new AtomicInteger();
+	/** The number of requests that mutate the profile. */
+	public final AtomicInteger mutationRequests = new AtomicInteger();
+
+	private volatile CountDownLatch entered;
+	private volatile CountDownLatch release;
+
+	/**
+	 * Creates a client over an empty profile.
+	 *
+	 * @param clientId
+	 *            the Member API id used as source of added works
+	 * @param userId
+	 *            the ORCID iD of the profile
+	 * @param threads
+	 *            the number of threads used by helpers of this client
+	 */
+	public MemoryClient(String clientId, String userId, int threads) {
+		this.clientId = clientId;
+		this.userId = userId;
+		this.threads = threads;
+	}
+
+	/**
+	 * Holds the following summary requests until released.
+	 *
+	 * @param entered
+	 *            counted down as each held request starts
+	 * @param release
+	 *            released to let the held requests proceed
+	 */
+	public void hold(CountDownLatch entered, CountDownLatch release) {
+		this.entered = entered;
+		this.release = release;
+	}
+
+	/**
+	 * Adds to the profile a work whose source is another Member API client,
+	 * e.g., one added by the user.
+	 *
+	 * @param work
+	 *            the work
+	 * @param source
+	 *            the source of the work
+	 * @return the put-code of the work
+	 */
+	public synchronized BigInteger addForeign(Work work, String source) {
+		return store(work, source);
+	}
+
+	/**
+	 * The works in the profile, by put-code.
+	 *
+	 * @return a copy of the works in the profile
+	 */
+	public synchronized Map<BigInteger, Work> getWorks() {
+		final Map<BigInteger, Work> res = new LinkedHashMap<BigInteger, Work>();
+		for (Work work : works.values())
+			res.put(work.getPutCode(), helper.cloneE(work));
+		return res;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String getClientId() {
+		return clientId;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String getUserId() {
+		return userId;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ActivitiesSummary getActivitiesSummary() throws OrcidClientException {
+		throw new UnsupportedOperationException();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Works getWorksSummary() throws OrcidClientException {
+		summaryRequests.incrementAndGet();
+		final CountDownLatch entered = this.entered, release = this.release;
+		if (release != null) {
+			entered.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new OrcidClientException(0, "Interrupted.", 0, null);
+			}
+		}
+		final byte[] snapshot;
+		synchronized (this) {
+			snapshot = ORCIDSnapshot.writeWorkGroups(groups());
+		}
+		final Works res = new Works();
+		res.getGroup().addAll(ORCIDSnapshot.readWorkGroups(ByteBuffer.wrap(snapshot)));
+		return res;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Fundings getFundingsSummary() throws OrcidClientException {
+		return new Fundings();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public synchronized PTCRISyncResult<Work> getWork(WorkSummary summary) {
+		reads.incrementAndGet();
+		final Work work = works.get(summary.getPutCode());
+		if (work == null)
+			return PTCRISyncResult.fail(new OrcidClientException(404, "Not found.", 9016, null));
+		// as retrieved by the ORCID client, with the identifiers of the group
+		final Work full = helper.cloneE(work);
+		full.setExternalIds(helper.getNonNullExternalIdsS(summary));
+		ORCIDHelper.cleanWorkLocalKey(full);
+		return PTCRISyncResult.ok_get(summary.getPutCode(), full);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public PTCRISyncResult<Funding> getFunding(FundingSummary summary) {
+		throw new UnsupportedOperationException();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public synchronized Map<BigInteger, PTCRISyncResult<Work>> getWorks(List<WorkSummary> summaries) {
+		final Map<BigInteger, PTCRISyncResult<Work>> res = new HashMap<BigInteger, PTCRISyncResult<Work>>();
+		for (WorkSummary summary : summaries)
+			res.put(summary.getPutCode(), getWork(summary));
+		return res;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public synchronized PTCRISyncResult<Work> addWork(Work work) {
+		mutationRequests.incrementAndGet();
+		if (overlaps(work, null))
+			return PTCRISyncResult.fail(new OrcidClientException(409, "Conflict.", 9021, null));
+		return PTCRISyncResult.ok_add(store(work, clientId));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public PTCRISyncResult<Funding> addFunding(Funding funding) {
+		throw new UnsupportedOperationException();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public synchronized List<PTCRISyncResult<Work>> addWorks(List<Work> works) {
+		final List<PTCRISyncResult<Work>> res = new ArrayList<PTCRISyncResult<Work>>();
+		for (Work work : works)
+			res.add(addWork(work));
+		mutationRequests.addAndGet(1 - works.size());
+		return res;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public synchronized PTCRISyncResult<Work> deleteWork(BigInteger putcode) {
+		mutationRequests.incrementAndGet();
+		final Work work = works.get(putcode);
+		if (work == null || !clientId.equals(work.getSource().getSourceClientId().getUriPath()))
+			return PTCRISyncResult.fail(new OrcidClientException(404, "Not found.", 9016, null));
+		works.remove(putcode);
+		return PTCRISyncResult.ok_del();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public PTCRISyncResult<Funding> deleteFunding(BigInteger putcode) {
+		throw new UnsupportedOperationException();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public synchronized PTCRISyncResult<Work> updateWork(BigInteger putcode, Work work) {
+		mutationRequests.incrementAndGet();
+		final Work old = works.get(putcode);
+		if (old == null || !clientId.equals(old.getSource().getSourceClientId().getUriPath()))
+			return PTCRISyncResult.fail(new OrcidClientException(404, "Not found.", 9016, null));
+		if (overlaps(work, putcode))
+			return PTCRISyncResult.fail(new OrcidClientException(409, "Conflict.", 9021, null));
+		final Work updated = helper.cloneE(work);
+		updated.setPutCode(putcode);
+		updated.setSource(old.getSource());
+		works.put(putcode, updated);
+		return PTCRISyncResult.ok_upd();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public PTCRISyncResult<Funding> updateFunding(BigInteger putcode, Funding funding) {
+		throw new UnsupportedOperationException();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int threads() {
+		return threads;
+	}
+
+	private BigInteger store(Work work, String source) {
+		final BigInteger putcode = BigInteger.valueOf(next++);
+		final Work stored = helper.cloneE(work);
+		stored.setPutCode(putcode);
+		final ClientId id = new ClientId();
+		id.setUriPath(source);
+		final Source src = new Source();
+		src.setSourceClientId(id);
+		stored.setSource(src);
+		works.put(putcode, stored);
+		return putcode;
+	}
+
+	/**
+	 * Whether the self identifiers of a work overlap those of another work of
+	 * this source.
+	 */
+	private boolean overlaps(Work work, BigInteger putcode) {
+		final Set<String> keys = selfKeys(work);
+		for (Work other : works.values())
+			if (!other.getPutCode().equals(putcode)
+					&& clientId.equals(other.getSource().getSourceClientId().getUriPath()))
+				for (String key : selfKeys(other))
+					if (keys.contains(key))
+						return true;
+		return false;
+	}
+
+	private static Set<String> selfKeys(Work work) {
+		final Set<String> res = new HashSet<String>();
+		for (ExternalId eid : work.getExternalIds().getExternalId())
+			if (eid.getExternalIdRelationship() == Relationship.SELF)
+				res.add(ORCIDHelper.getKey(eid));
+		return res;
+	}
+
+	/**
+	 * Groups the works by shared self identifiers, as ORCID does.
+	 */
+	private List<WorkGroup> groups() {
+		final List<List<Work>> components = new ArrayList<List<Work>>();
+		final List<Set<String>> keys = new ArrayList<Set<String>>();
+		for (Work work : works.values()) {
+			final List<Work> component = new ArrayList<Work>();
+			final Set<String> ks = selfKeys(work);
+			component.add(work);
+			for (int i = components.size() - 1; i >= 0; i--)
+				if (!Collections.disjoint(keys.get(i), ks)) {
+					component.addAll(0, components.remove(i));
+					ks.addAll(keys.remove(i));
+				}
+			components.add(component);
+			keys.add(ks);
+		}
+
+		final List<WorkGroup> res = new ArrayList<WorkGroup>();
+		for (List<Work> component : components) {
+			final WorkGroup group = new WorkGroup();
+			final Map<String, ExternalId> eids = new LinkedHashMap<String, ExternalId>();
+			for (Work work : component) {
+				group.getWorkSummary().add(helper.summarize(helper.cloneE(work)));
+				for (ExternalId eid : work.getExternalIds().getExternalId())
+					if (eid.getExternalIdRelationship() == Relationship.SELF)
+						eids.put(ORCIDHelper.getKey(eid), eid);
+			}
+			group.setExternalIds(new ExternalIds(new ArrayList<ExternalId>(eids.values())));
+			res.add(group);
+		}
+		return res;
+	}
+
+}
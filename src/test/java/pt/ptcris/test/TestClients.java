@@ -74,6 +74,23 @@ public final class TestClients {
 		return orcidClient;
 	}
 
+	/**
+	 * Retrieves an ORCID client for a given user profile using the local CRIS
+	 * Member API client id, with a given number of worker threads.
+	 * 
+	 * @param profile
+	 *            the ORCID user profile
+	 * @param threads
+	 *            the number of ORCID worker threads
+	 * @return the client for the local CRIS source to manage the user profile
+	 */
+	public static ORCIDClient getCRISClient(Profile profile, int threads) {
+		ORCIDClientImpl orcidClient = new ORCIDClientImpl(
+				orcid_login_uri, orcid_api_uri, cris_client_id, cris_client_secret, orcid_redirect_uri,
+				TestClients.getCRISAccessToken(profile.value), threads);
+		return orcidClient;
+	}
+
 	/**
 	 * Retrieves an ORCID client for a given user profile using the a Member API
 	 * client id that is not the local CRIS (used to simulate an external
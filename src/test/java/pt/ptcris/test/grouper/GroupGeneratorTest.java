@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.test.grouper;
+
+import static org.junit.Assert.*;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.um.dsi.gavea.orcid.model.work.Work;
+
+import pt.ptcris.PTCRISGrouper;
+import pt.ptcris.grouper.ActivityComparator;
+import pt.ptcris.grouper.ActivityGroup;
+import pt.ptcris.grouper.IdentifierComparator;
+import pt.ptcris.grouper.WorkTitleComparator;
+import pt.ptcris.utils.ORCIDHelper;
+
+/**
+ * Tests that the groups maintained as a disjoint-set forest are the
+ * connected components of comparing every pair of activities, and that
+ * groups are ordered by their earliest activity.
+ */
+public class GroupGeneratorTest {
+
+	private final SyntheticWorks data = new SyntheticWorks(500, 0.3, 0.02, 0.7, 42);
+
+	@Test
+	public void groupsByIdentifiersAsAllPairs() {
+		ActivityComparator<Work> ids = new IdentifierComparator<Work>(ORCIDHelper.factoryStaticWorks());
+		assertEquals(Groupings.components(data.works, ids),
+				Groupings.partition(PTCRISGrouper.group(data.works, ids)));
+	}
+
+	@Test
+	public void groupsByTitlesAsAllPairs() {
+		ActivityComparator<Work> titles = new WorkTitleComparator();
+		assertEquals(Groupings.components(data.works, titles),
+				Groupings.partition(PTCRISGrouper.group(data.works, titles)));
+	}
+
+	@Test
+	public void ordersByEarliestActivity() {
+		Map<Work, Integer> positions = new IdentityHashMap<Work, Integer>();
+		for (Work work : data.works)
+			positions.put(work, positions.size());
+
+		List<ActivityGroup<Work>> groups = PTCRISGrouper.group(data.works, new WorkTitleComparator());
+		int last = -1;
+		for (ActivityGroup<Work> group : groups) {
+			int first = Integer.MAX_VALUE;
+			for (Work work : group.getActivities())
+				first = Math.min(first, positions.get(work));
+			assertTrue(first > last);
+			last = first;
+		}
+	}
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.test.grouper;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+import org.um.dsi.gavea.orcid.model.work.Work;
+
+import pt.ptcris.PTCRISGrouper;
+import pt.ptcris.grouper.ActivityGroup;
+import pt.ptcris.grouper.IdentifierComparator;
+import pt.ptcris.grouper.WorkTitleComparator;
+import pt.ptcris.utils.ORCIDHelper;
+
+/**
+ * Benchmarks the grouping strategies over {@link SyntheticWorks synthetic
+ * works}, reporting for each the average time and throughput after warm-up,
+ * the pairwise precision and recall against the ground truth, and whether
+ * the groups are the same as those of the reference strategy of its kind.
+ *
+ * Usage: GrouperBenchmark [size [duplicates [noise [overlap [iterations]]]]]
+ */
+public class GrouperBenchmark {
+
+	private static final class Strategy {
+		final String name;
+		final String reference;
+		final Function<List<Work>, List<ActivityGroup<Work>>> grouper;
+
+		Strategy(String name, String reference, Function<List<Work>, List<ActivityGroup<Work>>> grouper) {
+			this.name = name;
+			this.reference = reference;
+			this.grouper = grouper;
+		}
+	}
+
+	public static void main(String[] args) {
+		int size = args.length > 0 ? Integer.valueOf(args[0]) : 10000;
+		double duplicates = args.length > 1 ? Double.valueOf(args[1]) : 0.3;
+		double noise = args.length > 2 ? Double.valueOf(args[2]) : 0.02;
+		double overlap = args.length > 3 ? Double.valueOf(args[3]) : 0.7;
+		int iterations = args.length > 4 ? Integer.valueOf(args[4]) : 5;
+
+		SyntheticWorks data = new SyntheticWorks(size, duplicates, noise, overlap, 42);
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+
+		List<Strategy> strategies = new ArrayList<Strategy>();
+		strategies.add(new Strategy("identifiers", null,
+				ws -> PTCRISGrouper.group(ws, new IdentifierComparator<Work>(ORCIDHelper.factoryStaticWorks()))));
+		strategies.add(new Strategy("identifiers-hash-join", "identifiers",
+				ws -> PTCRISGrouper.groupWorksByIdentifiers(ws)));
+		strategies.add(new Strategy("identifiers-parallel", "identifiers",
+				ws -> PTCRISGrouper.group(ws, new IdentifierComparator<Work>(ORCIDHelper.factoryStaticWorks()), pool)));
+		strategies.add(new Strategy("titles-lsh", null,
+				ws -> PTCRISGrouper.group(ws, new WorkTitleComparator())));
+		strategies.add(new Strategy("titles-lsh-parallel", "titles-lsh",
+				ws -> PTCRISGrouper.group(ws, new WorkTitleComparator(), pool)));
+		if (size <= 5000)
+			strategies.add(new Strategy("titles-all-pairs", "titles-lsh",
+					ws -> PTCRISGrouper.group(ws, new WorkTitleComparator() {
+						@Override
+						public Collection<String> blockingKeysFeatures(WorkTitleComparator.Features f) {
+							return null;
+						}
+					})));
+
+		System.out.println(String.format("%d works, %.2f duplicates, %.2f noise, %.2f overlap, %d iterations", size,
+				duplicates, noise, overlap, iterations));
+		System.out.println(String.format("%-24s %10s %12s %8s %10s %8s %s", "strategy", "ms/op", "works/s",
+				"groups", "precision", "recall", "same as reference"));
+
+		Map<String, Set<Set<Work>>> partitions = new LinkedHashMap<String, Set<Set<Work>>>();
+		for (Strategy s : strategies) {
+			// warm-up
+			List<ActivityGroup<Work>> groups = null;
+			for (int i = 0; i < Math.max(1, iterations / 2); i++)
+				groups = s.grouper.apply(data.works);
+
+			long start = System.nanoTime();
+			for (int i = 0; i < iterations; i++)
+				groups = s.grouper.apply(data.works);
+			double ms = (System.nanoTime() - start) / 1e6 / iterations;
+
+			double[] accuracy = data.accuracy(groups);
+			partitions.put(s.name, partition(groups));
+			String same = s.reference == null ? "-"
+					: String.valueOf(partitions.get(s.reference).equals(partitions.get(s.name)));
+			System.out.println(String.format("%-24s %10.1f %12.0f %8d %10.4f %8.4f %s", s.name, ms,
+					size / ms * 1000, groups.size(), accuracy[0], accuracy[1], same));
+		}
+	}
+
+	private static Set<Set<Work>> partition(List<ActivityGroup<Work>> groups) {
+		Set<Set<Work>> res = new HashSet<Set<Work>>();
+		for (ActivityGroup<Work> g : groups) {
+			Set<Work> s = Collections.newSetFromMap(new IdentityHashMap<Work, Boolean>());
+			s.addAll(g.getActivities());
+			res.add(s);
+		}
+		return res;
+	}
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.test.grouper;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.um.dsi.gavea.orcid.model.work.Work;
+
+import pt.ptcris.grouper.ActivityComparator;
+import pt.ptcris.grouper.ActivityGroup;
+
+/**
+ * Utilities to compare the groups produced by different groupers.
+ */
+public final class Groupings {
+
+	private Groupings() {
+	}
+
+	/**
+	 * The connected components of a set of works under a comparator,
+	 * comparing every pair.
+	 *
+	 * @param works
+	 *            the works to be grouped
+	 * @param comparator
+	 *            the comparator
+	 * @return the components, as identity sets of works
+	 */
+	public static Set<Set<Work>> components(List<Work> works, ActivityComparator<Work> comparator) {
+		final int[] component = new int[works.size()];
+		for (int i = 0; i < works.size(); i++)
+			component[i] = i;
+		for (int i = 0; i < works.size(); i++)
+			for (int j = 0; j < i; j++)
+				if (component[i] != component[j]
+						&& comparator.compare(works.get(j), works.get(i)) >= comparator.threshold()) {
+					final int from = component[i], to = component[j];
+					for (int k = 0; k < works.size(); k++)
+						if (component[k] == from)
+							component[k] = to;
+				}
+
+		final List<Set<Work>> sets = new ArrayList<Set<Work>>();
+		for (int i = 0; i < works.size(); i++)
+			sets.add(Collections.newSetFromMap(new IdentityHashMap<Work, Boolean>()));
+		for (int i = 0; i < works.size(); i++)
+			sets.get(component[i]).add(works.get(i));
+		final Set<Set<Work>> res = new HashSet<Set<Work>>();
+		for (Set<Work> set : sets)
+			if (!set.isEmpty())
+				res.add(set);
+		return res;
+	}
+
+	/**
+	 * The partition of the works induced by a list of groups, disregarding
+	 * the order of the groups.
+	 *
+	 * @param groups
+	 *            the groups
+	 * @return the groups, as identity sets of works
+	 */
+	public static Set<Set<Work>> partition(List<ActivityGroup<Work>> groups) {
+		final Set<Set<Work>> res = new HashSet<Set<Work>>();
+		for (ActivityGroup<Work> group : groups) {
+			final Set<Work> set = Collections.newSetFromMap(new IdentityHashMap<Work, Boolean>());
+			set.addAll(group.getActivities());
+			res.add(set);
+		}
+		return res;
+	}
+
+	/**
+	 * The put-codes of the works of each group, in the order of the groups,
+	 * for groups of copies of the works.
+	 *
+	 * @param groups
+	 *            the groups
+	 * @return the put-codes of each group
+	 */
+	public static List<Set<BigInteger>> keys(Iterable<ActivityGroup<Work>> groups) {
+		final List<Set<BigInteger>> res = new ArrayList<Set<BigInteger>>();
+		for (ActivityGroup<Work> group : groups) {
+			final Set<BigInteger> keys = new HashSet<BigInteger>();
+			for (Work work : group.getActivities())
+				keys.add(work.getPutCode());
+			res.add(keys);
+		}
+		return res;
+	}
+
+}
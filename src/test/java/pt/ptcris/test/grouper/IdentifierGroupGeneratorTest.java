@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.test.grouper;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.um.dsi.gavea.orcid.model.work.Work;
+
+import pt.ptcris.PTCRISGrouper;
+import pt.ptcris.grouper.IdentifierComparator;
+import pt.ptcris.test.TestHelper;
+import pt.ptcris.utils.ORCIDHelper;
+
+/**
+ * Tests that joining works by their self external identifiers yields the
+ * groups of comparing them with the identifier comparator, in the same order.
+ */
+public class IdentifierGroupGeneratorTest {
+
+	private final SyntheticWorks data = new SyntheticWorks(1000, 0.3, 0.02, 0.7, 42);
+
+	@Test
+	public void groupsAsIdentifierComparator() {
+		List<Set<BigInteger>> compared = Groupings.keys(PTCRISGrouper.group(data.works,
+				new IdentifierComparator<Work>(ORCIDHelper.factoryStaticWorks())));
+		assertEquals(compared, Groupings.keys(PTCRISGrouper.groupWorksByIdentifiers(data.works)));
+	}
+
+	@Test
+	public void groupsTransitivelyAndAlone() {
+		Work w1 = TestHelper.workDOI(BigInteger.valueOf(1), "1", "1");
+		Work w2 = TestHelper.work(BigInteger.valueOf(2), "1");
+		Work w3 = TestHelper.workDOIEID(BigInteger.valueOf(3), "1", "1", "3");
+		Work w4 = TestHelper.workDOIEID(BigInteger.valueOf(4), "1", "4", "3");
+		Work w5 = TestHelper.work(BigInteger.valueOf(5), "1");
+
+		assertEquals(Arrays.asList(keys(1, 3, 4), keys(2), keys(5)),
+				Groupings.keys(PTCRISGrouper.groupWorksByIdentifiers(Arrays.asList(w1, w2, w3, w4, w5))));
+	}
+
+	private static Set<BigInteger> keys(int... keys) {
+		final Set<BigInteger> res = new HashSet<BigInteger>();
+		for (int key : keys)
+			res.add(BigInteger.valueOf(key));
+		return res;
+	}
+
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.test.grouper;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Field;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+import org.junit.Test;
+import org.um.dsi.gavea.orcid.model.work.Work;
+
+import pt.ptcris.PTCRISGrouper;
+import pt.ptcris.grouper.ActivityComparator;
+import pt.ptcris.grouper.IdentifierComparator;
+import pt.ptcris.grouper.IncrementalGroupGenerator;
+import pt.ptcris.grouper.IncrementalGroupGenerator.Change;
+import pt.ptcris.grouper.PairScoreCache;
+import pt.ptcris.grouper.WorkTitleComparator;
+import pt.ptcris.test.TestHelper;
+import pt.ptcris.utils.ORCIDHelper;
+
+/**
+ * Tests that adding and removing activities incrementally yields the groups
+ * of grouping the remaining activities at once, also when caching scores,
+ * that the changes to the groups are reported, and that activities added
+ * again under the same key recover their cached scores.
+ */
+public class IncrementalGroupGeneratorTest {
+
+	private final SyntheticWorks data = new SyntheticWorks(1000, 0.3, 0.02, 0.7, 42);
+
+	@Test
+	public void groupsByIdentifiersAsBatch() {
+		assertBatch(new IdentifierComparator<Work>(ORCIDHelper.factoryStaticWorks()));
+	}
+
+	@Test
+	public void groupsByTitlesAsBatch() {
+		assertBatch(new WorkTitleComparator());
+	}
+
+	@Test
+	public void groupsWithCacheAsBatch() {
+		assertBatch(new WorkTitleComparator(), new PairScoreCache(1 << 12), Work::getPutCode);
+	}
+
+	@Test
+	public void renumbersExhaustedCacheIdentifiers() throws Exception {
+		PairScoreCache cache = new PairScoreCache(1 << 12);
+		IncrementalGroupGenerator<Work> gen = new IncrementalGroupGenerator<Work>(new WorkTitleComparator(), cache,
+				Work::getPutCode);
+		Field next = IncrementalGroupGenerator.class.getDeclaredField("nextCacheId");
+		next.setAccessible(true);
+		next.setInt(gen, Integer.MAX_VALUE - 10);
+		// the identifiers are exhausted after a few additions
+		assertBatch(gen, new WorkTitleComparator());
+		assertTrue(next.getInt(gen) < Integer.MAX_VALUE - 10);
+	}
+
+	@Test
+	public void recoversScoresOfKeyedActivities() {
+		List<Work> works = data.works.subList(0, 200);
+		Work work = works.get(100);
+
+		PairScoreCache cache = new PairScoreCache(1 << 16);
+		IncrementalGroupGenerator<Work> gen = new IncrementalGroupGenerator<Work>(new WorkTitleComparator(), cache,
+				Work::getPutCode);
+		for (Work w : works)
+			gen.add(w);
+		long misses = cache.misses();
+		gen.remove(work);
+		gen.add(work);
+		assertEquals(misses, cache.misses());
+		assertEquals(0, cache.evictions());
+
+		// without keys, removed activities are forgotten
+		cache = new PairScoreCache(1 << 16);
+		gen = new IncrementalGroupGenerator<Work>(new WorkTitleComparator(), cache);
+		for (Work w : works)
+			gen.add(w);
+		misses = cache.misses();
+		gen.remove(work);
+		gen.add(work);
+		assertTrue(cache.misses() > misses);
+	}
+
+	@Test
+	public void reportsChanges() {
+		IncrementalGroupGenerator<Work> gen = new IncrementalGroupGenerator<Work>(
+				new IdentifierComparator<Work>(ORCIDHelper.factoryStaticWorks()));
+		Work w1 = TestHelper.workDOIEID(BigInteger.valueOf(1), "1", "1", "1");
+		Work w2 = TestHelper.workDOIEID(BigInteger.valueOf(2), "1", "2", "2");
+		Work w3 = TestHelper.workDOIEID(BigInteger.valueOf(3), "1", "1", "2");
+		Work w4 = TestHelper.workDOIEID(BigInteger.valueOf(4), "1", "1", "4");
+
+		assertEquals(Change.Kind.CREATED, gen.add(w1).kind);
+		assertEquals(Change.Kind.CREATED, gen.add(w2).kind);
+		Change<Work> merged = gen.add(w3);
+		assertEquals(Change.Kind.MERGED, merged.kind);
+		assertEquals(1, merged.deleted.size());
+		assertEquals(Change.Kind.JOINED, gen.add(w4).kind);
+		assertEquals(1, gen.getGroups().size());
+
+		// the DOI of the first keeps the fourth
+		Change<Work> split = gen.remove(w3);
+		assertEquals(Change.Kind.SPLIT, split.kind);
+		assertEquals(1, split.created.size());
+		assertEquals(2, gen.getGroups().size());
+		assertEquals(Change.Kind.LEFT, gen.remove(w4).kind);
+		assertEquals(Change.Kind.DELETED, gen.remove(w2).kind);
+		assertNull(gen.remove(w2));
+		assertEquals(1, gen.getGroups().size());
+	}
+
+	/**
+	 * Adds the works, removing a random one after some additions and adding
+	 * some of the removed ones back, and compares the groups with those of
+	 * the remaining works.
+	 */
+	private void assertBatch(ActivityComparator<Work> comparator) {
+		assertBatch(new IncrementalGroupGenerator<Work>(comparator), comparator);
+	}
+
+	private void assertBatch(ActivityComparator<Work> comparator, PairScoreCache cache,
+			Function<Work, BigInteger> key) {
+		assertBatch(new IncrementalGroupGenerator<Work>(comparator, cache, key), comparator);
+	}
+
+	private void assertBatch(IncrementalGroupGenerator<Work> gen, ActivityComparator<Work> comparator) {
+		Random random = new Random(42);
+		List<Work> remaining = new ArrayList<Work>(), removed = new ArrayList<Work>();
+		for (Work work : data.works) {
+			gen.add(work);
+			remaining.add(work);
+			if (random.nextInt(4) == 0) {
+				Work gone = remaining.remove(random.nextInt(remaining.size()));
+				assertNotNull(gen.remove(gone));
+				removed.add(gone);
+			}
+			if (random.nextInt(8) == 0 && !removed.isEmpty()) {
+				Work back = removed.remove(random.nextInt(removed.size()));
+				gen.add(back);
+				remaining.add(back);
+			}
+		}
+		assertEquals(Groupings.partition(PTCRISGrouper.group(remaining, comparator)),
+				Groupings.partition(gen.getGroups()));
+	}
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.test.grouper;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Test;
+import org.um.dsi.gavea.orcid.model.work.Work;
+
+import pt.ptcris.PTCRISGrouper;
+import pt.ptcris.grouper.ActivityComparator;
+import pt.ptcris.grouper.IdentifierComparator;
+import pt.ptcris.grouper.WorkTitleComparator;
+import pt.ptcris.utils.ORCIDHelper;
+
+/**
+ * Tests that grouping in parallel yields the same groups as grouping
+ * sequentially, in the same order, independently of the scheduling of the
+ * threads.
+ */
+public class ParallelGroupGeneratorTest {
+
+	private final SyntheticWorks data = new SyntheticWorks(1000, 0.3, 0.02, 0.7, 42);
+	private final ForkJoinPool pool = new ForkJoinPool(4);
+
+	@After
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	@Test
+	public void groupsByIdentifiersAsSequentially() {
+		assertSequential(new IdentifierComparator<Work>(ORCIDHelper.factoryStaticWorks()));
+	}
+
+	@Test
+	public void groupsByTitlesAsSequentially() {
+		assertSequential(new WorkTitleComparator());
+	}
+
+	private void assertSequential(ActivityComparator<Work> comparator) {
+		List<Set<BigInteger>> sequential = Groupings.keys(PTCRISGrouper.group(data.works, comparator));
+		for (int i = 0; i < 3; i++)
+			assertEquals(sequential, Groupings.keys(PTCRISGrouper.group(data.works, comparator, pool)));
+	}
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.test.grouper;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.um.dsi.gavea.orcid.model.work.Work;
+
+import pt.ptcris.PTCRISGrouper;
+import pt.ptcris.grouper.ActivityComparator;
+import pt.ptcris.grouper.ActivityGroup;
+import pt.ptcris.grouper.IdentifierComparator;
+import pt.ptcris.grouper.StreamingGroupGenerator;
+import pt.ptcris.grouper.WorkTitleComparator;
+import pt.ptcris.utils.ORCIDHelper;
+
+/**
+ * Tests that grouping through spilled partitions yields the groups of
+ * grouping in memory, in the same order, that no pair of activities is
+ * compared twice within a partition, and that the spilled files are
+ * discarded.
+ */
+public class StreamingGroupGeneratorTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final SyntheticWorks data = new SyntheticWorks(1000, 0.3, 0.02, 0.7, 42);
+
+	@Test
+	public void groupsByIdentifiersAsInMemory() throws IOException {
+		assertInMemory(new IdentifierComparator<Work>(ORCIDHelper.factoryStaticWorks()));
+	}
+
+	@Test
+	public void groupsByTitlesAsInMemory() throws IOException {
+		assertInMemory(new WorkTitleComparator());
+	}
+
+	@Test
+	public void comparesPairsOnce() throws IOException {
+		CountingComparator titles = new CountingComparator();
+		assertEquals(Groupings.keys(PTCRISGrouper.group(data.works, new WorkTitleComparator())),
+				stream(titles, 1));
+		for (Map<Object, Integer> pairs : titles.pairs.values())
+			for (int count : pairs.values())
+				assertEquals(1, count);
+	}
+
+	private void assertInMemory(ActivityComparator<Work> comparator) throws IOException {
+		List<Set<BigInteger>> grouped = Groupings.keys(PTCRISGrouper.group(data.works, comparator));
+		assertEquals(grouped, stream(comparator, 8));
+		assertEquals(0, folder.getRoot().list().length);
+	}
+
+	private List<Set<BigInteger>> stream(ActivityComparator<Work> comparator, int partitions) throws IOException {
+		final List<ActivityGroup<Work>> streamed = new ArrayList<ActivityGroup<Work>>();
+		try (StreamingGroupGenerator<Work> streaming = new StreamingGroupGenerator<Work>(comparator,
+				folder.getRoot().toPath(), partitions)) {
+			Iterator<ActivityGroup<Work>> it = streaming.group(data.works.iterator());
+			while (it.hasNext())
+				streamed.add(it.next());
+		}
+		return Groupings.keys(streamed);
+	}
+
+	/**
+	 * A title comparator that counts the comparisons of each pair of
+	 * features, which are computed once per activity within a partition.
+	 */
+	private static final class CountingComparator extends WorkTitleComparator {
+		private final Map<Object, Map<Object, Integer>> pairs = new IdentityHashMap<Object, Map<Object, Integer>>();
+
+		@Override
+		public float compareFeatures(Features f1, Features f2) {
+			Map<Object, Integer> counts = pairs.get(f1);
+			if (counts == null) {
+				counts = new IdentityHashMap<Object, Integer>();
+				pairs.put(f1, counts);
+			}
+			final Integer count = counts.get(f2);
+			counts.put(f2, count == null ? 1 : count + 1);
+			return super.compareFeatures(f1, f2);
+		}
+	}
+
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.test.grouper;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.um.dsi.gavea.orcid.model.common.ExternalId;
+import org.um.dsi.gavea.orcid.model.common.ExternalIds;
+import org.um.dsi.gavea.orcid.model.common.FuzzyDate;
+import org.um.dsi.gavea.orcid.model.common.FuzzyDate.Day;
+import org.um.dsi.gavea.orcid.model.common.FuzzyDate.Month;
+import org.um.dsi.gavea.orcid.model.common.FuzzyDate.Year;
+import org.um.dsi.gavea.orcid.model.common.Relationship;
+import org.um.dsi.gavea.orcid.model.common.WorkType;
+import org.um.dsi.gavea.orcid.model.work.Work;
+import org.um.dsi.gavea.orcid.model.work.WorkTitle;
+
+import pt.ptcris.grouper.ActivityGroup;
+
+/**
+ * A generator of synthetic collections of works with known duplicates, to
+ * benchmark groupers and measure their accuracy. Each work is a record of an
+ * underlying publication (the ground truth), and duplicate records may have
+ * noisy titles and may or may not carry the DOI of the publication.
+ */
+public class SyntheticWorks {
+
+	private static final String[] WORDS = ("analysis study effects model models learning network networks "
+			+ "deep neural graph protein structure quantum systems bayesian inference large scale distributed "
+			+ "computing climate change coastal regions novel methods evaluation approach data mining "
+			+ "optimization control adaptive robust estimation survey framework towards efficient").split(" ");
+
+	/** The generated works. */
+	public final List<Work> works;
+	/** The publication of each work, the ground truth. */
+	public final Map<Work, Integer> truth;
+
+	/**
+	 * Generates a collection of works.
+	 *
+	 * @param size
+	 *            the number of works
+	 * @param duplicates
+	 *            the fraction of works that are duplicates of a previous one
+	 * @param noise
+	 *            the probability of each character of a duplicate title
+	 *            being replaced
+	 * @param overlap
+	 *            the probability of a work carrying the DOI of its
+	 *            publication
+	 * @param seed
+	 *            the seed of the generator
+	 */
+	public SyntheticWorks(int size, double duplicates, double noise, double overlap, long seed) {
+		final Random random = new Random(seed);
+		final List<String> titles = new ArrayList<String>();
+		final List<Integer> years = new ArrayList<Integer>();
+		final List<Work> works = new ArrayList<Work>(size);
+		final Map<Work, Integer> truth = new IdentityHashMap<Work, Integer>();
+
+		for (int i = 0; i < size; i++) {
+			final int pub;
+			String title;
+			if (titles.isEmpty() || random.nextDouble() >= duplicates) {
+				pub = titles.size();
+				final StringBuilder sb = new StringBuilder();
+				for (int w = 6 + random.nextInt(8); w > 0; w--)
+					sb.append(WORDS[random.nextInt(WORDS.length)]).append(w > 1 ? " " : "");
+				titles.add(sb.toString());
+				years.add(1990 + random.nextInt(30));
+				title = titles.get(pub);
+			} else {
+				pub = random.nextInt(titles.size());
+				final char[] cs = titles.get(pub).toCharArray();
+				for (int c = 0; c < cs.length; c++)
+					if (random.nextDouble() < noise)
+						cs[c] = (char) ('a' + random.nextInt(26));
+				title = new String(cs);
+				if (random.nextBoolean())
+					title = title.toUpperCase();
+			}
+			final String doi = random.nextDouble() < overlap ? "10.1000/" + pub : null;
+			final Work work = work(BigInteger.valueOf(i), title, years.get(pub), doi);
+			works.add(work);
+			truth.put(work, pub);
+		}
+		this.works = Collections.unmodifiableList(works);
+		this.truth = Collections.unmodifiableMap(truth);
+	}
+
+	/**
+	 * The pairwise precision and recall of a grouping against the ground
+	 * truth: the fraction of the pairs of works grouped together that are
+	 * records of the same publication, and the fraction of the pairs of
+	 * records of the same publication that are grouped together.
+	 *
+	 * @param groups
+	 *            the grouping
+	 * @return the precision and the recall
+	 */
+	public double[] accuracy(List<ActivityGroup<Work>> groups) {
+		long predicted = 0, correct = 0, actual = 0;
+		final Map<Integer, Integer> sizes = new HashMap<Integer, Integer>();
+		for (ActivityGroup<Work> g : groups) {
+			final Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+			for (Work w : g.getActivities())
+				counts.merge(truth.get(w), 1, Integer::sum);
+			predicted += pairs(g.getActivities().size());
+			for (int c : counts.values())
+				correct += pairs(c);
+		}
+		for (Integer pub : truth.values())
+			sizes.merge(pub, 1, Integer::sum);
+		for (int c : sizes.values())
+			actual += pairs(c);
+		return new double[] { predicted == 0 ? 1 : (double) correct / predicted,
+				actual == 0 ? 1 : (double) correct / actual };
+	}
+
+	private static long pairs(long n) {
+		return n * (n - 1) / 2;
+	}
+
+	private static Work work(BigInteger key, String title, int year, String doi) {
+		Work work = new Work();
+
+		ExternalIds uids = new ExternalIds();
+		work.setExternalIds(uids);
+		work.setPutCode(key);
+
+		WorkTitle t = new WorkTitle();
+		t.setTitle(title);
+		work.setTitle(t);
+		work.setType(WorkType.JOURNAL_ARTICLE);
+		work.setPublicationDate(new FuzzyDate(new Year(year), new Month(1), new Day(1)));
+
+		if (doi != null) {
+			ExternalId e1 = new ExternalId();
+			e1.setExternalIdRelationship(Relationship.SELF);
+			e1.setExternalIdValue(doi);
+			e1.setExternalIdType("doi");
+			work.getExternalIds().getExternalId().add(e1);
+		}
+
+		return work;
+	}
+
+}
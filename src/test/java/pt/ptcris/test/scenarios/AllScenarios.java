@@ -64,6 +64,7 @@ import org.junit.runners.Suite;
     ScenarioF20.class,
     ScenarioFIgnoredTypes.class,
     ScenarioFInvalidLocal.class,
+    ScenarioPlanExecution.class,
 //    ScenarioPerformance.class,
 //    ScenarioPerformance2.class
 })
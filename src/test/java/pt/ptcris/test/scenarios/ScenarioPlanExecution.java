@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.test.scenarios;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.um.dsi.gavea.orcid.model.work.Work;
+import org.um.dsi.gavea.orcid.model.work.WorkSummary;
+
+import pt.ptcris.PTCRISync;
+import pt.ptcris.PTCRISyncResult;
+import pt.ptcris.SyncPlan;
+import pt.ptcris.handlers.ProgressHandler;
+import pt.ptcris.test.TestClients;
+import pt.ptcris.test.TestClients.Profile;
+import pt.ptcris.test.TestHelper;
+import pt.ptcris.utils.ORCIDWorkHelper;
+
+/**
+ * Tests that exporting through an explicitly computed plan, executed either
+ * sequentially or concurrently, has the same outcome as the export procedure,
+ * over the fixtures of the export scenarios.
+ * 
+ * @see Scenario
+ */
+public class ScenarioPlanExecution {
+
+	// scenario 14 is left out, since which local work updates the shared ORCID work is unspecified
+	private static final Scenario[] scenarios = { new Scenario11(), new Scenario13(), new Scenario17(),
+			new Scenario18(), new Scenario19() };
+
+	@Test
+	public void test() throws Exception {
+		for (Scenario scenario : scenarios) {
+			Map<BigInteger, Integer> exported = export(scenario, 1, false);
+
+			assertEquals(exported, export(scenario, 1, true));
+			assertEquals(exported, export(scenario, 4, true));
+		}
+	}
+
+	/**
+	 * Exports the local works of a scenario over its CRIS-sourced fixture,
+	 * either through the export procedure or through a plan.
+	 * 
+	 * @param scenario
+	 *            the scenario defining the fixture and the local works
+	 * @param threads
+	 *            the number of ORCID worker threads
+	 * @param planned
+	 *            whether the export is performed through a plan
+	 * @return the outcome code of each local work
+	 */
+	private static Map<BigInteger, Integer> export(Scenario scenario, int threads, boolean planned)
+			throws Exception {
+		ORCIDWorkHelper helper = new ORCIDWorkHelper(TestClients.getCRISClient(Profile.EMPTYWORKS, threads));
+		ProgressHandler handler = TestHelper.handler();
+		TestHelper.cleanUp(helper);
+		helper.add(scenario.setupORCIDCRISWorks(), null);
+
+		Map<BigInteger, PTCRISyncResult<Work>> results;
+		if (planned) {
+			SyncPlan<Work, WorkSummary> plan = PTCRISync.planExportWorks(helper, scenario.exportLocalWorks(), handler);
+			results = PTCRISync.exportPlan(helper, plan, handler, null);
+		} else
+			results = PTCRISync.exportWorks(helper, scenario.exportLocalWorks(), handler);
+		TestHelper.cleanUp(helper);
+
+		Map<BigInteger, Integer> codes = new HashMap<BigInteger, Integer>();
+		for (Map.Entry<BigInteger, PTCRISyncResult<Work>> result : results.entrySet())
+			codes.put(result.getKey(), result.getValue().code);
+		return codes;
+	}
+
+}
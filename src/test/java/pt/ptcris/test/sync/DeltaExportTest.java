@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.test.sync;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.um.dsi.gavea.orcid.model.work.Work;
+
+import pt.ptcris.ExportState;
+import pt.ptcris.PTCRISync;
+import pt.ptcris.PTCRISyncResult;
+import pt.ptcris.test.MemoryClient;
+import pt.ptcris.test.TestHelper;
+
+/**
+ * Tests the transitions of the export state by the delta export procedure:
+ * novel local activities are added and recorded, unchanged ones are skipped
+ * without retrieving the summaries, modified ones are updated in place,
+ * removed ones are deleted and forgotten, and those that become invalid,
+ * including by overlapping each other, are deleted and forgotten.
+ */
+public class DeltaExportTest {
+
+	private static final BigInteger K1 = BigInteger.valueOf(1), K2 = BigInteger.valueOf(2),
+			K3 = BigInteger.valueOf(3);
+
+	@Test
+	public void addsNovelActivities() throws Exception {
+		MemoryClient client = client();
+		ExportState state = new ExportState();
+
+		Map<BigInteger, PTCRISyncResult<Work>> result = export(client, state, works(
+				TestHelper.workDOI(K1, "1", "1"), TestHelper.workDOI(K2, "2", "2")));
+		assertEquals(PTCRISyncResult.ADDOK, result.get(K1).code);
+		assertEquals(PTCRISyncResult.ADDOK, result.get(K2).code);
+		assertEquals(2, state.size());
+		assertEquals(result.get(K1).putcode, state.get(K1).putcode);
+		assertEquals(result.get(K2).putcode, state.get(K2).putcode);
+		assertEquals(client.getWorks().keySet(),
+				new HashSet<BigInteger>(Arrays.asList(state.get(K1).putcode, state.get(K2).putcode)));
+	}
+
+	@Test
+	public void skipsUnchangedActivities() throws Exception {
+		MemoryClient client = client();
+		ExportState state = exported(client);
+		ExportState.Entry entry = state.get(K1);
+
+		int summaries = client.summaryRequests.get(), mutations = client.mutationRequests.get();
+		Map<BigInteger, PTCRISyncResult<Work>> result = export(client, state, works(TestHelper.workDOI(K1, "1", "1")));
+		assertEquals(PTCRISyncResult.UPTODATE, result.get(K1).code);
+		assertEquals(summaries, client.summaryRequests.get());
+		assertEquals(mutations, client.mutationRequests.get());
+		assertSame(entry, state.get(K1));
+	}
+
+	@Test
+	public void updatesModifiedActivities() throws Exception {
+		MemoryClient client = client();
+		ExportState state = exported(client);
+		ExportState.Entry entry = state.get(K1);
+
+		int mutations = client.mutationRequests.get();
+		Map<BigInteger, PTCRISyncResult<Work>> result = export(client, state, works(TestHelper.workDOI(K1, "9", "1")));
+		assertEquals(PTCRISyncResult.UPDATEOK, result.get(K1).code);
+		assertEquals(mutations + 1, client.mutationRequests.get());
+		assertEquals(entry.putcode, state.get(K1).putcode);
+		assertNotEquals(entry.fingerprint, state.get(K1).fingerprint);
+		assertEquals("Meta-data 9", client.getWorks().get(entry.putcode).getTitle().getTitle());
+		assertEquals(2, client.getWorks().size());
+	}
+
+	@Test
+	public void deletesRemovedActivities() throws Exception {
+		MemoryClient client = client();
+		ExportState state = exported(client);
+		BigInteger putcode = state.get(K2).putcode;
+
+		Map<BigInteger, PTCRISyncResult<Work>> result = PTCRISync.exportWorksDelta(client, new ArrayList<Work>(),
+				Collections.singletonList(K2), state, TestHelper.handler());
+		assertEquals(PTCRISyncResult.DELETEOK, result.get(K2).code);
+		assertNull(state.get(K2));
+		assertNotNull(state.get(K1));
+		assertFalse(client.getWorks().containsKey(putcode));
+		assertEquals(1, client.getWorks().size());
+	}
+
+	@Test
+	public void deletesInvalidActivities() throws Exception {
+		MemoryClient client = client();
+		ExportState state = exported(client);
+
+		Map<BigInteger, PTCRISyncResult<Work>> result = export(client, state, works(TestHelper.work(K1, "1")));
+		assertEquals(PTCRISyncResult.INVALID, result.get(K1).code);
+		assertNull(state.get(K1));
+		assertEquals(1, client.getWorks().size());
+	}
+
+	@Test
+	public void rejectsOverlappingUpdates() throws Exception {
+		MemoryClient client = client();
+		ExportState state = exported(client);
+
+		// both previously exported works are updated to share a DOI
+		Map<BigInteger, PTCRISyncResult<Work>> result = export(client, state, works(
+				TestHelper.workDOIHANDLE(K1, "1", "1", "1"), TestHelper.workDOIHANDLE(K2, "2", "2", "1")));
+		assertEquals(PTCRISyncResult.INVALID, result.get(K1).code);
+		assertEquals(PTCRISyncResult.INVALID, result.get(K2).code);
+		assertEquals(0, state.size());
+		assertTrue(client.getWorks().isEmpty());
+	}
+
+	@Test
+	public void rejectsOverlappingAdditions() throws Exception {
+		MemoryClient client = client();
+		ExportState state = exported(client);
+
+		// a novel work shares the DOI of a modified previously exported work
+		Map<BigInteger, PTCRISyncResult<Work>> result = export(client, state, works(
+				TestHelper.workDOI(K1, "9", "1"), TestHelper.workDOI(K3, "3", "1")));
+		assertEquals(PTCRISyncResult.INVALID, result.get(K1).code);
+		assertEquals(PTCRISyncResult.INVALID, result.get(K3).code);
+		assertNull(state.get(K1));
+		assertNull(state.get(K3));
+		assertEquals(1, client.getWorks().size());
+	}
+
+	@Test
+	public void rejectsOverlapsWithUnchanged() throws Exception {
+		MemoryClient client = client();
+		ExportState state = exported(client);
+		ExportState.Entry entry = state.get(K2);
+
+		// a modified work shares the DOI of a work that is not part of the export
+		Map<BigInteger, PTCRISyncResult<Work>> result = export(client, state, works(TestHelper.workDOI(K1, "9", "2")));
+		assertEquals(PTCRISyncResult.INVALID, result.get(K1).code);
+		assertNull(state.get(K1));
+		assertSame(entry, state.get(K2));
+		assertEquals(1, client.getWorks().size());
+	}
+
+	private static MemoryClient client() {
+		return new MemoryClient("APP-DELTA", "0000-0000-0000-0001", 1);
+	}
+
+	/**
+	 * Exports two works to a profile, returning the resulting state.
+	 */
+	private static ExportState exported(MemoryClient client) throws Exception {
+		ExportState state = new ExportState();
+		export(client, state, works(TestHelper.workDOI(K1, "1", "1"), TestHelper.workDOI(K2, "2", "2")));
+		assertEquals(2, state.size());
+		return state;
+	}
+
+	private static Map<BigInteger, PTCRISyncResult<Work>> export(MemoryClient client, ExportState state,
+			List<Work> changed) throws Exception {
+		return PTCRISync.exportWorksDelta(client, changed, new ArrayList<BigInteger>(), state, TestHelper.handler());
+	}
+
+	private static List<Work> works(Work... works) {
+		return new ArrayList<Work>(Arrays.asList(works));
+	}
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.test.sync;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+import org.um.dsi.gavea.orcid.model.work.Work;
+
+import pt.ptcris.PTCRISync;
+import pt.ptcris.PTCRISyncResult;
+import pt.ptcris.handlers.ExportListener;
+import pt.ptcris.test.MemoryClient;
+import pt.ptcris.test.TestHelper;
+
+/**
+ * Tests that the export listener receives the final outcome of each local
+ * activity exactly once, as soon as the corresponding ORCID call completes,
+ * and never concurrently.
+ */
+public class ExportListenerTest {
+
+	@Test
+	public void reportsInExecutionOrder() throws Exception {
+		MemoryClient client = new MemoryClient("APP-LISTENER", "0000-0000-0000-0001", 1);
+		Recorder recorder = export(client);
+
+		// invalid and up-to-date activities first, then updates and additions
+		assertEquals(Arrays.asList(BigInteger.valueOf(5), BigInteger.valueOf(1), BigInteger.valueOf(2),
+				BigInteger.valueOf(4)), new ArrayList<BigInteger>(recorder.codes.keySet()));
+		assertEquals(Arrays.asList(PTCRISyncResult.INVALID, PTCRISyncResult.UPTODATE, PTCRISyncResult.UPDATEOK,
+				PTCRISyncResult.ADDOK), new ArrayList<Integer>(recorder.codes.values()));
+	}
+
+	@Test
+	public void reportsOnceWithWorkers() throws Exception {
+		MemoryClient client = new MemoryClient("APP-LISTENER", "0000-0000-0000-0002", 4);
+		Recorder recorder = export(client);
+		assertEquals(4, recorder.codes.size());
+	}
+
+	/**
+	 * Exports a set of works, then exports them again with an up-to-date, an
+	 * updated, a removed, an added and an invalid work, recording the
+	 * outcomes reported by the listener in the second export.
+	 */
+	private static Recorder export(MemoryClient client) throws Exception {
+		List<Work> locals = new ArrayList<Work>();
+		locals.add(TestHelper.workDOI(BigInteger.valueOf(1), "1", "1"));
+		locals.add(TestHelper.workDOIHANDLE(BigInteger.valueOf(2), "2", "2", "2"));
+		locals.add(TestHelper.workDOI(BigInteger.valueOf(3), "3", "3"));
+		PTCRISync.exportWorks(client, locals, TestHelper.handler());
+
+		locals.set(1, TestHelper.workDOIHANDLE(BigInteger.valueOf(2), "2", "2", "5"));
+		locals.remove(2);
+		locals.add(TestHelper.workDOI(BigInteger.valueOf(4), "4", "4"));
+		locals.add(TestHelper.work(BigInteger.valueOf(5), "5"));
+		Recorder recorder = new Recorder(client);
+		Map<BigInteger, PTCRISyncResult<Work>> result = PTCRISync.exportWorks(client, locals,
+				TestHelper.handler(), recorder);
+
+		assertEquals(result.size(), recorder.codes.size());
+		for (Map.Entry<BigInteger, PTCRISyncResult<Work>> e : result.entrySet())
+			assertEquals(Integer.valueOf(e.getValue().code), recorder.codes.get(e.getKey()));
+		assertEquals(3, client.getWorks().size());
+		return recorder;
+	}
+
+	/**
+	 * Records the reported outcomes, checking that each is reported once,
+	 * after being applied to the profile, and never concurrently.
+	 */
+	private static final class Recorder implements ExportListener<Work> {
+		private final MemoryClient client;
+		private final Map<BigInteger, Integer> codes = new LinkedHashMap<BigInteger, Integer>();
+		private final AtomicBoolean reporting = new AtomicBoolean(false);
+
+		private Recorder(MemoryClient client) {
+			this.client = client;
+		}
+
+		@Override
+		public void result(BigInteger key, PTCRISyncResult<Work> result) {
+			assertTrue(reporting.compareAndSet(false, true));
+			assertNull(codes.put(key, result.code));
+			if (result.code == PTCRISyncResult.ADDOK)
+				assertTrue(client.getWorks().containsKey(result.putcode));
+			reporting.set(false);
+		}
+	}
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.test.sync;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.um.dsi.gavea.orcid.model.work.Work;
+
+import pt.ptcris.PTCRISync;
+import pt.ptcris.test.MemoryClient;
+import pt.ptcris.test.TestHelper;
+
+/**
+ * Tests that the import publisher delivers no more activities than
+ * requested, stops retrieving them while there is no demand, and stops the
+ * import procedure once cancelled.
+ */
+public class ImportPublisherTest {
+
+	@Test
+	public void deliversOnDemand() throws Exception {
+		Collector collector = new Collector(1, false);
+		PTCRISync.importWorksPublisher(ImportTest.profile(1, 5), new ArrayList<Work>(), TestHelper.handler())
+				.subscribe(collector);
+
+		collector.await(1);
+		Thread.sleep(100);
+		assertEquals(1, collector.received.get());
+		assertFalse(collector.done.await(0, TimeUnit.MILLISECONDS));
+
+		collector.subscription.request(10);
+		assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+		assertEquals(5, collector.received.get());
+		assertNull(collector.error);
+	}
+
+	@Test
+	public void pausesWithoutDemand() throws Exception {
+		MemoryClient client = ImportTest.profile(4, 2000);
+		Collector collector = new Collector(0, false);
+		PTCRISync.importWorksPublisher(client, new ArrayList<Work>(), TestHelper.handler()).subscribe(collector);
+
+		awaitStable(client);
+		assertTrue(client.reads.get() < 2000);
+		assertEquals(0, collector.received.get());
+
+		collector.subscription.request(Long.MAX_VALUE);
+		assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+		assertEquals(2000, collector.received.get());
+		assertNull(collector.error);
+	}
+
+	@Test
+	public void stopsWhenCancelled() throws Exception {
+		MemoryClient client = ImportTest.profile(4, 2000);
+		Collector collector = new Collector(1, true);
+		PTCRISync.importWorksPublisher(client, new ArrayList<Work>(), TestHelper.handler()).subscribe(collector);
+
+		collector.await(1);
+		long deadline = System.currentTimeMillis() + 10000;
+		while (importing())
+			if (System.currentTimeMillis() > deadline)
+				fail("Import not stopped.");
+			else
+				Thread.sleep(10);
+		assertTrue(client.reads.get() < 2000);
+		assertEquals(1, collector.received.get());
+		assertFalse(collector.done.await(100, TimeUnit.MILLISECONDS));
+	}
+
+	/**
+	 * Waits until the number of retrieved activities stops growing.
+	 */
+	private static void awaitStable(MemoryClient client) throws InterruptedException {
+		int reads;
+		do {
+			reads = client.reads.get();
+			Thread.sleep(200);
+		} while (reads != client.reads.get());
+	}
+
+	private static boolean importing() {
+		for (Thread thread : Thread.getAllStackTraces().keySet())
+			if (thread.getName().startsWith("ptcrisync-import") && thread.isAlive())
+				return true;
+		return false;
+	}
+
+	/**
+	 * Counts the delivered activities, requesting an initial number of them
+	 * and optionally cancelling the subscription after the first.
+	 */
+	private static final class Collector implements Flow.Subscriber<Work> {
+		private final long initial;
+		private final boolean cancel;
+		private final AtomicInteger received = new AtomicInteger();
+		private final CountDownLatch done = new CountDownLatch(1);
+		private volatile Flow.Subscription subscription;
+		private volatile Throwable error;
+
+		private Collector(long initial, boolean cancel) {
+			this.initial = initial;
+			this.cancel = cancel;
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			if (initial > 0)
+				subscription.request(initial);
+		}
+
+		@Override
+		public void onNext(Work item) {
+			received.incrementAndGet();
+			if (cancel)
+				subscription.cancel();
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			error = throwable;
+			done.countDown();
+		}
+
+		@Override
+		public void onComplete() {
+			done.countDown();
+		}
+
+		private void await(int n) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + 10000;
+			while (received.get() < n && System.currentTimeMillis() < deadline)
+				Thread.sleep(10);
+			assertEquals(n, received.get());
+		}
+	}
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.test.sync;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+import org.um.dsi.gavea.orcid.model.common.ExternalId;
+import org.um.dsi.gavea.orcid.model.common.Relationship;
+import org.um.dsi.gavea.orcid.model.work.Work;
+
+import pt.ptcris.PTCRISync;
+import pt.ptcris.test.MemoryClient;
+import pt.ptcris.test.TestHelper;
+import pt.ptcris.utils.ORCIDHelper;
+
+/**
+ * Tests that the import procedure retrieves a single merged activity for
+ * each novel valid group of the profile, skipping those matched by local
+ * activities.
+ */
+public class ImportTest {
+
+	@Test
+	public void importsNovelGroups() throws Exception {
+		MemoryClient client = profile(1, 5);
+		List<Work> locals = Arrays.asList(TestHelper.workDOI(BigInteger.valueOf(1), "0", "3"));
+
+		List<Work> imported = PTCRISync.importWorks(client, locals, TestHelper.handler());
+		// the two works sharing the first identifier are merged
+		assertEquals(keys(Arrays.asList(TestHelper.workDOIHANDLE(null, "1", "0", "0"), TestHelper.workDOI(null, "0", "1"),
+				TestHelper.workDOI(null, "0", "2"), TestHelper.workDOI(null, "0", "4"))), keys(imported));
+	}
+
+	@Test
+	public void pipelinesRetrievals() throws Exception {
+		List<Work> locals = new ArrayList<Work>();
+		for (int i = 0; i < 300; i += 3)
+			locals.add(TestHelper.workDOI(BigInteger.valueOf(i), "0", String.valueOf(i)));
+
+		// several bulk requests, issued sequentially or by the workers
+		List<String> sequential = keys(PTCRISync.importWorks(profile(1, 300), locals, TestHelper.handler()));
+		List<String> pipelined = keys(PTCRISync.importWorks(profile(4, 300), locals, TestHelper.handler()));
+		assertEquals(200, sequential.size());
+		assertEquals(sequential, pipelined);
+	}
+
+	/**
+	 * Creates a profile of works added by the user, one for each DOI, where
+	 * the first DOI is shared with a work with a handle.
+	 */
+	static MemoryClient profile(int threads, int size) {
+		MemoryClient client = new MemoryClient("APP-IMPORT", "0000-0000-0000-0001", threads);
+		for (int i = 0; i < size; i++)
+			client.addForeign(TestHelper.workDOI(null, "0", String.valueOf(i)), "APP-USER");
+		client.addForeign(TestHelper.workDOIHANDLE(null, "1", "0", "0"), "APP-USER");
+		return client;
+	}
+
+	/**
+	 * The normalized self identifiers of each activity, sorted.
+	 */
+	static List<String> keys(List<Work> works) {
+		List<String> res = new ArrayList<String>();
+		for (Work work : works) {
+			assertNull(work.getPutCode());
+			Set<String> keys = new TreeSet<String>();
+			for (ExternalId eid : work.getExternalIds().getExternalId())
+				if (eid.getExternalIdRelationship() == Relationship.SELF)
+					keys.add(ORCIDHelper.getKey(eid));
+			res.add(keys.toString());
+		}
+		Collections.sort(res);
+		return res;
+	}
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.test.sync;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.um.dsi.gavea.orcid.model.work.Work;
+
+import pt.ptcris.PTCRISync;
+import pt.ptcris.PTCRISyncResult;
+import pt.ptcris.test.MemoryClient;
+import pt.ptcris.test.TestHelper;
+import pt.ptcris.utils.ExportJournal;
+import pt.ptcris.utils.ORCIDWorkHelper;
+
+/**
+ * Tests that an export interrupted between bulk additions is resumed from
+ * the export journal, reporting the put-codes assigned to the activities
+ * added by the interrupted export without adding them again.
+ */
+public class ResumeExportTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void reportsInterruptedAdditions() throws Exception {
+		CrashingClient client = new CrashingClient(1);
+		try (ExportJournal journal = new ExportJournal(folder.getRoot().toPath(), 1)) {
+			try {
+				export(client, journal);
+				fail("Export not interrupted.");
+			} catch (IllegalStateException e) {
+				assertEquals(100, client.getWorks().size());
+			}
+
+			client.limit = Integer.MAX_VALUE;
+			Map<BigInteger, PTCRISyncResult<Work>> result = export(client, journal);
+			assertEquals(150, result.size());
+			assertEquals(150, client.getWorks().size());
+			Set<BigInteger> putcodes = new HashSet<BigInteger>();
+			for (PTCRISyncResult<Work> res : result.values()) {
+				assertEquals(PTCRISyncResult.ADDOK, res.code);
+				putcodes.add(res.putcode);
+			}
+			assertEquals(client.getWorks().keySet(), putcodes);
+
+			// the journal was discarded
+			result = export(client, journal);
+			for (PTCRISyncResult<Work> res : result.values())
+				assertEquals(PTCRISyncResult.UPTODATE, res.code);
+		}
+	}
+
+	private static Map<BigInteger, PTCRISyncResult<Work>> export(MemoryClient client, ExportJournal journal)
+			throws Exception {
+		List<Work> locals = new ArrayList<Work>();
+		for (int i = 1; i <= 150; i++)
+			locals.add(TestHelper.workDOI(BigInteger.valueOf(i), String.valueOf(i), String.valueOf(i)));
+		ORCIDWorkHelper helper = new ORCIDWorkHelper(client);
+		helper.setExportJournal(journal);
+		return PTCRISync.exportWorks(helper, locals, TestHelper.handler());
+	}
+
+	/**
+	 * A client that crashes after a number of bulk additions.
+	 */
+	private static final class CrashingClient extends MemoryClient {
+		private volatile int limit;
+		private int requests;
+
+		private CrashingClient(int limit) {
+			super("APP-RESUME", "0000-0000-0000-0001", 1);
+			this.limit = limit;
+		}
+
+		@Override
+		public synchronized List<PTCRISyncResult<Work>> addWorks(List<Work> works) {
+			if (++requests > limit)
+				throw new IllegalStateException("Crashed.");
+			return super.addWorks(works);
+		}
+	}
+
+}
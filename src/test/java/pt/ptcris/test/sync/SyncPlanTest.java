@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.test.sync;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.Test;
+import org.um.dsi.gavea.orcid.model.common.ExternalId;
+import org.um.dsi.gavea.orcid.model.common.ExternalIds;
+import org.um.dsi.gavea.orcid.model.common.Relationship;
+import org.um.dsi.gavea.orcid.model.work.Work;
+import org.um.dsi.gavea.orcid.model.work.WorkSummary;
+
+import pt.ptcris.PTCRISync;
+import pt.ptcris.PTCRISyncResult;
+import pt.ptcris.SyncPlan;
+import pt.ptcris.test.MemoryClient;
+import pt.ptcris.test.TestHelper;
+import pt.ptcris.utils.ORCIDHelper;
+import pt.ptcris.utils.ORCIDWorkHelper;
+
+/**
+ * Tests that executing an export plan, sequentially or by workers, has the
+ * same outcome as exporting directly, that planning performs no mutations,
+ * and that plans neither modify the local activities nor are affected by
+ * their later changes.
+ */
+public class SyncPlanTest {
+
+	@Test
+	public void executesAsExport() throws Exception {
+		MemoryClient direct = exported(1), planned = exported(1);
+
+		Map<BigInteger, Integer> expected = codes(PTCRISync.exportWorks(direct, changed(), TestHelper.handler()));
+
+		int mutations = planned.mutationRequests.get();
+		ORCIDWorkHelper helper = new ORCIDWorkHelper(planned);
+		SyncPlan<Work, WorkSummary> plan = PTCRISync.planExportWorks(helper, changed(), TestHelper.handler());
+		assertEquals(mutations, planned.mutationRequests.get());
+		assertEquals(1, plan.deletes.size());
+		assertEquals(2, plan.updates.size());
+		assertEquals(1, plan.adds.size());
+		assertEquals(1, plan.invalids.size());
+
+		assertEquals(expected, codes(PTCRISync.exportPlan(helper, plan, TestHelper.handler(), null)));
+		assertEquals(profile(direct), profile(planned));
+	}
+
+	@Test
+	public void executesConcurrentlyAsSequentially() throws Exception {
+		MemoryClient sequential = exported(1), concurrent = exported(4);
+
+		Map<BigInteger, Integer> expected = codes(PTCRISync.exportWorks(sequential, changed(), TestHelper.handler()));
+
+		ORCIDWorkHelper helper = new ORCIDWorkHelper(concurrent);
+		SyncPlan<Work, WorkSummary> plan = PTCRISync.planExportWorks(helper, changed(), TestHelper.handler());
+		assertEquals(expected, codes(PTCRISync.exportPlan(helper, plan, TestHelper.handler(), null)));
+		// put-codes are assigned in the order of the concurrent additions
+		assertEquals(new TreeSet<String>(profile(sequential).values()),
+				new TreeSet<String>(profile(concurrent).values()));
+	}
+
+	@Test
+	public void isolatesLocals() throws Exception {
+		MemoryClient direct = exported(1), planned = exported(1);
+		PTCRISync.exportWorks(direct, changed(), TestHelper.handler());
+
+		List<Work> locals = changed();
+		List<ExternalIds> eids = new ArrayList<ExternalIds>();
+		List<String> keys = new ArrayList<String>();
+		for (Work local : locals) {
+			eids.add(local.getExternalIds());
+			keys.add(keys(local).toString());
+		}
+		ORCIDWorkHelper helper = new ORCIDWorkHelper(planned);
+		SyncPlan<Work, WorkSummary> plan = PTCRISync.planExportWorks(helper, locals, TestHelper.handler());
+
+		// changes after planning are not executed
+		for (Work local : locals)
+			local.setExternalIds(new ExternalIds());
+		PTCRISync.exportPlan(helper, plan, TestHelper.handler(), null);
+		assertEquals(profile(direct), profile(planned));
+
+		for (int i = 0; i < locals.size(); i++)
+			locals.get(i).setExternalIds(eids.get(i));
+		for (int i = 0; i < locals.size(); i++) {
+			assertSame(eids.get(i), locals.get(i).getExternalIds());
+			assertEquals(keys.get(i), keys(locals.get(i)).toString());
+		}
+	}
+
+	/**
+	 * Creates a profile with the works exported by the CRIS.
+	 */
+	static MemoryClient exported(int threads) throws Exception {
+		MemoryClient client = new MemoryClient("APP-PLAN", "0000-0000-0000-0001", threads);
+		List<Work> locals = new ArrayList<Work>();
+		locals.add(TestHelper.workDOIHANDLE(BigInteger.valueOf(1), "1", "1", "1"));
+		locals.add(TestHelper.workDOI(BigInteger.valueOf(2), "2", "2"));
+		locals.add(TestHelper.workDOI(BigInteger.valueOf(3), "3", "3"));
+		locals.add(TestHelper.workDOI(BigInteger.valueOf(4), "4", "4"));
+		PTCRISync.exportWorks(client, locals, TestHelper.handler());
+		return client;
+	}
+
+	/**
+	 * The local works after a change where a handle is removed from a work
+	 * and another added to another work, a work is removed, a work is added
+	 * and an invalid work is introduced. Each remote work matches a single
+	 * local work, since which one is updated would otherwise be unspecified.
+	 */
+	static List<Work> changed() {
+		List<Work> locals = new ArrayList<Work>();
+		locals.add(TestHelper.workDOI(BigInteger.valueOf(1), "1", "1"));
+		locals.add(TestHelper.workDOIHANDLE(BigInteger.valueOf(2), "2", "2", "2"));
+		locals.add(TestHelper.workDOI(BigInteger.valueOf(3), "3", "3"));
+		locals.add(TestHelper.workDOI(BigInteger.valueOf(5), "5", "5"));
+		locals.add(TestHelper.work(BigInteger.valueOf(6), "6"));
+		return locals;
+	}
+
+	static Map<BigInteger, Integer> codes(Map<BigInteger, PTCRISyncResult<Work>> result) {
+		Map<BigInteger, Integer> res = new TreeMap<BigInteger, Integer>();
+		for (Map.Entry<BigInteger, PTCRISyncResult<Work>> e : result.entrySet())
+			res.put(e.getKey(), e.getValue().code);
+		return res;
+	}
+
+	/**
+	 * The title and self identifiers of each work in a profile, by put-code.
+	 */
+	static Map<BigInteger, String> profile(MemoryClient client) {
+		Map<BigInteger, String> res = new TreeMap<BigInteger, String>();
+		for (Work work : client.getWorks().values())
+			res.put(work.getPutCode(), work.getTitle().getTitle() + " " + keys(work));
+		return res;
+	}
+
+	private static Set<String> keys(Work work) {
+		Set<String> res = new TreeSet<String>();
+		for (ExternalId eid : work.getExternalIds().getExternalId())
+			if (eid.getExternalIdRelationship() == Relationship.SELF)
+				res.add(ORCIDHelper.getKey(eid));
+		return res;
+	}
+
+}
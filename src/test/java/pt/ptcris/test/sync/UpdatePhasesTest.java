@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.test.sync;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.junit.Test;
+import org.um.dsi.gavea.orcid.model.work.Work;
+import org.um.dsi.gavea.orcid.model.work.WorkSummary;
+
+import pt.ptcris.PTCRISync;
+import pt.ptcris.PTCRISyncResult;
+import pt.ptcris.SyncPlan;
+import pt.ptcris.test.MemoryClient;
+import pt.ptcris.test.TestHelper;
+import pt.ptcris.utils.ORCIDWorkHelper;
+
+/**
+ * Tests that updates replacing identifiers are sent in a single request
+ * unless a removed identifier is inserted by another operation of the
+ * export, in which case it is removed in a first phase to avoid conflicts.
+ */
+public class UpdatePhasesTest {
+
+	@Test
+	public void coalescesIndependentUpdates() throws Exception {
+		MemoryClient client = new MemoryClient("APP-PHASES", "0000-0000-0000-0001", 1);
+		PTCRISync.exportWorks(client, works(TestHelper.workDOIHANDLE(BigInteger.valueOf(1), "1", "1", "1")),
+				TestHelper.handler());
+
+		// the DOI is replaced
+		List<Work> locals = works(TestHelper.workDOIHANDLE(BigInteger.valueOf(1), "1", "9", "1"));
+		SyncPlan<Work, WorkSummary> plan = PTCRISync.planExportWorks(new ORCIDWorkHelper(client), works(locals),
+				TestHelper.handler());
+		assertEquals(1, plan.updates.size());
+		assertNull(plan.updates.get(0).phase1);
+		assertNotNull(plan.updates.get(0).phase2);
+
+		int mutations = client.mutationRequests.get();
+		Map<BigInteger, PTCRISyncResult<Work>> result = PTCRISync.exportWorks(client, locals, TestHelper.handler());
+		assertEquals(mutations + 1, client.mutationRequests.get());
+		assertEquals(PTCRISyncResult.UPDATEOK, result.get(BigInteger.valueOf(1)).code);
+		assertEquals(Arrays.asList("Meta-data 1 [doi:9, handle:1]"), titles(client));
+	}
+
+	@Test
+	public void keepsPhasesOnCollision() throws Exception {
+		MemoryClient client = new MemoryClient("APP-PHASES", "0000-0000-0000-0002", 1);
+		PTCRISync.exportWorks(client, works(TestHelper.workHANDLE(BigInteger.valueOf(2), "2", "2"),
+				TestHelper.workDOIHANDLE(BigInteger.valueOf(1), "1", "1", "1")), TestHelper.handler());
+
+		// the DOI of the first work is replaced and moved to the second
+		List<Work> locals = works(TestHelper.workDOIHANDLE(BigInteger.valueOf(2), "2", "1", "2"),
+				TestHelper.workDOIHANDLE(BigInteger.valueOf(1), "1", "9", "1"));
+		SyncPlan<Work, WorkSummary> plan = PTCRISync.planExportWorks(new ORCIDWorkHelper(client), works(locals),
+				TestHelper.handler());
+		assertEquals(2, plan.updates.size());
+		for (SyncPlan.Update<Work, WorkSummary> update : plan.updates)
+			assertEquals(update.key.equals(BigInteger.valueOf(1)), update.phase1 != null);
+
+		int mutations = client.mutationRequests.get();
+		Map<BigInteger, PTCRISyncResult<Work>> result = PTCRISync.exportWorks(client, locals, TestHelper.handler());
+		assertEquals(mutations + 3, client.mutationRequests.get());
+		assertEquals(PTCRISyncResult.UPDATEOK, result.get(BigInteger.valueOf(1)).code);
+		assertEquals(PTCRISyncResult.UPDATEOK, result.get(BigInteger.valueOf(2)).code);
+		assertEquals(Arrays.asList("Meta-data 1 [doi:9, handle:1]", "Meta-data 2 [doi:1, handle:2]"), titles(client));
+	}
+
+	private static List<Work> works(Work... works) {
+		return new ArrayList<Work>(Arrays.asList(works));
+	}
+
+	private static List<Work> works(List<Work> works) {
+		return new ArrayList<Work>(works);
+	}
+
+	/**
+	 * The titles and self identifiers of the works in a profile, sorted.
+	 */
+	private static List<String> titles(MemoryClient client) {
+		return new ArrayList<String>(new TreeSet<String>(SyncPlanTest.profile(client).values()));
+	}
+
+}
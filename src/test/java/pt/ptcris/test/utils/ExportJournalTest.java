@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.test.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import pt.ptcris.PTCRISyncResult;
+import pt.ptcris.utils.ExportJournal;
+
+/**
+ * Tests that the export journal discards finished exports, recovers the
+ * additions and pending mutations of interrupted ones, also after repeated
+ * interruptions, and discards incomplete or corrupted tails.
+ */
+public class ExportJournalTest {
+
+	private static final String ORCID = "0000-0000-0000-0001";
+	private static final BigInteger K1 = BigInteger.valueOf(1), K2 = BigInteger.valueOf(2),
+			P1 = BigInteger.valueOf(101), P2 = BigInteger.valueOf(102), P5 = BigInteger.valueOf(105);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void discardsFinishedExports() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		try (ExportJournal journal = new ExportJournal(dir, 1)) {
+			assertNull(journal.begin(ORCID, "works"));
+			assertTrue(journal.interrupted(ORCID, "works"));
+			journal.intent(ORCID, "works", ExportJournal.ADD, K1);
+			journal.done(ORCID, "works", ExportJournal.ADD, K1, PTCRISyncResult.ADDOK, P1);
+			journal.end(ORCID, "works");
+			assertFalse(journal.interrupted(ORCID, "works"));
+		}
+		try (ExportJournal journal = new ExportJournal(dir, 1)) {
+			assertNull(journal.begin(ORCID, "works"));
+		}
+	}
+
+	@Test
+	public void recoversInterruptedExports() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		interrupt(dir, 100);
+		try (ExportJournal journal = new ExportJournal(dir, 100)) {
+			assertTrue(journal.interrupted(ORCID, "works"));
+			assertFalse(journal.interrupted(ORCID, "fundings"));
+			assertNull(journal.begin(ORCID, "fundings"));
+			ExportJournal.Recovery recovery = journal.begin(ORCID, "works");
+			assertEquals(Collections.singletonMap(K1, P1), recovery.adds);
+			assertEquals(1, recovery.pending);
+		}
+	}
+
+	@Test
+	public void keepsRecordsUntilFinished() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		interrupt(dir, 1);
+		// interrupted again while resuming
+		try (ExportJournal journal = new ExportJournal(dir, 1)) {
+			assertNotNull(journal.begin(ORCID, "works"));
+			journal.intent(ORCID, "works", ExportJournal.ADD, K2);
+			journal.done(ORCID, "works", ExportJournal.ADD, K2, PTCRISyncResult.ADDOK, P2);
+		}
+		try (ExportJournal journal = new ExportJournal(dir, 1)) {
+			ExportJournal.Recovery recovery = journal.begin(ORCID, "works");
+			assertEquals(P1, recovery.adds.get(K1));
+			assertEquals(P2, recovery.adds.get(K2));
+			assertEquals(0, recovery.pending);
+			journal.end(ORCID, "works");
+		}
+		try (ExportJournal journal = new ExportJournal(dir, 1)) {
+			assertNull(journal.begin(ORCID, "works"));
+		}
+	}
+
+	@Test
+	public void discardsTruncatedTail() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		interrupt(dir, 1);
+		try (RandomAccessFile file = new RandomAccessFile(journal(dir).toFile(), "rw")) {
+			file.setLength(file.length() - 1);
+		}
+		assertTruncated(dir);
+	}
+
+	@Test
+	public void discardsCorruptedTail() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		interrupt(dir, 1);
+		try (RandomAccessFile file = new RandomAccessFile(journal(dir).toFile(), "rw")) {
+			file.seek(file.length() - 1);
+			int last = file.read();
+			file.seek(file.length() - 1);
+			file.write(last ^ 0xFF);
+		}
+		assertTruncated(dir);
+	}
+
+	/**
+	 * Journals an export that is interrupted after an addition, a pending
+	 * addition and an update.
+	 */
+	private static void interrupt(Path dir, int syncEvery) throws IOException {
+		try (ExportJournal journal = new ExportJournal(dir, syncEvery)) {
+			assertNull(journal.begin(ORCID, "works"));
+			journal.intent(ORCID, "works", ExportJournal.ADD, K1);
+			journal.done(ORCID, "works", ExportJournal.ADD, K1, PTCRISyncResult.ADDOK, P1);
+			journal.intent(ORCID, "works", ExportJournal.ADD, K2);
+			journal.intent(ORCID, "works", ExportJournal.UPDATE, P5);
+			journal.done(ORCID, "works", ExportJournal.UPDATE, P5, PTCRISyncResult.UPDATEOK, null);
+		}
+	}
+
+	/**
+	 * Checks that the outcome of the last update was discarded, and that
+	 * records appended afterwards are recovered.
+	 */
+	private static void assertTruncated(Path dir) throws IOException {
+		try (ExportJournal journal = new ExportJournal(dir, 1)) {
+			ExportJournal.Recovery recovery = journal.begin(ORCID, "works");
+			assertEquals(Collections.singletonMap(K1, P1), recovery.adds);
+			assertEquals(2, recovery.pending);
+			journal.done(ORCID, "works", ExportJournal.ADD, K2, PTCRISyncResult.ADDOK, P2);
+		}
+		try (ExportJournal journal = new ExportJournal(dir, 1)) {
+			ExportJournal.Recovery recovery = journal.begin(ORCID, "works");
+			assertEquals(P2, recovery.adds.get(K2));
+			assertEquals(1, recovery.pending);
+		}
+	}
+
+	private static Path journal(Path dir) throws IOException {
+		try (Stream<Path> files = Files.list(dir)) {
+			return files.filter(p -> p.toString().endsWith(".journal")).findFirst().get();
+		}
+	}
+
+}
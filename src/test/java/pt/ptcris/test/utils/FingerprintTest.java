@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.test.utils;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.um.dsi.gavea.orcid.model.work.Work;
+import org.um.dsi.gavea.orcid.model.work.WorkSummary;
+
+import pt.ptcris.test.TestHelper;
+import pt.ptcris.utils.ORCIDWorkHelper;
+
+/**
+ * Tests that content fingerprints are stable and agree with the up-to-date
+ * tests, and that up-to-date tests given a fingerprint are settled by it
+ * when matching and otherwise compare the activities.
+ */
+public class FingerprintTest {
+
+	private final ORCIDWorkHelper helper = new ORCIDWorkHelper(null);
+
+	@Test
+	public void agreesWithUpToDateTests() {
+		Work work = TestHelper.workDOIHANDLE(BigInteger.valueOf(1), "1", "1", "1");
+		Work[] others = {
+				TestHelper.workDOIHANDLE(BigInteger.valueOf(2), "1", "1", "1"),
+				reversed(TestHelper.workDOIHANDLE(null, "1", "1", "1")),
+				TestHelper.workDOIHANDLE(BigInteger.valueOf(1), "2", "1", "1"),
+				TestHelper.workDOIHANDLE(BigInteger.valueOf(1), "1", "2", "1"),
+				TestHelper.workDOI(BigInteger.valueOf(1), "1", "1"),
+				TestHelper.workDOIEIDHANDLE(BigInteger.valueOf(1), "1", "1", "1", "1") };
+
+		for (Work other : others)
+			assertEquals(helper.isUpToDateE(work, other),
+					helper.fingerprintE(work).equals(helper.fingerprintE(other)));
+		assertTrue(helper.isUpToDateE(work, others[1]));
+	}
+
+	@Test
+	public void isStable() {
+		Work work = TestHelper.workDOIHANDLE(BigInteger.valueOf(1), "1", "1", "1");
+		UUID fingerprint = helper.fingerprintE(work);
+		assertEquals(fingerprint, new ORCIDWorkHelper(null).fingerprintE(
+				TestHelper.workDOIHANDLE(BigInteger.valueOf(1), "1", "1", "1")));
+		assertEquals(fingerprint, helper.fingerprintS(helper.summarize(work)));
+		// fingerprints of modified activities are calculated anew
+		work.getTitle().setTitle("Other");
+		assertNotEquals(fingerprint, helper.fingerprintE(work));
+	}
+
+	@Test
+	public void settlesByFingerprint() {
+		Work local = TestHelper.workDOI(BigInteger.valueOf(1), "1", "1");
+		WorkSummary remote = helper.summarize(TestHelper.workDOI(BigInteger.valueOf(1), "1", "1"));
+		WorkSummary outdated = helper.summarize(TestHelper.workDOI(BigInteger.valueOf(1), "2", "1"));
+
+		assertTrue(helper.isUpToDateS(local, helper.fingerprintE(local), remote));
+		// the fingerprint is trusted over the local activity
+		assertTrue(helper.isUpToDateS(local, helper.fingerprintS(outdated), outdated));
+		// otherwise the activities are compared
+		assertTrue(helper.isUpToDateS(local, null, remote));
+		assertTrue(helper.isUpToDateS(local, UUID.randomUUID(), remote));
+		assertFalse(helper.isUpToDateS(local, null, outdated));
+		assertFalse(helper.isUpToDateS(local, helper.fingerprintE(local), outdated));
+	}
+
+	/**
+	 * Reverses the order of the external identifiers of a work.
+	 */
+	private static Work reversed(Work work) {
+		Collections.reverse(work.getExternalIds().getExternalId());
+		return work;
+	}
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.test.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.um.dsi.gavea.orcid.client.exception.OrcidClientException;
+import org.um.dsi.gavea.orcid.model.work.WorkSummary;
+
+import pt.ptcris.test.MemoryClient;
+import pt.ptcris.test.TestHelper;
+import pt.ptcris.utils.ORCIDWorkHelper;
+
+/**
+ * Tests that interning shares the low-cardinality strings of summaries
+ * loaded by distinct requests, and that they are not shared otherwise.
+ */
+public class InterningTest {
+
+	@Test
+	public void sharesStringsAcrossRequests() throws OrcidClientException {
+		List<WorkSummary> first = load(true), second = load(true);
+		assertSame(first.get(0).getSource().getSourceClientId().getUriPath(),
+				second.get(0).getSource().getSourceClientId().getUriPath());
+		assertSame(type(first.get(0)), type(second.get(0)));
+		assertSame(type(first.get(0)), type(second.get(1)));
+	}
+
+	@Test
+	public void keepsStringsOtherwise() throws OrcidClientException {
+		List<WorkSummary> first = load(false), second = load(false);
+		assertEquals(first.get(0).getSource().getSourceClientId().getUriPath(),
+				second.get(0).getSource().getSourceClientId().getUriPath());
+		assertNotSame(first.get(0).getSource().getSourceClientId().getUriPath(),
+				second.get(0).getSource().getSourceClientId().getUriPath());
+		assertNotSame(type(first.get(0)), type(second.get(0)));
+	}
+
+	private static List<WorkSummary> load(boolean intern) throws OrcidClientException {
+		MemoryClient client = new MemoryClient("APP-IN", "0000-0000-0000-0001", 1);
+		client.addWork(TestHelper.workDOI(null, "0", "0"));
+		client.addWork(TestHelper.workDOI(null, "1", "1"));
+		ORCIDWorkHelper helper = new ORCIDWorkHelper(client);
+		helper.setInterning(intern);
+		List<WorkSummary> res = helper.getSourcedSummaries();
+		assertEquals(2, res.size());
+		return res;
+	}
+
+	private static String type(WorkSummary summary) {
+		return summary.getExternalIds().getExternalId().get(0).getExternalIdType();
+	}
+
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.test.utils;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+
+import org.junit.Test;
+import org.um.dsi.gavea.orcid.model.activities.FundingGroup;
+import org.um.dsi.gavea.orcid.model.activities.WorkGroup;
+import org.um.dsi.gavea.orcid.model.funding.Funding;
+import org.um.dsi.gavea.orcid.model.work.Work;
+import org.um.dsi.gavea.orcid.model.work.WorkSummary;
+
+import pt.ptcris.test.TestHelper;
+import pt.ptcris.utils.ORCIDHelper;
+import pt.ptcris.utils.ORCIDSnapshot;
+
+/**
+ * Tests that snapshots round-trip every field of the ORCID model, and that
+ * invalid snapshots are rejected. The activities are populated through
+ * reflection, so that every field declared by the model is covered.
+ */
+public class ORCIDSnapshotTest {
+
+	@Test
+	public void roundTripsWorkGroups() {
+		List<WorkGroup> groups = Arrays.asList(populate(WorkGroup.class), populate(WorkGroup.class));
+		byte[] snapshot = ORCIDSnapshot.writeWorkGroups(groups);
+		assertDeepEquals(groups, ORCIDSnapshot.readWorkGroups(ByteBuffer.wrap(snapshot)));
+	}
+
+	@Test
+	public void roundTripsFundingGroups() {
+		List<FundingGroup> groups = Arrays.asList(populate(FundingGroup.class));
+		byte[] snapshot = ORCIDSnapshot.writeFundingGroups(groups);
+		assertDeepEquals(groups, ORCIDSnapshot.readFundingGroups(ByteBuffer.wrap(snapshot)));
+	}
+
+	@Test
+	public void roundTripsFullActivities() {
+		List<Work> works = Arrays.asList(populate(Work.class), new Work());
+		assertDeepEquals(works, ORCIDSnapshot.readWorks(ByteBuffer.wrap(ORCIDSnapshot.writeWorks(works))));
+
+		List<Funding> fundings = Arrays.asList(populate(Funding.class));
+		assertDeepEquals(fundings,
+				ORCIDSnapshot.readFundings(ByteBuffer.wrap(ORCIDSnapshot.writeFundings(fundings))));
+	}
+
+	@Test
+	public void summariesMatchThoseOfTheHelper() throws Exception {
+		Work work = TestHelper.workDOIEID(BigInteger.valueOf(1234567), "1", "10.1/1", "1");
+		List<WorkSummary> summaries = Arrays.asList(ORCIDHelper.factoryStaticWorks().summarize(work));
+
+		Path file = Files.createTempFile("snapshot", ".bin");
+		try {
+			Files.write(file, ORCIDSnapshot.writeWorkSummaries(summaries));
+			assertDeepEquals(summaries, ORCIDSnapshot.readWorkSummaries(ORCIDSnapshot.map(file)));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void rejectsTruncatedSnapshots() {
+		byte[] snapshot = ORCIDSnapshot.writeWorkGroups(Arrays.asList(populate(WorkGroup.class)));
+		for (int size = 0; size < snapshot.length; size++) {
+			try {
+				ORCIDSnapshot.readWorkGroups(ByteBuffer.wrap(Arrays.copyOf(snapshot, size)));
+				fail("Truncated snapshot read: " + size);
+			} catch (IllegalArgumentException e) {
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsOtherKinds() {
+		byte[] snapshot = ORCIDSnapshot.writeWorks(Arrays.asList(populate(Work.class)));
+		ORCIDSnapshot.readFundings(ByteBuffer.wrap(snapshot));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void rejectsUnsupportedValues() {
+		Work work = TestHelper.work(BigInteger.valueOf(1), "1");
+		((List) work.getExternalIds().getExternalId()).add(new java.util.Date());
+		ORCIDSnapshot.writeWorks(Arrays.asList(work));
+	}
+
+	/**
+	 * Creates an instance of a class of the ORCID model with every field set.
+	 */
+	private static <T> T populate(Class<T> type) {
+		return type.cast(value(type, type, 0));
+	}
+
+	private static Object value(Class<?> type, Type generic, int depth) {
+		try {
+			if (type == String.class || type == Object.class)
+				return "value" + depth;
+			if (type == Boolean.class || type == boolean.class)
+				return true;
+			if (type == Integer.class || type == int.class)
+				return -depth;
+			if (type == Long.class || type == long.class)
+				return Long.MIN_VALUE;
+			if (type == BigInteger.class)
+				return BigInteger.valueOf(1234567 + depth);
+			if (type == BigDecimal.class)
+				return new BigDecimal("12.50");
+			if (type.isEnum())
+				return type.getEnumConstants()[type.getEnumConstants().length - 1];
+			if (type == XMLGregorianCalendar.class)
+				return DatatypeFactory.newInstance().newXMLGregorianCalendar("2017-03-01T10:00:00.000Z");
+			if (type == List.class) {
+				Type element = ((ParameterizedType) generic).getActualTypeArguments()[0];
+				List<Object> list = new ArrayList<Object>();
+				if (element instanceof Class)
+					list.add(value((Class<?>) element, element, depth + 1));
+				return list;
+			}
+			if (!type.getName().startsWith("org.um.dsi.gavea.orcid.model.") || depth > 6)
+				return null;
+
+			Constructor<?> constructor = type.getDeclaredConstructor();
+			constructor.setAccessible(true);
+			Object res = constructor.newInstance();
+			for (Field field : fields(type))
+				field.set(res, value(field.getType(), field.getGenericType(), depth + 1));
+			return res;
+		} catch (Exception e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	private static void assertDeepEquals(Object expected, Object actual) {
+		try {
+			if (expected == null || actual == null || !expected.getClass().getName().startsWith("org.um.dsi.gavea.orcid.model.")
+					|| expected.getClass().isEnum()) {
+				if (expected instanceof List && actual instanceof List) {
+					List<?> es = (List<?>) expected, as = (List<?>) actual;
+					assertEquals(es.size(), as.size());
+					for (int i = 0; i < es.size(); i++)
+						assertDeepEquals(es.get(i), as.get(i));
+				} else
+					assertEquals(expected, actual);
+				return;
+			}
+			assertEquals(expected.getClass(), actual.getClass());
+			for (Field field : fields(expected.getClass()))
+				assertDeepEquals(field.get(expected), field.get(actual));
+		} catch (IllegalAccessException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	private static List<Field> fields(Class<?> type) {
+		List<Field> res = new ArrayList<Field>();
+		for (Class<?> c = type; c != null; c = c.getSuperclass())
+			for (Field field : c.getDeclaredFields())
+				if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isTransient(field.getModifiers())) {
+					field.setAccessible(true);
+					res.add(field);
+				}
+		return res;
+	}
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.test.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import pt.ptcris.PTCRISyncResult;
+import pt.ptcris.utils.ProfileStore;
+
+/**
+ * Tests that the profile store round-trips snapshots and classifications,
+ * recovers them when re-opened, discards incomplete or corrupted tails, and
+ * keeps live entries when compacted.
+ */
+public class ProfileStoreTest {
+
+	private static final String ORCID = "0000-0000-0000-0001";
+	private static final long DAY = 24 * 60 * 60 * 1000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void roundTripsSnapshots() throws IOException {
+		try (ProfileStore store = new ProfileStore(folder.getRoot().toPath(), DAY)) {
+			assertNull(store.get(ORCID, "works"));
+			store.put(ORCID, "works", bytes("a"));
+			store.put(ORCID, "fundings", bytes("b"));
+			assertEquals("a", string(store.get(ORCID, "works")));
+			store.put(ORCID, "works", bytes("c"));
+			assertEquals("c", string(store.get(ORCID, "works")));
+			assertEquals("b", string(store.get(ORCID, "fundings")));
+			store.invalidate(ORCID, "works");
+			assertNull(store.get(ORCID, "works"));
+			assertNull(store.get("0000-0000-0000-0002", "fundings"));
+		}
+	}
+
+	@Test
+	public void recoversWhenReopened() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		try (ProfileStore store = new ProfileStore(dir, DAY)) {
+			store.put(ORCID, "works", bytes("a"));
+			store.put(ORCID, "fundings", bytes("b"));
+			store.put(ORCID, "works", bytes("c"));
+			store.invalidate(ORCID, "fundings");
+		}
+		try (ProfileStore store = new ProfileStore(dir, DAY)) {
+			assertEquals("c", string(store.get(ORCID, "works")));
+			assertNull(store.get(ORCID, "fundings"));
+		}
+	}
+
+	@Test
+	public void discardsTruncatedTail() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		try (ProfileStore store = new ProfileStore(dir, DAY)) {
+			store.put(ORCID, "works", bytes("a"));
+			store.put(ORCID, "fundings", bytes("b"));
+		}
+		Path log = log(dir);
+		try (RandomAccessFile file = new RandomAccessFile(log.toFile(), "rw")) {
+			file.setLength(file.length() - 1);
+		}
+		try (ProfileStore store = new ProfileStore(dir, DAY)) {
+			assertEquals("a", string(store.get(ORCID, "works")));
+			assertNull(store.get(ORCID, "fundings"));
+			store.put(ORCID, "fundings", bytes("d"));
+		}
+		try (ProfileStore store = new ProfileStore(dir, DAY)) {
+			assertEquals("a", string(store.get(ORCID, "works")));
+			assertEquals("d", string(store.get(ORCID, "fundings")));
+		}
+	}
+
+	@Test
+	public void discardsCorruptedTail() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		try (ProfileStore store = new ProfileStore(dir, DAY)) {
+			store.put(ORCID, "works", bytes("a"));
+			store.put(ORCID, "fundings", bytes("b"));
+		}
+		Path log = log(dir);
+		try (RandomAccessFile file = new RandomAccessFile(log.toFile(), "rw")) {
+			file.seek(file.length() - 1);
+			file.write('x');
+		}
+		try (ProfileStore store = new ProfileStore(dir, DAY)) {
+			assertEquals("a", string(store.get(ORCID, "works")));
+			assertNull(store.get(ORCID, "fundings"));
+		}
+	}
+
+	@Test
+	public void compactsToLiveEntries() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		try (ProfileStore store = new ProfileStore(dir, DAY)) {
+			for (int i = 0; i < 10; i++)
+				store.put(ORCID, "works", bytes("a" + i));
+			store.put(ORCID, "fundings", bytes("b"));
+			store.invalidate(ORCID, "fundings");
+			long before = Files.size(log(dir));
+			store.compact();
+			assertTrue(Files.size(log(dir)) < before);
+			assertEquals("a9", string(store.get(ORCID, "works")));
+			assertNull(store.get(ORCID, "fundings"));
+			store.put(ORCID, "fundings", bytes("c"));
+		}
+		try (ProfileStore store = new ProfileStore(dir, DAY)) {
+			assertEquals("a9", string(store.get(ORCID, "works")));
+			assertEquals("c", string(store.get(ORCID, "fundings")));
+		}
+	}
+
+	@Test
+	public void expiresSnapshotsButNotClassifications() throws Exception {
+		Map<BigInteger, Integer> codes = new LinkedHashMap<BigInteger, Integer>();
+		codes.put(BigInteger.valueOf(7), PTCRISyncResult.ADDOK);
+		codes.put(new BigInteger("123456789012345678901234567890"), PTCRISyncResult.UPTODATE);
+		codes.put(BigInteger.valueOf(-1), PTCRISyncResult.CLIENTERROR);
+
+		Path dir = folder.getRoot().toPath();
+		try (ProfileStore store = new ProfileStore(dir, 0)) {
+			assertNull(store.getClassification(ORCID, "works"));
+			store.put(ORCID, "works", bytes("a"));
+			store.putClassification(ORCID, "works", codes);
+			Thread.sleep(5);
+			assertNull(store.get(ORCID, "works"));
+			assertEquals(codes, store.getClassification(ORCID, "works"));
+		}
+		try (ProfileStore store = new ProfileStore(dir, DAY)) {
+			assertEquals("a", string(store.get(ORCID, "works")));
+			assertEquals(codes, store.getClassification(ORCID, "works"));
+			assertNull(store.getClassification(ORCID, "fundings"));
+		}
+	}
+
+	private static Path log(Path dir) throws IOException {
+		try (Stream<Path> files = Files.list(dir)) {
+			return files.filter(p -> p.toString().endsWith(".log")).findFirst().get();
+		}
+	}
+
+	private static byte[] bytes(String value) {
+		return value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String string(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.duplicate().get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+}
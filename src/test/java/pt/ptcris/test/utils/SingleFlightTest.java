@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.test.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.um.dsi.gavea.orcid.client.exception.OrcidClientException;
+import org.um.dsi.gavea.orcid.model.work.WorkSummary;
+
+import pt.ptcris.test.MemoryClient;
+import pt.ptcris.test.TestHelper;
+import pt.ptcris.utils.ORCIDWorkHelper;
+
+/**
+ * Tests that concurrent helpers over the same profile share a single request
+ * for its summaries, and that interrupted waiters fail without issuing their
+ * own.
+ */
+public class SingleFlightTest {
+
+	@Test
+	public void sharesConcurrentRequests() throws Exception {
+		MemoryClient client = new MemoryClient("APP-SF1", "0000-0000-0000-0001", 1);
+		client.addWork(TestHelper.workDOI(null, "0", "0"));
+		CountDownLatch entered = new CountDownLatch(1), release = new CountDownLatch(1);
+		client.hold(entered, release);
+
+		AtomicReference<Object> first = new AtomicReference<Object>();
+		AtomicReference<Object> second = new AtomicReference<Object>();
+		Thread leader = fetch(new ORCIDWorkHelper(client), first);
+		leader.start();
+		entered.await();
+		Thread waiter = fetch(new ORCIDWorkHelper(client), second);
+		waiter.start();
+		awaitWaiting(waiter);
+
+		release.countDown();
+		leader.join();
+		waiter.join();
+
+		assertEquals(1, client.summaryRequests.get());
+		assertEquals(1, ((List<?>) first.get()).size());
+		assertEquals(1, ((List<?>) second.get()).size());
+	}
+
+	@Test
+	public void failsInterruptedWaiters() throws Exception {
+		MemoryClient client = new MemoryClient("APP-SF2", "0000-0000-0000-0002", 1);
+		CountDownLatch entered = new CountDownLatch(1), release = new CountDownLatch(1);
+		client.hold(entered, release);
+
+		AtomicReference<Object> first = new AtomicReference<Object>();
+		AtomicReference<Object> second = new AtomicReference<Object>();
+		AtomicReference<Boolean> interrupted = new AtomicReference<Boolean>();
+		Thread leader = fetch(new ORCIDWorkHelper(client), first);
+		leader.start();
+		entered.await();
+		ORCIDWorkHelper helper = new ORCIDWorkHelper(client);
+		Thread waiter = new Thread(() -> {
+			try {
+				second.set(helper.getSourcedSummaries());
+			} catch (Throwable e) {
+				second.set(e);
+			}
+			interrupted.set(Thread.currentThread().isInterrupted());
+		});
+		waiter.start();
+		awaitWaiting(waiter);
+
+		waiter.interrupt();
+		waiter.join();
+		assertTrue(second.get() instanceof OrcidClientException);
+		assertTrue(interrupted.get());
+		assertEquals(1, client.summaryRequests.get());
+
+		release.countDown();
+		leader.join();
+		assertTrue(first.get() instanceof List);
+		assertEquals(1, client.summaryRequests.get());
+	}
+
+	private static Thread fetch(ORCIDWorkHelper helper, AtomicReference<Object> result) {
+		return new Thread(() -> {
+			try {
+				List<WorkSummary> res = helper.getSourcedSummaries();
+				result.set(res);
+			} catch (Throwable e) {
+				result.set(e);
+			}
+		});
+	}
+
+	/**
+	 * Waits until a thread is parked, i.e., joined the request in flight.
+	 */
+	private static void awaitWaiting(Thread thread) throws InterruptedException {
+		while (thread.getState() != Thread.State.WAITING)
+			Thread.sleep(1);
+	}
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.test.utils;
+
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.um.dsi.gavea.orcid.model.activities.WorkGroup;
+import org.um.dsi.gavea.orcid.model.common.ExternalId;
+import org.um.dsi.gavea.orcid.model.work.Work;
+import org.um.dsi.gavea.orcid.model.work.WorkSummary;
+
+import pt.ptcris.test.grouper.SyntheticWorks;
+import pt.ptcris.utils.ORCIDHelper;
+import pt.ptcris.utils.ORCIDSnapshot;
+
+/**
+ * Benchmarks loading work groups from a snapshot against merely parsing the
+ * equivalent XML, a lower bound on unmarshalling it, reporting the size and
+ * the average time of each after warm-up.
+ *
+ * Usage: SnapshotBenchmark [size [iterations]]
+ */
+public class SnapshotBenchmark {
+
+	public static void main(String[] args) throws XMLStreamException {
+		int size = args.length > 0 ? Integer.valueOf(args[0]) : 1000;
+		int iterations = args.length > 1 ? Integer.valueOf(args[1]) : 200;
+
+		List<WorkGroup> groups = new ArrayList<WorkGroup>();
+		for (Work work : new SyntheticWorks(size, 0, 0, 0.7, 42).works) {
+			WorkSummary summary = ORCIDHelper.factoryStaticWorks().summarize(work);
+			WorkGroup group = new WorkGroup();
+			group.setExternalIds(summary.getExternalIds());
+			group.getWorkSummary().add(summary);
+			groups.add(group);
+		}
+		byte[] snapshot = ORCIDSnapshot.writeWorkGroups(groups);
+		String xml = xml(groups);
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+
+		for (int i = 0; i < iterations; i++) {
+			ORCIDSnapshot.readWorkGroups(ByteBuffer.wrap(snapshot));
+			parse(factory, xml);
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++)
+			ORCIDSnapshot.readWorkGroups(ByteBuffer.wrap(snapshot));
+		double snapshotMs = (System.nanoTime() - start) / 1e6 / iterations;
+
+		start = System.nanoTime();
+		for (int i = 0; i < iterations; i++)
+			parse(factory, xml);
+		double xmlMs = (System.nanoTime() - start) / 1e6 / iterations;
+
+		System.out.println(String.format("%d work groups, %d iterations", size, iterations));
+		System.out.println(String.format("%-10s %10s %10s", "format", "bytes", "ms/op"));
+		System.out.println(String.format("%-10s %10d %10.3f", "snapshot", snapshot.length, snapshotMs));
+		System.out.println(String.format("%-10s %10d %10.3f", "xml", xml.length(), xmlMs));
+		System.out.println(String.format("speed-up over parsing alone: %.1f", xmlMs / snapshotMs));
+	}
+
+	/**
+	 * Reads every event and text of a document, without binding it.
+	 */
+	private static int parse(XMLInputFactory factory, String xml) throws XMLStreamException {
+		XMLStreamReader reader = factory.createXMLStreamReader(new StringReader(xml));
+		int chars = 0;
+		while (reader.hasNext())
+			if (reader.next() == XMLStreamReader.CHARACTERS)
+				chars += reader.getText().length();
+		reader.close();
+		return chars;
+	}
+
+	/**
+	 * Renders work groups as in the work summaries of the ORCID API.
+	 */
+	private static String xml(List<WorkGroup> groups) {
+		StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		sb.append("<activities:works xmlns:activities=\"http://www.orcid.org/ns/activities\" ")
+				.append("xmlns:common=\"http://www.orcid.org/ns/common\" xmlns:work=\"http://www.orcid.org/ns/work\">");
+		for (WorkGroup group : groups) {
+			sb.append("<activities:group><common:external-ids>");
+			for (ExternalId eid : group.getExternalIds().getExternalId())
+				externalId(sb, eid);
+			sb.append("</common:external-ids>");
+			for (WorkSummary summary : group.getWorkSummary()) {
+				sb.append("<work:work-summary put-code=\"").append(summary.getPutCode())
+						.append("\" visibility=\"public\" display-index=\"0\">");
+				sb.append("<common:source><common:source-client-id><common:path>APP-0000</common:path>")
+						.append("</common:source-client-id></common:source>");
+				sb.append("<work:title><common:title>").append(summary.getTitle().getTitle())
+						.append("</common:title></work:title><common:external-ids>");
+				for (ExternalId eid : summary.getExternalIds().getExternalId())
+					externalId(sb, eid);
+				sb.append("</common:external-ids><work:type>").append(summary.getType())
+						.append("</work:type><common:publication-date><common:year>")
+						.append(summary.getPublicationDate().getYear().getValue())
+						.append("</common:year></common:publication-date></work:work-summary>");
+			}
+			sb.append("</activities:group>");
+		}
+		return sb.append("</activities:works>").toString();
+	}
+
+	private static void externalId(StringBuilder sb, ExternalId eid) {
+		sb.append("<common:external-id><common:external-id-type>").append(eid.getExternalIdType())
+				.append("</common:external-id-type><common:external-id-value>").append(eid.getExternalIdValue())
+				.append("</common:external-id-value><common:external-id-relationship>")
+				.append(eid.getExternalIdRelationship()).append("</common:external-id-relationship></common:external-id>");
+	}
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2016, 2017 PTCRIS - FCT|FCCN and others.
+ * Licensed under MIT License
+ * http://ptcris.pt
+ *
+ * This copyright and license information (including a link to the full license)
+ * shall be included in its entirety in all copies or substantial portion of
+ * the software.
+ */
+package pt.ptcris.test.utils;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+import org.um.dsi.gavea.orcid.client.exception.OrcidClientException;
+import org.um.dsi.gavea.orcid.model.work.Work;
+import org.um.dsi.gavea.orcid.model.work.WorkSummary;
+
+import pt.ptcris.PTCRISyncResult;
+import pt.ptcris.test.MemoryClient;
+import pt.ptcris.test.TestHelper;
+import pt.ptcris.utils.ORCIDWorkHelper;
+
+/**
+ * Tests that cached summaries are patched by the mutations of the helper,
+ * so that cached reads reflect the profile without re-fetching it.
+ */
+public class SummaryCacheTest {
+
+	@Test
+	public void cachesEmptyProfiles() throws OrcidClientException {
+		MemoryClient client = new MemoryClient("APP-SC1", "0000-0000-0000-0001", 1);
+		ORCIDWorkHelper helper = new ORCIDWorkHelper(client, true);
+
+		assertTrue(helper.getSourcedSummaries().isEmpty());
+		assertTrue(helper.getSourcedSummaries().isEmpty());
+		assertEquals(1, client.summaryRequests.get());
+	}
+
+	@Test
+	public void patchesCacheOnMutations() throws OrcidClientException {
+		MemoryClient client = new MemoryClient("APP-SC2", "0000-0000-0000-0002", 1);
+		client.addForeign(TestHelper.workDOI(null, "0", "0"), "APP-OTHER");
+		ORCIDWorkHelper helper = new ORCIDWorkHelper(client, true);
+		assertTrue(helper.getSourcedSummaries().isEmpty());
+
+		PTCRISyncResult<Work> added = helper.add(Arrays.asList(TestHelper.workDOI(null, "1", "0"),
+				TestHelper.workDOI(null, "2", "2"), TestHelper.workHANDLE(null, "3", "3")), null).get(0);
+		assertEquals(PTCRISyncResult.ADDOK, added.code);
+		assertProfile(client, helper);
+
+		Work updated = TestHelper.workDOIHANDLE(null, "4", "4", "5");
+		assertEquals(PTCRISyncResult.UPDATEOK, helper.update(added.putcode, updated).code);
+		assertProfile(client, helper);
+
+		assertEquals(PTCRISyncResult.DELETEOK, helper.delete(added.putcode).code);
+		assertProfile(client, helper);
+
+		assertEquals(1, client.summaryRequests.get());
+	}
+
+	/**
+	 * Asserts that the cached sourced summaries of a helper match those
+	 * freshly retrieved from the profile.
+	 */
+	private static void assertProfile(MemoryClient client, ORCIDWorkHelper helper) throws OrcidClientException {
+		int requests = client.summaryRequests.get();
+		Map<BigInteger, String> expected = summaries(new ORCIDWorkHelper(client));
+		client.summaryRequests.set(requests);
+		assertEquals(expected, summaries(helper));
+	}
+
+	private static Map<BigInteger, String> summaries(ORCIDWorkHelper helper) throws OrcidClientException {
+		Map<BigInteger, String> res = new TreeMap<BigInteger, String>();
+		for (WorkSummary summary : helper.getSourcedSummaries())
+			res.put(summary.getPutCode(), summary.getTitle().getTitle() + " "
+					+ helper.getSelfExternalIdsS(summary).getExternalId().size());
+		return res;
+	}
+
+}